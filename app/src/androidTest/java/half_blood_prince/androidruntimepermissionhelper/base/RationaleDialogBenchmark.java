@@ -0,0 +1,108 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.app.Instrumentation;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.app.AlertDialog;
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import half_blood_prince.androidruntimepermissionhelper.MainActivity;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark comparing the show latency of a rationale dialog built on demand (cold) and taken from the
+ * {@link RationaleDialogCache} (warm). The latency is measured from obtaining the dialog until the main thread is
+ * idle again, i.e the dialog window is laid out and drawn.
+ *
+ * @author Half-Blood-Prince
+ */
+@RunWith(AndroidJUnit4.class)
+public class RationaleDialogBenchmark {
+
+    private static final String TAG = "RationaleDialogBench";
+
+    private static final int SAMPLES = 15;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule = new ActivityTestRule<>(MainActivity.class);
+
+    private final DialogInterface.OnClickListener mNoOpListener = new DialogInterface.OnClickListener() {
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+        }
+    };
+
+    @Test
+    public void coldVersusWarmShowLatency() {
+        long[] cold = new long[SAMPLES];
+        long[] warm = new long[SAMPLES];
+        PermissionHelper.PermissionModel warmModel = newModel(-1);
+        // Build the warm dialog once, outside of the measurement.
+        showAndDismiss(warmModel);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            cold[i] = showAndDismiss(newModel(i));
+            warm[i] = showAndDismiss(warmModel);
+        }
+
+        long coldMedian = median(cold);
+        long warmMedian = median(warm);
+        Log.i(TAG, "cold median " + coldMedian + " us, warm median " + warmMedian + " us");
+
+        Bundle results = new Bundle();
+        results.putLong("cold_show_median_us", coldMedian);
+        results.putLong("warm_show_median_us", warmMedian);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        assertTrue(coldMedian > 0 && warmMedian > 0);
+    }
+
+    private static PermissionHelper.PermissionModel newModel(int sample) {
+        return new PermissionHelper.PermissionModel(android.Manifest.permission.CAMERA,
+                "Permission Required " + sample, "Rationale message " + sample);
+    }
+
+    /**
+     * @return The show latency in microseconds.
+     */
+    private long showAndDismiss(final PermissionHelper.PermissionModel permissionModel) {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final AlertDialog[] dialog = new AlertDialog[1];
+
+        long start = System.nanoTime();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                dialog[0] = RationaleDialogCache.obtain(activityRule.getActivity(), permissionModel, mNoOpListener);
+                dialog[0].show();
+            }
+        });
+        instrumentation.waitForIdleSync();
+        long latency = (System.nanoTime() - start) / 1000;
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                dialog[0].dismiss();
+            }
+        });
+        instrumentation.waitForIdleSync();
+        return latency;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
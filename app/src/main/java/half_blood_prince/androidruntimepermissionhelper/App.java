@@ -1,18 +1,47 @@
 package half_blood_prince.androidruntimepermissionhelper;
 
 import android.app.Application;
+import android.content.res.Configuration;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+import half_blood_prince.androidruntimepermissionhelper.base.ResourceHelper;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionHistory;
 
 /**
  * @author Half-Blood-Prince
  */
 public class App extends Application {
 
+    private static final String PERMISSION_HISTORY_FILE = "permission_history";
+
     private static App sInstance = null;
 
     @Override
     public void onCreate() {
         super.onCreate();
         sInstance = this;
+        PermissionStateCache.install(this);
+        Executor backgroundExecutor = Executors.newSingleThreadExecutor();
+        PermissionStateCache.prefetch(this, backgroundExecutor);
+        installPermissionHistory(backgroundExecutor);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        ResourceHelper.onConfigurationChanged(newConfig);
+    }
+
+    private void installPermissionHistory(Executor backgroundExecutor) {
+        PermissionHistory history = new PermissionHistory(new File(getFilesDir(), PERMISSION_HISTORY_FILE),
+                backgroundExecutor);
+        history.preload();
+        PermissionHelper.setDefaultHistory(history);
     }
 
     public static App getInstance() {
@@ -6,7 +6,6 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -15,12 +14,15 @@ import android.widget.Toast;
 
 import half_blood_prince.androidruntimepermissionhelper.base.Permission;
 import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionJournal;
 
 /**
  * @author Half-Blood-Prince
  */
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
+    private static final String PERMISSION_HELPER_KEY = "MainActivity";
+
     private View btnRequestMultiplePermission;
 
     private TextView tvPermissionInfo;
@@ -34,6 +36,14 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         findGlobalViews();
         initGlobalInstance();
         setListeners();
+        // Resume the flow interrupted by the death of the process, no-op when the retained helper kept it.
+        mPermissionHelper.onRestoreInstanceState(savedInstanceState);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mPermissionHelper.onSaveInstanceState(outState);
     }
 
     private void findGlobalViews() {
@@ -42,31 +52,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
     private void initGlobalInstance() {
-        mPermissionHelper = PermissionHelper.fromActivity(this, Permission.getAllPermission());
-    }
-
-    private void setListeners() {
-        btnRequestMultiplePermission.setOnClickListener(this);
-    }
-
-    @Override
-    public void onClick(View v) {
-        if (v.getId() == R.id.btn_request_multiple_permission) {
-            clearPermissionInfo();
-            startRequestingMultiplePermission();
-        }
-    }
-
-
-    private void startRequestingMultiplePermission() {
-
+        // The helper survives the rotation, the result of a flow in progress is delivered to this instance.
+        mPermissionHelper = PermissionHelper.retainedFromActivity(this, PERMISSION_HELPER_KEY,
+                Permission.getAllPermissionRegistry());
+        // A double tap on the request button joins the run in progress instead of asking everything twice.
+        mPermissionHelper.setCoalescingWindow(PermissionHelper.DOUBLE_TAP_COALESCING_WINDOW_MILLIS);
         mPermissionHelper.setResultCallback(new PermissionHelper.PermissionResultCallback() {
             @Override
             public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
                 boolean isAnyPermissionDeniedCompletely = false;
 
                 for (PermissionHelper.PermissionResult result : permissionResults) {
-                    Log.d("garu", "mPermissionHelper Result " + result);
                     updatePermissionInfo("Result ::  " + result);
 
                     if (result.isPermissionDeniedCompletely())
@@ -86,7 +82,22 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 }
             }
         });
+    }
+
+    private void setListeners() {
+        btnRequestMultiplePermission.setOnClickListener(this);
+    }
+
+    @Override
+    public void onClick(View v) {
+        if (v.getId() == R.id.btn_request_multiple_permission) {
+            clearPermissionInfo();
+            startRequestingMultiplePermission();
+        }
+    }
+
 
+    private void startRequestingMultiplePermission() {
         mPermissionHelper.startCheckingPermission();
     }
 
@@ -97,7 +108,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private void updatePermissionInfo(@NonNull String info) {
         tvPermissionInfo.append(info);
         tvPermissionInfo.append("\n");
-        Log.d("garu", info);
     }
 
     @Override
@@ -122,6 +132,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             return true;
         } else if (itemId == R.id.menu_open_repo_in_git) {
             openThisProjectInGithub();
+        } else if (itemId == R.id.menu_show_permission_journal) {
+            tvPermissionInfo.setText(PermissionJournal.getInstance().dumpText());
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -4,12 +4,14 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnDenied;
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnDeniedCompletely;
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnGranted;
 import half_blood_prince.androidruntimepermissionhelper.base.Permission;
 import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
 
@@ -20,6 +22,8 @@ import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
  **/
 public class PermissionFragment extends Fragment implements View.OnClickListener {
 
+    private static final String PERMISSION_HELPER_KEY = "PermissionFragment";
+
     private View btnRequestMultiplePermission;
 
     private TextView tvPermissionInfo;
@@ -39,6 +43,15 @@ public class PermissionFragment extends Fragment implements View.OnClickListener
         findGlobalViews(view);
         initGlobalInstance();
         setListeners();
+        // Resume the flow interrupted by the death of the process, no-op when the retained helper kept it.
+        mPermissionHelper.onRestoreInstanceState(savedInstanceState);
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (null != mPermissionHelper)
+            mPermissionHelper.onSaveInstanceState(outState);
     }
 
     private void findGlobalViews(View rootView) {
@@ -47,8 +60,10 @@ public class PermissionFragment extends Fragment implements View.OnClickListener
     }
 
     private void initGlobalInstance() {
-        assert null != getActivity();
-        mPermissionHelper = PermissionHelper.fromFragment(this, getActivity(), Permission.getAllPermission());
+        // The helper survives the rotation, the result of a flow in progress is delivered to this instance.
+        mPermissionHelper = PermissionHelper.retainedFromFragment(this, PERMISSION_HELPER_KEY,
+                Permission.getAllPermissionRegistry());
+        PermissionFragment_PermissionDispatcher.bind(mPermissionHelper, this);
     }
 
     private void setListeners() {
@@ -64,18 +79,28 @@ public class PermissionFragment extends Fragment implements View.OnClickListener
     }
 
     private void startRequestingMultiplePermission() {
+        mPermissionHelper.startCheckingPermission();
+    }
 
-        mPermissionHelper.setResultCallback(new PermissionHelper.PermissionResultCallback() {
-            @Override
-            public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
-                for (PermissionHelper.PermissionResult result : permissionResults) {
-                    Log.d("garu", "mPermissionHelper Result " + result);
-                    updatePermissionInfo("Result ::  " + result);
-                }
-            }
-        });
+    @OnGranted({Permission.ID_WRITE_EXTERNAL_STORAGE, Permission.ID_ACCESS_FINE_LOCATION})
+    void onPermissionGranted(int permissionId) {
+        showPermissionResult(permissionId, PermissionHelper.PermissionResult.PermissionResultState.GRANTED);
+    }
 
-        mPermissionHelper.startCheckingPermission();
+    @OnDenied({Permission.ID_WRITE_EXTERNAL_STORAGE, Permission.ID_ACCESS_FINE_LOCATION})
+    void onPermissionDenied(int permissionId) {
+        showPermissionResult(permissionId, PermissionHelper.PermissionResult.PermissionResultState.DENIED);
+    }
+
+    @OnDeniedCompletely({Permission.ID_WRITE_EXTERNAL_STORAGE, Permission.ID_ACCESS_FINE_LOCATION})
+    void onPermissionDeniedCompletely(int permissionId) {
+        showPermissionResult(permissionId,
+                PermissionHelper.PermissionResult.PermissionResultState.DENIED_COMPLETELY);
+    }
+
+    private void showPermissionResult(int permissionId,
+                                      @PermissionHelper.PermissionResult.PermissionResultState int resultState) {
+        updatePermissionInfo("Result ::  " + new PermissionHelper.PermissionResult(permissionId, resultState));
     }
 
     private void clearPermissionInfo() {
@@ -85,7 +110,6 @@ public class PermissionFragment extends Fragment implements View.OnClickListener
     private void updatePermissionInfo(@NonNull String info) {
         tvPermissionInfo.append(info);
         tvPermissionInfo.append("\n");
-        Log.d("garu", info);
     }
 
     @Override
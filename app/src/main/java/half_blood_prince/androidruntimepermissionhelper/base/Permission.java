@@ -3,8 +3,9 @@ package half_blood_prince.androidruntimepermissionhelper.base;
 
 import android.Manifest;
 import android.app.Activity;
+import android.support.annotation.StringRes;
 
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.Map;
 
 import half_blood_prince.androidruntimepermissionhelper.R;
@@ -13,12 +14,24 @@ import half_blood_prince.androidruntimepermissionhelper.R;
  * Class holds the permission related stuffs.
  * <p>
  * Run time permission to ask with unique request code and the messages to show in case the user denied the
- * permission previously.
+ * permission previously. The maps and registries returned here are shared, see {@link PermissionCatalog}. The ids
+ * and the permission strings come from the {@link PermissionTable} generated from the runtime permission table of the
+ * app build.gradle.
  *
  * @author Half-Blood-Prince
  */
 public final class Permission {
 
+    /**
+     * Id of the {@link Manifest.permission#WRITE_EXTERNAL_STORAGE} permission, usable in the annotations.
+     */
+    public static final int ID_WRITE_EXTERNAL_STORAGE = PermissionTable.WRITE_EXTERNAL_STORAGE;
+
+    /**
+     * Id of the {@link Manifest.permission#ACCESS_FINE_LOCATION} permission, usable in the annotations.
+     */
+    public static final int ID_ACCESS_FINE_LOCATION = PermissionTable.ACCESS_FINE_LOCATION;
+
     /**
      * Enum associated the unique request code with the Run time permission.
      */
@@ -28,23 +41,42 @@ public final class Permission {
          * Enum constant having the unique identifier, which is useful when requesting
          * {@link Manifest.permission#WRITE_EXTERNAL_STORAGE} permission.
          */
-        REQ_CODE_WRITE_EXTERNAL_STORAGE(0xA0, Manifest.permission.WRITE_EXTERNAL_STORAGE),
+        REQ_CODE_WRITE_EXTERNAL_STORAGE(ID_WRITE_EXTERNAL_STORAGE, PermissionTable.WRITE_EXTERNAL_STORAGE_PERMISSION,
+                R.string.msg_write_external_storage_permission_rationale),
 
-        REQ_CODE_ACCESS_LOCATION_(0xA1, Manifest.permission.ACCESS_FINE_LOCATION);
+        REQ_CODE_ACCESS_LOCATION_(ID_ACCESS_FINE_LOCATION, PermissionTable.ACCESS_FINE_LOCATION_PERMISSION,
+                R.string.msg_access_location_rationale);
 
         /**
          * Request code uniquely identifying the permission.
          */
-        int reqCode;
+        final int reqCode;
 
         /**
          * String representing the permission.
          */
-        String permission;
+        final String permission;
 
-        Permissions(int reqCode, String permission) {
+        /**
+         * The only model of the permission, shared by every registry.
+         *
+         * @see PermissionCatalog
+         */
+        final PermissionHelper.PermissionModel model;
+
+        /**
+         * Cached state of the permission.
+         *
+         * @see PermissionStateCache#isGranted(Permissions)
+         */
+        final PermissionStateCache.Entry cacheEntry;
+
+        Permissions(int reqCode, String permission, @StringRes int rationaleMessageId) {
             this.reqCode = reqCode;
             this.permission = permission;
+            this.model = new PermissionHelper.PermissionModel(permission, R.string.text_permission_required,
+                    rationaleMessageId);
+            this.cacheEntry = PermissionStateCache.entryFor(permission);
         }
 
         /**
@@ -55,36 +87,30 @@ public final class Permission {
         }
     }
 
+    private static final Map<Integer, PermissionHelper.PermissionModel> WRITE_EXTERNAL_STORAGE_PERMISSION =
+            Collections.singletonMap(Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.reqCode,
+                    Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.model);
+
+    private static final Map<Integer, PermissionHelper.PermissionModel> ACCESS_FINE_LOCATION_PERMISSION =
+            Collections.singletonMap(Permissions.REQ_CODE_ACCESS_LOCATION_.reqCode,
+                    Permissions.REQ_CODE_ACCESS_LOCATION_.model);
+
+    private Permission() {
+        //To forbid object creation from outside world.
+    }
+
     /*Permission to write External storage -- START -- */
 
     /**
      * Method return the map object responsible for asking the permission to write the external storage.
      *
-     * @return Map contains the permission and the request code associated with it, with the corresponding message to
-     * show the need of the permission when the user denied it previously.
-     * @see PermissionHelper#PermissionHelper(Activity, Map)
+     * @return Unmodifiable map contains the permission and the request code associated with it, with the
+     * corresponding message to show the need of the permission when the user denied it previously.
+     * @see PermissionHelper#fromActivity(Activity, Map)
+     * @see PermissionCatalog#of(Permissions)
      */
     public static Map<Integer, PermissionHelper.PermissionModel> getWriteExternalStoragePermission() {
-        Map<Integer, PermissionHelper.PermissionModel> permission = new LinkedHashMap<>();
-        permission.put(Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.reqCode,
-                getWriteExternalStoragePermissionModel());
-        return permission;
-    }
-
-    /**
-     * Construct and return the {@link PermissionHelper.PermissionModel} for Permission {@link
-     * Manifest.permission#WRITE_EXTERNAL_STORAGE} with the rationale message.
-     * <p>
-     * The rationale message is useful when the user denied giving permission earlier.
-     *
-     * @return return the {@link PermissionHelper.PermissionModel} for Permission {@link
-     * Manifest.permission#WRITE_EXTERNAL_STORAGE}.
-     */
-    private static PermissionHelper.PermissionModel getWriteExternalStoragePermissionModel() {
-        return new PermissionHelper.PermissionModel(
-                Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.permission,
-                ResourceHelper.getString(R.string.text_permission_required),
-                ResourceHelper.getString(R.string.msg_write_external_storage_permission_rationale));
+        return WRITE_EXTERNAL_STORAGE_PERMISSION;
     }
 
     /*Permission to write External storage -- END -- */
@@ -92,51 +118,39 @@ public final class Permission {
     /*Permission to Access Fine Location -- START -- */
 
     /**
-     * Method return the map object responsible for asking the permission to write the external storage.
+     * Method return the map object responsible for asking the permission to access the fine location.
      *
-     * @return Map contains the permission and the request code associated with it, with the corresponding message to
-     * show the need of the permission when the user denied it previously.
-     * @see PermissionHelper#PermissionHelper(Activity, Map)
+     * @return Unmodifiable map contains the permission and the request code associated with it, with the
+     * corresponding message to show the need of the permission when the user denied it previously.
+     * @see PermissionHelper#fromActivity(Activity, Map)
+     * @see PermissionCatalog#of(Permissions)
      */
     public static Map<Integer, PermissionHelper.PermissionModel> getAccessFineLocationPermission() {
-        Map<Integer, PermissionHelper.PermissionModel> permission = new LinkedHashMap<>();
-        permission.put(Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.reqCode,
-                getWriteExternalStoragePermissionModel());
-        return permission;
+        return ACCESS_FINE_LOCATION_PERMISSION;
     }
 
+    /*Permission to Access Fine Location -- END -- */
+
     /**
-     * Construct and return the {@link PermissionHelper.PermissionModel} for Permission {@link
-     * Manifest.permission#ACCESS_FINE_LOCATION} with the rationale message.
-     * <p>
-     * The rationale message is useful when the user denied giving permission earlier.
+     * Method return the map object responsible for requesting all the permission of the {@link PermissionTable}
      *
-     * @return return the {@link PermissionHelper.PermissionModel} for Permission {@link
-     * Manifest.permission#ACCESS_FINE_LOCATION}.
+     * @return Unmodifiable map contains the permission and the request code associated with it, with the
+     * corresponding message to show the need of the permission when the user denied it previously.
+     * @see PermissionHelper#fromActivity(Activity, Map)
      */
-    private static PermissionHelper.PermissionModel getAccessFineLocationPermissionModel() {
-        return new PermissionHelper.PermissionModel(
-                Permissions.REQ_CODE_ACCESS_LOCATION_.permission,
-                ResourceHelper.getString(R.string.text_permission_required),
-                ResourceHelper.getString(R.string.msg_write_external_storage_permission_rationale));
+    public static Map<Integer, PermissionHelper.PermissionModel> getAllPermission() {
+        return PermissionCatalog.allAsMap();
     }
 
-    /*Permission to Access Fine Location -- END -- */
-
     /**
-     * Method return the map object responsible for requesting all the permission listed in {@link Permissions}
+     * Method return the registry responsible for requesting all the permission of the {@link PermissionTable}
      *
-     * @return Map contains the permission and the request code associated with it, with the corresponding message to
-     * show the need of the permission when the user denied it previously.
-     * @see PermissionHelper#PermissionHelper(Activity, Map)
+     * @return Registry contains the permission and the request code associated with it, with the corresponding message
+     * to show the need of the permission when the user denied it previously.
+     * @see PermissionHelper#fromActivity(Activity, PermissionRegistry)
+     * @see PermissionCatalog#all()
      */
-    public static Map<Integer, PermissionHelper.PermissionModel> getAllPermission() {
-        Map<Integer, PermissionHelper.PermissionModel> allPermission = new LinkedHashMap<>();
-        allPermission.put(Permissions.REQ_CODE_WRITE_EXTERNAL_STORAGE.reqCode,
-                getWriteExternalStoragePermissionModel());
-        allPermission.put(Permissions.REQ_CODE_ACCESS_LOCATION_.reqCode, getAccessFineLocationPermissionModel());
-        return allPermission;
+    public static PermissionRegistry getAllPermissionRegistry() {
+        return PermissionCatalog.all();
     }
-
-
 }
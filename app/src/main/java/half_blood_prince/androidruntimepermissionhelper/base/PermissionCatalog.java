@@ -0,0 +1,139 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import half_blood_prince.androidruntimepermissionhelper.R;
+
+/**
+ * Process wide, immutable catalog of the runtime permissions of the generated {@link PermissionTable}.
+ * <p>
+ * The catalog is built once, the first time it is used. It holds a single {@link PermissionHelper.PermissionModel}
+ * per permission and pre-computed registries (all the permissions and each permission alone), so they are shared by
+ * every {@link PermissionHelper} instead of being rebuilt for each of them. The permissions listed in {@link
+ * Permission.Permissions} use their own rationale message, the others of the table a generic one.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionCatalog {
+
+    private static final Permission.Permissions[] PERMISSIONS = Permission.Permissions.values();
+
+    /**
+     * Registry of all the permissions, in the order of the {@link PermissionTable}.
+     */
+    private static final PermissionRegistry ALL_REGISTRY;
+
+    /**
+     * Registry of each permission alone, indexed by the ordinal of the {@link Permission.Permissions}.
+     */
+    private static final PermissionRegistry[] SINGLE_REGISTRIES = new PermissionRegistry[PERMISSIONS.length];
+
+    /**
+     * Unmodifiable map view of {@link #ALL_REGISTRY}, for the callers still working with maps.
+     */
+    private static final Map<Integer, PermissionHelper.PermissionModel> ALL_MAP;
+
+    static {
+        PermissionRegistry.Builder builder = new PermissionRegistry.Builder();
+        Map<Integer, PermissionHelper.PermissionModel> allMap = new LinkedHashMap<>();
+        for (int index = 0; index < PermissionTable.size(); index++) {
+            int permissionId = PermissionTable.idAt(index);
+            Permission.Permissions permission = permissionOf(permissionId);
+            PermissionHelper.PermissionModel model = null != permission ? permission.model
+                    : new PermissionHelper.PermissionModel(PermissionTable.permissionAt(index),
+                    R.string.text_permission_required, R.string.msg_permission_rationale);
+            builder.put(permissionId, model);
+            allMap.put(permissionId, model);
+        }
+        ALL_REGISTRY = builder.build();
+        ALL_MAP = Collections.unmodifiableMap(allMap);
+
+        for (Permission.Permissions permission : PERMISSIONS) {
+            SINGLE_REGISTRIES[permission.ordinal()] = new PermissionRegistry.Builder()
+                    .put(permission, permission.model)
+                    .build();
+        }
+    }
+
+    private PermissionCatalog() {
+        //To forbid object creation from outside world.
+    }
+
+    /**
+     * @return The shared registry of all the permissions of the {@link PermissionTable}.
+     */
+    @NonNull
+    public static PermissionRegistry all() {
+        return ALL_REGISTRY;
+    }
+
+    /**
+     * @param permission Permission to request.
+     * @return The shared registry holding only the {@code permission}.
+     */
+    @NonNull
+    public static PermissionRegistry of(@NonNull Permission.Permissions permission) {
+        return SINGLE_REGISTRIES[permission.ordinal()];
+    }
+
+    /**
+     * Build the registry of the {@code permissions}, in the given order. The models are shared with the catalog.
+     *
+     * @param permissions Permissions to request.
+     * @return The registry holding the {@code permissions}.
+     */
+    @NonNull
+    public static PermissionRegistry of(@NonNull Permission.Permissions... permissions) {
+        if (permissions.length == 1)
+            return of(permissions[0]);
+        if (isCatalogOrder(permissions))
+            return ALL_REGISTRY;
+
+        PermissionRegistry.Builder builder = new PermissionRegistry.Builder();
+        for (Permission.Permissions permission : permissions)
+            builder.put(permission, permission.model);
+        return builder.build();
+    }
+
+    /**
+     * @param permission Permission to look up.
+     * @return The shared model of the {@code permission}.
+     */
+    @NonNull
+    public static PermissionHelper.PermissionModel modelOf(@NonNull Permission.Permissions permission) {
+        return permission.model;
+    }
+
+    /**
+     * @return Unmodifiable map of all the permissions of the {@link PermissionTable}, keyed by their request code.
+     */
+    @NonNull
+    static Map<Integer, PermissionHelper.PermissionModel> allAsMap() {
+        return ALL_MAP;
+    }
+
+    /**
+     * @return The constant of {@link Permission.Permissions} having the {@code permissionId}, null if none.
+     */
+    private static Permission.Permissions permissionOf(int permissionId) {
+        for (Permission.Permissions permission : PERMISSIONS) {
+            if (permission.reqCode == permissionId)
+                return permission;
+        }
+        return null;
+    }
+
+    private static boolean isCatalogOrder(Permission.Permissions[] permissions) {
+        if (permissions.length != ALL_REGISTRY.size())
+            return false;
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissions[i].reqCode != ALL_REGISTRY.idAt(i))
+                return false;
+        }
+        return true;
+    }
+}
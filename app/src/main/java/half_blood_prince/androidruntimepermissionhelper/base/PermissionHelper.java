@@ -1,26 +1,39 @@
 package half_blood_prince.androidruntimepermissionhelper.base;
 
 import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.support.annotation.AnyThread;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.ContextCompat;
+import android.support.v4.app.FragmentActivity;
 import android.support.v7.app.AlertDialog;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.LinkedHashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionFlow;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionGroupResult;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionHistory;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionMetrics;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionPlatform;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionRequestArbiter;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionSchedule;
+import half_blood_prince.androidruntimepermissionhelper.core.ResultState;
 
 /**
  * PermissionHelper class helps to make the life easier working with android M runtime permission.
@@ -47,11 +60,90 @@ public class PermissionHelper {
 
     private static final String ACTION_CANCEL = "Cancel";
 
+    /**
+     * Request code used when all the pending permissions are requested together in batch mode.
+     * <p>
+     * Note * Make sure none of the registered permission id's uses this value.
+     *
+     * @see #setBatchRequestEnabled(boolean)
+     */
+    public static final int BATCH_REQUEST_CODE = PermissionFlow.BATCH_REQUEST_CODE;
+
+    /**
+     * Bundle key of the saved run, suffixed by the key of a retained helper.
+     */
+    private static final String STATE_KEY = "PermissionHelper";
+
+    /**
+     * Coalescing window long enough for a double tap and far shorter than any answer of the user.
+     *
+     * @see #setCoalescingWindow(long)
+     */
+    public static final long DOUBLE_TAP_COALESCING_WINDOW_MILLIS = 500;
+
     /**
      * Model class used to keep the required attributes about the permission.
+     * <p>
+     * The rationale texts can be given as strings, {@link StringRes} ids or {@link TextSupplier}s. The ids and the
+     * suppliers are resolved only when the rationale dialog is about to be shown, the resolved text is kept until the
+     * locale changes.
      */
     public static final class PermissionModel {
 
+        /**
+         * Supplies a rationale text when the rationale dialog is about to be shown.
+         */
+        public interface TextSupplier {
+
+            /**
+             * @param context Context showing the rationale dialog.
+             * @return The text to show.
+             */
+            @NonNull
+            String get(@NonNull Context context);
+        }
+
+        /**
+         * Text given as a string, a string resource id or a supplier, resolved on demand.
+         * <p>
+         * Note * The resolved text is memoized without synchronization, resolve it from the main thread only.
+         */
+        private static final class LazyText {
+
+            private final String mText;
+
+            @StringRes
+            private final int mTextId;
+
+            private final TextSupplier mSupplier;
+
+            private String mResolvedText;
+
+            /**
+             * Locale the {@link #mResolvedText} is resolved for.
+             */
+            private Locale mResolvedLocale;
+
+            LazyText(String text, @StringRes int textId, TextSupplier supplier) {
+                mText = text;
+                mTextId = textId;
+                mSupplier = supplier;
+            }
+
+            String resolve(Context context) {
+                if (null == mSupplier && 0 == mTextId)
+                    return mText;
+
+                Locale locale = context.getResources().getConfiguration().locale;
+                if (null == mResolvedText || !locale.equals(mResolvedLocale)) {
+                    mResolvedText = null != mSupplier ? mSupplier.get(context)
+                            : context.getResources().getString(mTextId);
+                    mResolvedLocale = locale;
+                }
+                return mResolvedText;
+            }
+        }
+
         /**
          * Permission string to request. Constants defined in the {@link android.Manifest.permission}.
          */
@@ -60,22 +152,22 @@ public class PermissionHelper {
         /**
          * Title of the dialog box to show when the user denied the permission previously.
          */
-        String rationaleTitle;
+        private final LazyText rationaleTitle;
 
         /**
          * Body of the dialog box to show when the user denied the permission previously.
          */
-        String rationaleMessage;
+        private final LazyText rationaleMessage;
 
         /**
          * Positive button text, default text is okay.
          */
-        String posBtnText;
+        private final LazyText posBtnText;
 
         /**
          * Negative button text,default text is Cancel.
          */
-        String negBtnText;
+        private final LazyText negBtnText;
 
         /**
          * Constructor initialized with the permission, rationaleTitle, rationaleMessage, and default values for
@@ -100,78 +192,374 @@ public class PermissionHelper {
          */
         public PermissionModel(String permission, String rationaleTitle,
                                String rationaleMessage, String posBtnText, String negBtnText) {
+            this(permission, new LazyText(rationaleTitle, 0, null), new LazyText(rationaleMessage, 0, null),
+                    new LazyText(posBtnText, 0, null), new LazyText(negBtnText, 0, null));
+        }
+
+        /**
+         * Constructor initialized with the permission, the string resource ids of the rationaleTitle and the
+         * rationaleMessage, and default values for posBtnText and negBtnText. The strings are resolved only when the
+         * rationale dialog is shown.
+         *
+         * @param permission         Permission to request.
+         * @param rationaleTitleId   Dialog title to show if user denied the permission previously.
+         * @param rationaleMessageId Dialog content to show if user denied the permission previously.
+         */
+        public PermissionModel(String permission, @StringRes int rationaleTitleId,
+                               @StringRes int rationaleMessageId) {
+            this(permission, new LazyText(null, rationaleTitleId, null), new LazyText(null, rationaleMessageId, null),
+                    new LazyText(ACTION_OK, 0, null), new LazyText(ACTION_CANCEL, 0, null));
+        }
+
+        /**
+         * Constructor initialized with the permission, the string resource ids of the rationaleTitle,
+         * rationaleMessage, posBtnText and negBtnText. The strings are resolved only when the rationale dialog is
+         * shown.
+         *
+         * @param permission         Permission to request.
+         * @param rationaleTitleId   Dialog title to show if user denied the permission previously.
+         * @param rationaleMessageId Dialog content to show if user denied the permission previously.
+         * @param posBtnTextId       Positive button text.
+         * @param negBtnTextId       Negative button text.
+         */
+        public PermissionModel(String permission, @StringRes int rationaleTitleId, @StringRes int rationaleMessageId,
+                               @StringRes int posBtnTextId, @StringRes int negBtnTextId) {
+            this(permission, new LazyText(null, rationaleTitleId, null), new LazyText(null, rationaleMessageId, null),
+                    new LazyText(null, posBtnTextId, null), new LazyText(null, negBtnTextId, null));
+        }
+
+        /**
+         * Constructor initialized with the permission, the suppliers of the rationaleTitle and the rationaleMessage,
+         * and default values for posBtnText and negBtnText. The suppliers are called only when the rationale dialog is
+         * shown.
+         *
+         * @param permission       Permission to request.
+         * @param rationaleTitle   Supplies the dialog title to show if user denied the permission previously.
+         * @param rationaleMessage Supplies the dialog content to show if user denied the permission previously.
+         */
+        public PermissionModel(String permission, @NonNull TextSupplier rationaleTitle,
+                               @NonNull TextSupplier rationaleMessage) {
+            this(permission, new LazyText(null, 0, rationaleTitle), new LazyText(null, 0, rationaleMessage),
+                    new LazyText(ACTION_OK, 0, null), new LazyText(ACTION_CANCEL, 0, null));
+        }
+
+        private PermissionModel(String permission, LazyText rationaleTitle, LazyText rationaleMessage,
+                                LazyText posBtnText, LazyText negBtnText) {
             this.permission = permission;
             this.rationaleTitle = rationaleTitle;
             this.rationaleMessage = rationaleMessage;
             this.posBtnText = posBtnText;
             this.negBtnText = negBtnText;
         }
+
+        /**
+         * @param context Context showing the rationale dialog.
+         * @return The rationale dialog title for the current locale.
+         */
+        String getRationaleTitle(@NonNull Context context) {
+            return rationaleTitle.resolve(context);
+        }
+
+        /**
+         * @param context Context showing the rationale dialog.
+         * @return The rationale dialog content for the current locale.
+         */
+        String getRationaleMessage(@NonNull Context context) {
+            return rationaleMessage.resolve(context);
+        }
+
+        /**
+         * @param context Context showing the rationale dialog.
+         * @return The positive button text for the current locale.
+         */
+        String getPosBtnText(@NonNull Context context) {
+            return posBtnText.resolve(context);
+        }
+
+        /**
+         * @param context Context showing the rationale dialog.
+         * @return The negative button text for the current locale.
+         */
+        String getNegBtnText(@NonNull Context context) {
+            return negBtnText.resolve(context);
+        }
     }
 
     private static final class CallbackDispatchHandler extends Handler {
 
-        @IntDef({WhichMethod.SINGLE_RESULT, WhichMethod.GROUP_RESULT})
+        @IntDef({WhichMethod.SINGLE_RESULT, WhichMethod.GROUP_RESULT, WhichMethod.GROUP_RESULT_VIEW})
         public @interface WhichMethod {
             int SINGLE_RESULT = 0x01;
             int GROUP_RESULT = 0x02;
+            int GROUP_RESULT_VIEW = 0x03;
         }
 
-        private PermissionResultCallback mResultCallback;
+        private volatile PermissionResultCallback mResultCallback;
+
+        private volatile GroupResultCallback mGroupResultCallback;
+
+        @DeliveryMode
+        private volatile int mDeliveryMode = DeliveryMode.POST;
+
+        private volatile Executor mCallbackExecutor;
+
+        /**
+         * The results are held whatever the delivery mode, the host is being recreated. Guarded by {@link
+         * #mHeldMessages}.
+         */
+        private boolean isHolding;
+
+        /**
+         * Incremented by every {@link #hold()}, so a resume posted before a new hold is ignored. Guarded by {@link
+         * #mHeldMessages}.
+         */
+        private int mHoldCount;
+
+        /**
+         * Results waiting for the new host, guarded by itself.
+         */
+        private final ArrayList<Message> mHeldMessages = new ArrayList<>();
 
         public CallbackDispatchHandler(Looper looper) {
             super(looper);
         }
 
+        public void setDeliveryMode(@DeliveryMode int deliveryMode) {
+            mDeliveryMode = deliveryMode;
+        }
+
+        public void setCallbackExecutor(Executor callbackExecutor) {
+            mCallbackExecutor = callbackExecutor;
+        }
+
         public void setResultCallback(PermissionResultCallback resultCallback) {
             mResultCallback = resultCallback;
         }
 
+        public void setGroupResultCallback(GroupResultCallback groupResultCallback) {
+            mGroupResultCallback = groupResultCallback;
+        }
+
+        private boolean hasResultCallback() {
+            return null != mResultCallback;
+        }
+
+        private boolean hasGroupResultCallback() {
+            return null != mGroupResultCallback;
+        }
+
+        /**
+         * Hold the results until {@link #resume()}, whatever the delivery mode. The callbacks are dropped along with
+         * the host.
+         */
+        private void hold() {
+            synchronized (mHeldMessages) {
+                isHolding = true;
+                mHoldCount++;
+            }
+            mResultCallback = null;
+            mGroupResultCallback = null;
+        }
+
+        /**
+         * Dispatch the held results again once the new host is created, i.e once it had the chance to set its
+         * callbacks.
+         */
+        private void resume() {
+            final int holdCount;
+            synchronized (mHeldMessages) {
+                holdCount = mHoldCount;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    Message[] heldMessages;
+                    synchronized (mHeldMessages) {
+                        if (holdCount != mHoldCount)
+                            return;
+                        isHolding = false;
+                        heldMessages = mHeldMessages.toArray(new Message[mHeldMessages.size()]);
+                        mHeldMessages.clear();
+                    }
+                    for (Message msg : heldMessages)
+                        dispatch(msg.what, msg.arg1, msg.arg2, msg.obj);
+                }
+            });
+        }
+
+        private boolean isHolding() {
+            synchronized (mHeldMessages) {
+                return isHolding;
+            }
+        }
+
+        /**
+         * @return true if the result is held for the new host.
+         */
+        private boolean holdIfHolding(@WhichMethod int whichMethod, int requestId, int resultState,
+                                      Object groupResult) {
+            synchronized (mHeldMessages) {
+                if (!isHolding)
+                    return false;
+                mHeldMessages.add(obtainMessage(whichMethod, requestId, resultState, groupResult));
+                return true;
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case WhichMethod.SINGLE_RESULT:
-                    if (null != mResultCallback)
-                        mResultCallback.onResult(new PermissionResult(msg.arg1, msg.what));
-                    break;
                 case WhichMethod.GROUP_RESULT:
-                    PermissionResult[] groupResult = (PermissionResult[]) msg.obj;
-                    if (null != groupResult && null != mResultCallback)
-                        mResultCallback.onResult(groupResult);
+                case WhichMethod.GROUP_RESULT_VIEW:
+                    deliver(msg.what, msg.arg1, msg.arg2, msg.obj);
                     break;
                 default:
                     super.handleMessage(msg);
             }
         }
 
+        /**
+         * Invoke the callback for the result.
+         *
+         * @param whichMethod Which callback to invoke.
+         * @param requestId   The Request ID, used by {@link WhichMethod#SINGLE_RESULT}.
+         * @param resultState The Result of the permission, used by {@link WhichMethod#SINGLE_RESULT}.
+         * @param groupResult The group result, used by {@link WhichMethod#GROUP_RESULT} and {@link
+         *                    WhichMethod#GROUP_RESULT_VIEW}.
+         */
+        private void deliver(@WhichMethod int whichMethod, int requestId, int resultState, Object groupResult) {
+            // Posted or executed before the hold, the result waits for the new host like the later ones.
+            if (holdIfHolding(whichMethod, requestId, resultState, groupResult))
+                return;
+            PermissionResultCallback resultCallback = mResultCallback;
+            switch (whichMethod) {
+                case WhichMethod.SINGLE_RESULT:
+                    if (null != resultCallback)
+                        resultCallback.onResult(new PermissionResult(requestId, resultState));
+                    break;
+                case WhichMethod.GROUP_RESULT:
+                    if (null != groupResult && null != resultCallback)
+                        resultCallback.onResult((PermissionResult[]) groupResult);
+                    break;
+                case WhichMethod.GROUP_RESULT_VIEW:
+                    GroupResultCallback groupResultCallback = mGroupResultCallback;
+                    if (null != groupResultCallback)
+                        groupResultCallback.onGroupResult((PermissionGroupResult) groupResult);
+                    break;
+            }
+        }
+
+        /**
+         * Deliver the result according to the {@link DeliveryMode}.
+         *
+         * @see #deliver(int, int, int, Object)
+         */
+        private void dispatch(@WhichMethod final int whichMethod, final int requestId, final int resultState,
+                              final Object groupResult) {
+            if (holdIfHolding(whichMethod, requestId, resultState, groupResult))
+                return;
+            switch (mDeliveryMode) {
+                case DeliveryMode.IMMEDIATE:
+                    if (Looper.myLooper() == getLooper()) {
+                        deliver(whichMethod, requestId, resultState, groupResult);
+                        return;
+                    }
+                    break;
+                case DeliveryMode.EXECUTOR:
+                    if (null != mCallbackExecutor) {
+                        mCallbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                deliver(whichMethod, requestId, resultState, groupResult);
+                            }
+                        });
+                        return;
+                    }
+                    break;
+            }
+            obtainMessage(whichMethod, requestId, resultState, groupResult).sendToTarget();
+        }
+
         private void dispatchPermissionGranted(int permissionRequestId) {
-            obtainMessage(WhichMethod.SINGLE_RESULT, permissionRequestId, -1).sendToTarget();
+            dispatch(WhichMethod.SINGLE_RESULT, permissionRequestId, PermissionResult.PermissionResultState.GRANTED,
+                    null);
         }
 
         private void dispatchPermissionDenied(int permissionRequestId) {
-            obtainMessage(WhichMethod.SINGLE_RESULT, permissionRequestId, -1).sendToTarget();
+            dispatch(WhichMethod.SINGLE_RESULT, permissionRequestId, PermissionResult.PermissionResultState.DENIED,
+                    null);
         }
 
         private void dispatchPermissionDeniedCompletely(int permissionRequestId) {
-            obtainMessage(WhichMethod.SINGLE_RESULT, permissionRequestId, -1).sendToTarget();
+            dispatch(WhichMethod.SINGLE_RESULT, permissionRequestId,
+                    PermissionResult.PermissionResultState.DENIED_COMPLETELY, null);
         }
 
         private void dispatchGroupResult(@NonNull PermissionResult... permissionResults) {
-            obtainMessage(WhichMethod.GROUP_RESULT, permissionResults).sendToTarget();
+            dispatch(WhichMethod.GROUP_RESULT, -1, -1, permissionResults);
+        }
+
+        /**
+         * The view is reused by the next run, which may start as soon as this call returns. It is handed over as is
+         * only when delivered synchronously, a copy is delivered otherwise.
+         */
+        private void dispatchGroupResult(@NonNull PermissionGroupResult groupResult) {
+            if (mDeliveryMode == DeliveryMode.IMMEDIATE && !isHolding() && Looper.myLooper() == getLooper())
+                deliver(WhichMethod.GROUP_RESULT_VIEW, -1, -1, groupResult);
+            else
+                dispatch(WhichMethod.GROUP_RESULT_VIEW, -1, -1, groupResult.copy());
         }
 
     }
 
+    /**
+     * How the result callbacks are delivered.
+     *
+     * @see #setDeliveryMode(int)
+     */
+    @IntDef({DeliveryMode.POST, DeliveryMode.IMMEDIATE, DeliveryMode.EXECUTOR})
+    public @interface DeliveryMode {
+
+        /**
+         * Always post the result to the main thread (default).
+         */
+        int POST = 0x01;
+
+        /**
+         * Invoke the callback right away when already on the main thread, post it otherwise. The only mode handing
+         * the {@link PermissionGroupResult} of the run over without a copy.
+         */
+        int IMMEDIATE = 0x02;
+
+        /**
+         * Invoke the callback on the executor set through {@link #setCallbackExecutor(Executor)}.
+         */
+        int EXECUTOR = 0x03;
+    }
+
     public interface PermissionResultCallback {
         void onResult(@NonNull PermissionResult... permissionResults);
     }
 
+    /**
+     * Callback receiving the result of a group of permission request through an index based view, nothing is
+     * allocated per result. The run allocates nothing at all only with {@link DeliveryMode#IMMEDIATE}, see {@link
+     * #setGroupResultCallback(GroupResultCallback)}.
+     *
+     * @see #setGroupResultCallback(GroupResultCallback)
+     */
+    public interface GroupResultCallback {
+        void onGroupResult(@NonNull PermissionGroupResult groupResult);
+    }
+
     public static final class PermissionResult {
 
         @IntDef({PermissionResultState.GRANTED, PermissionResultState.DENIED, PermissionResultState.DENIED_COMPLETELY})
         public @interface PermissionResultState {
-            int GRANTED = 0x01;
-            int DENIED = 0x02;
-            int DENIED_COMPLETELY = 0x03;
+            int GRANTED = ResultState.GRANTED;
+            int DENIED = ResultState.DENIED;
+            int DENIED_COMPLETELY = ResultState.DENIED_COMPLETELY;
         }
 
         private int mRequestId;
@@ -233,16 +621,146 @@ public class PermissionHelper {
 
     public static PermissionHelper fromActivity(@NonNull Activity activity, @NonNull Map<Integer, PermissionModel>
             permissionMap) {
-        return new PermissionHelper(activity, permissionMap);
+        return new PermissionHelper(activity, PermissionRegistry.fromMap(permissionMap));
     }
 
     public static PermissionHelper fromFragment(@NonNull Fragment fragment, @NonNull Activity activity, @NonNull
             Map<Integer, PermissionModel> permissionMap) {
-        return new PermissionHelper(fragment, activity, permissionMap);
+        return new PermissionHelper(fragment, activity, PermissionRegistry.fromMap(permissionMap));
+    }
+
+    public static PermissionHelper fromActivity(@NonNull Activity activity,
+                                                @NonNull PermissionRegistry permissionRegistry) {
+        return new PermissionHelper(activity, permissionRegistry);
+    }
+
+    public static PermissionHelper fromFragment(@NonNull Fragment fragment, @NonNull Activity activity,
+                                                @NonNull PermissionRegistry permissionRegistry) {
+        return new PermissionHelper(fragment, activity, permissionRegistry);
+    }
+
+    /**
+     * Return the helper kept for the {@code key} across the configuration changes of the {@code activity}, creating it
+     * if not available.
+     * <p>
+     * When the activity is recreated in the middle of a flow the same helper is returned, attached to the new
+     * activity: the flow goes on where it stopped, the rationale message is shown again if the user did not answer it
+     * yet and the results produced meanwhile are delivered once to the callbacks set by the new activity. Set the
+     * callbacks right after this call, don't call {@link #release()}, the helper is released when the activity
+     * finishes.
+     *
+     * @param activity           Activity reference.
+     * @param key                Key of the helper, unique in the activity.
+     * @param permissionRegistry Registry of the helper to create, ignored when the helper already exists.
+     * @return The helper of the {@code key}.
+     */
+    @NonNull
+    public static PermissionHelper retainedFromActivity(@NonNull FragmentActivity activity, @NonNull String key,
+                                                        @NonNull PermissionRegistry permissionRegistry) {
+        PermissionHelperHolder holder = PermissionHelperHolder.of(activity);
+        PermissionHelper permissionHelper = holder.get(key);
+        if (null == permissionHelper) {
+            permissionHelper = new PermissionHelper(activity, permissionRegistry);
+            permissionHelper.mStateKey = STATE_KEY + ':' + key;
+            holder.put(key, permissionHelper);
+        } else {
+            permissionHelper.attach(null, activity);
+        }
+        return permissionHelper;
+    }
+
+    /**
+     * Same as {@link #retainedFromActivity(FragmentActivity, String, PermissionRegistry)} for a helper requesting
+     * the permissions from the {@code fragment}, call it once the fragment is attached to its activity.
+     *
+     * @param fragment           Fragment reference.
+     * @param key                Key of the helper, unique in the activity of the fragment.
+     * @param permissionRegistry Registry of the helper to create, ignored when the helper already exists.
+     * @return The helper of the {@code key}.
+     */
+    @NonNull
+    public static PermissionHelper retainedFromFragment(@NonNull Fragment fragment, @NonNull String key,
+                                                        @NonNull PermissionRegistry permissionRegistry) {
+        FragmentActivity activity = fragment.getActivity();
+        if (null == activity)
+            throw new IllegalStateException("Fragment " + fragment + " is not attached to an activity");
+
+        PermissionHelperHolder holder = PermissionHelperHolder.of(activity);
+        PermissionHelper permissionHelper = holder.get(key);
+        if (null == permissionHelper) {
+            permissionHelper = new PermissionHelper(fragment, activity, permissionRegistry);
+            permissionHelper.mStateKey = STATE_KEY + ':' + key;
+            holder.put(key, permissionHelper);
+        } else {
+            permissionHelper.attach(fragment, activity);
+        }
+        return permissionHelper;
     }
 
     private CallbackDispatchHandler mMainThreadHandler = new CallbackDispatchHandler(Looper.getMainLooper());
 
+    /**
+     * Executor confining the state of this helper to the main thread, the task runs right away when already on the
+     * main thread.
+     */
+    private final Executor mMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            // Checked and added under the lock attach() drains the tasks with, so no task is left behind.
+            synchronized (mDetachedTasks) {
+                if (isDetached) {
+                    mDetachedTasks.add(command);
+                    return;
+                }
+            }
+            if (Looper.myLooper() == mMainThreadHandler.getLooper())
+                command.run();
+            else
+                mMainThreadHandler.post(command);
+        }
+    };
+
+    /**
+     * The host is destroyed by a configuration change and the new host is not attached yet, see {@link #detach()}.
+     * Written under the lock of {@link #mDetachedTasks}.
+     */
+    private volatile boolean isDetached;
+
+    /**
+     * Tasks of the {@link #mMainThreadExecutor} waiting for the new host, guarded by itself.
+     */
+    private final ArrayList<Runnable> mDetachedTasks = new ArrayList<>();
+
+    /**
+     * Answer of the rationale message shown, null if none. Kept so the message is shown again on the new host when
+     * the host is recreated before the user answers it.
+     */
+    private PermissionPlatform.RationaleCallback mRationaleCallback;
+
+    private int mRationalePermissionId;
+
+    /**
+     * System request waiting for the new host, null if none.
+     */
+    private String[] mDetachedRequestPermissions;
+
+    private int mDetachedRequestCode;
+
+    /**
+     * Token of the runs started without a handle, {@link #startCheckingPermission()}.
+     */
+    private static final PermissionRequest NO_REQUEST = new PermissionRequest();
+
+    /**
+     * History used by the helpers created from now on, null if none.
+     */
+    private static volatile PermissionHistory sDefaultHistory;
+
+    /**
+     * Application the host tracking callbacks are registered on, null until the first helper is created.
+     */
+    private static Application sHostTrackingApplication;
+
     /**
      * Activity reference.
      */
@@ -251,223 +769,511 @@ public class PermissionHelper {
     private Fragment fragment;
 
     /**
-     * LinkedHashMap to hold permission to check and request access with their corresponding id.
+     * Registry to hold permission to check and request access with their corresponding id.
      */
-    private LinkedHashMap<Integer, PermissionModel> permissionMap;
+    private PermissionRegistry permissionRegistry;
 
     /**
-     * Queue to process the pending permission.
+     * Android side of the {@link #mFlow}, checks the permissions through the {@link PermissionStateCache}, explains
+     * them with the cached rationale dialogs and requests them from the activity or the fragment.
      */
-    private Deque<Integer> queue = new ArrayDeque<>();
+    private final PermissionPlatform mPlatform = new PermissionPlatform() {
+        @Override
+        public boolean isRuntimePermissionModel() {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        }
+
+        @Override
+        public boolean isGranted(@NonNull String permission) {
+            return isPermitted(permission);
+        }
+
+        @Override
+        public boolean shouldShowRationale(@NonNull String permission) {
+            return doIHaveToExplain(permission);
+        }
+
+        @Override
+        public void showRationale(int permissionId, @NonNull RationaleCallback callback) {
+            mRationalePermissionId = permissionId;
+            mRationaleCallback = callback;
+            if (!isDetached)
+                showPendingRationale();
+        }
+
+        @Override
+        public void requestPermissions(@NonNull String[] permissions, int requestCode) {
+            if (isDetached) {
+                mDetachedRequestPermissions = permissions;
+                mDetachedRequestCode = requestCode;
+            } else {
+                requestSystemPermissions(permissions, requestCode);
+            }
+        }
+
+        @Override
+        public boolean isHostAlive() {
+            // A retained helper waits for the new host, it is released when its activity finishes.
+            Activity host = activity;
+            return isDetached || (null != host && !host.isFinishing() && !host.isDestroyed());
+        }
+    };
 
     /**
-     * List holds the requested id of all the granted permission.
-     *
-     * @see PermissionHelper#onGroupOfPermissionRequestResult(PermissionResult...)
+     * Turns the results of the {@link #mFlow} into the callbacks of this helper, the token of a run is the handle
+     * returned by {@link #startRequest()} or {@link #NO_REQUEST}.
      */
-    private ArrayList<Integer> grantedPermission = new ArrayList<>();
+    private final PermissionFlow.Listener<PermissionRequest> mFlowListener =
+            new PermissionFlow.Listener<PermissionRequest>() {
+                @Override
+                public void onPermissionResolved(int permissionId, @ResultState int resultState) {
+                    // The transitions share the values of the result states.
+                    publishTransition(permissionId, resultState);
+                }
+
+                @Override
+                public void onSingleResult(@NonNull PermissionRequest request, int permissionId,
+                                           @ResultState int resultState) {
+                    dispatchSingleResult(request, permissionId, resultState);
+                }
+
+                @Override
+                public void onGroupResult(@NonNull PermissionRequest request,
+                                          @NonNull PermissionGroupResult groupResult) {
+                    dispatchGroupResult(request, groupResult);
+                }
+
+                @Override
+                public void onEmptyRun(@NonNull PermissionRequest request) {
+                    if (request != NO_REQUEST)
+                        request.complete();
+                    for (PermissionRequest joinedRequest : mJoinedRequests)
+                        joinedRequest.complete();
+                    mJoinedRequests.clear();
+                }
+
+                @Override
+                public void onRunJoined(@NonNull PermissionRequest request) {
+                    // The callbacks receive the result of the run once, only the handles complete along with it.
+                    if (request != NO_REQUEST)
+                        mJoinedRequests.add(request);
+                }
+            };
 
     /**
-     * List hold the requested id of all the denied permission.
-     *
-     * @see PermissionHelper#onGroupOfPermissionRequestResult(PermissionResult...)
+     * Handles of the runs joining the run in progress, completed with its result.
      */
-    private ArrayList<Integer> deniedPermission = new ArrayList<>();
+    private final ArrayList<PermissionRequest> mJoinedRequests = new ArrayList<>();
 
     /**
-     * List hold the requested id of all the permission which are completely denied by the user.
-     *
-     * @see PermissionHelper#onGroupOfPermissionRequestResult(PermissionResult...)  Note : The user can select never
-     * to ask
-     * permission by clicking "Never ask" and click Deny button.
+     * Handles returned by {@link #startRequest()} which may not be done yet, cancelled by {@link #release()}. Guarded
+     * by itself, the handles are started from any thread.
      */
-    private ArrayList<Integer> completelyDeniedPermission = new ArrayList<>();
+    private final ArrayList<PermissionRequest> mOutstandingRequests = new ArrayList<>();
 
     /**
-     * Flag is used to determine whether a group of permission requested or single permission requested.
+     * State machine checking the permissions of the {@link #permissionRegistry}, the runs started from {@link
+     * #startCheckingPermission()} are serialized by it.
      */
-    private boolean isGroupOfPermissionRequested;
+    private final PermissionFlow<PermissionRequest> mFlow;
+
+    /**
+     * Bundle key of the run saved by {@link #onSaveInstanceState(Bundle)}.
+     */
+    private String mStateKey = STATE_KEY;
 
     /**
      * Constructor used to initialize this class object.
      *
-     * @param activity      Activity reference.
-     * @param permissionMap Map contains permission to check and request with their corresponding id This also contains
-     *                      the rationale message to show when the user denied the permission previously.
+     * @param activity           Activity reference.
+     * @param permissionRegistry Registry contains permission to check and request with their corresponding id This
+     *                           also contains the rationale message to show when the user denied the permission
+     *                           previously.
      */
     private PermissionHelper(@NonNull Activity activity,
-                             @NonNull Map<Integer, PermissionModel> permissionMap) {
+                             @NonNull PermissionRegistry permissionRegistry) {
         this.activity = activity;
-        this.permissionMap = (LinkedHashMap<Integer, PermissionModel>) permissionMap;
-
+        this.permissionRegistry = permissionRegistry;
+        mFlow = new PermissionFlow<>(mMainThreadExecutor, permissionRegistry, mPlatform, mFlowListener);
+        mFlow.setHistory(sDefaultHistory);
+        registerHostTracking(activity.getApplication());
     }
 
     /**
      * Constructor used to initialize this class object.
      *
-     * @param fragment      Fragment reference.
-     * @param activity      Activity reference.
-     * @param permissionMap Map contains permission to check and request with their corresponding id This also contains
-     *                      the rationale message to show when the user denied the permission previously.
+     * @param fragment           Fragment reference.
+     * @param activity           Activity reference.
+     * @param permissionRegistry Registry contains permission to check and request with their corresponding id This
+     *                           also contains the rationale message to show when the user denied the permission
+     *                           previously.
      */
     private PermissionHelper(@NonNull Fragment fragment, @NonNull Activity activity,
-                             @NonNull Map<Integer, PermissionModel> permissionMap) {
+                             @NonNull PermissionRegistry permissionRegistry) {
         this.fragment = fragment;
         this.activity = activity;
-        this.permissionMap = (LinkedHashMap<Integer, PermissionModel>) permissionMap;
+        this.permissionRegistry = permissionRegistry;
+        mFlow = new PermissionFlow<>(mMainThreadExecutor, permissionRegistry, mPlatform, mFlowListener);
+        mFlow.setHistory(sDefaultHistory);
+        registerHostTracking(activity.getApplication());
+    }
+
+    /**
+     * Drop the requests of the helpers whose host is destroyed without {@link #release()}, e.g finished while the
+     * rationale message is shown, so they neither block the other helpers nor leak the activity.
+     */
+    private static void registerHostTracking(@Nullable Application application) {
+        if (null == application || null != sHostTrackingApplication)
+            return;
+        sHostTrackingApplication = application;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
 
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                PermissionRequestArbiter.getInstance().onHostDestroyed();
+            }
+        });
+    }
+
+    /**
+     * Set the history used by every helper created from now on, this should be called from {@link
+     * android.app.Application#onCreate()}.
+     *
+     * @param history History to use, null to create the helpers without history (default).
+     * @see #setHistory(PermissionHistory)
+     */
+    public static void setDefaultHistory(@Nullable PermissionHistory history) {
+        sDefaultHistory = history;
     }
 
     public void setResultCallback(PermissionResultCallback resultCallback) {
         mMainThreadHandler.setResultCallback(resultCallback);
     }
 
+    /**
+     * Set the callback receiving the result of a group of permission request through {@link PermissionGroupResult}.
+     * <p>
+     * Only with {@link DeliveryMode#IMMEDIATE}, a run started on the main thread without a handle and with only this
+     * callback set allocates nothing in steady state, from {@link #startCheckingPermission()} to the callback. The
+     * view of the run is reused by the next run, so the other delivery modes, including the default {@link
+     * DeliveryMode#POST}, copy the results into a new {@link PermissionGroupResult} per dispatch. A {@link
+     * PermissionResultCallback} or a {@link PermissionRequest} handle gets a new {@link PermissionResult} array per run
+     * whatever the delivery mode. {@link #onGroupOfPermissionRequestResult(PermissionResult...)} is called only if a
+     * {@link PermissionResultCallback} is set as well.
+     *
+     * @param groupResultCallback Callback to receive the group result.
+     */
+    public void setGroupResultCallback(GroupResultCallback groupResultCallback) {
+        mMainThreadHandler.setGroupResultCallback(groupResultCallback);
+    }
+
+    /**
+     * Set how the result callbacks are delivered, default is {@link DeliveryMode#POST}.
+     *
+     * @param deliveryMode One of the {@link DeliveryMode}.
+     */
+    public void setDeliveryMode(@DeliveryMode int deliveryMode) {
+        mMainThreadHandler.setDeliveryMode(deliveryMode);
+    }
+
+    /**
+     * Deliver the result callbacks on the {@code callbackExecutor}, this switches the delivery mode to {@link
+     * DeliveryMode#EXECUTOR}. Passing null falls back to {@link DeliveryMode#POST}.
+     *
+     * @param callbackExecutor Executor to invoke the callbacks on.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        mMainThreadHandler.setCallbackExecutor(callbackExecutor);
+        mMainThreadHandler.setDeliveryMode(null != callbackExecutor ? DeliveryMode.EXECUTOR : DeliveryMode.POST);
+    }
+
+    /**
+     * Enable or disable the batch mode.
+     * <p>
+     * In batch mode the already granted permissions are resolved up front, the rationale message is shown for the
+     * permissions denied previously and then all the remaining permissions are requested together in a single system
+     * request using {@link #BATCH_REQUEST_CODE}. The group result is dispatched once, just like the default mode.
+     * <p>
+     * Batch mode takes effect only when more than one permission is requested.
+     *
+     * @param batchRequestEnabled true to request all the pending permissions together, false to request them one by
+     *                            one (default).
+     */
+    public void setBatchRequestEnabled(boolean batchRequestEnabled) {
+        mFlow.setBatchRequestEnabled(batchRequestEnabled);
+    }
+
+    /**
+     * Record the timings and the results of the permission flows of this helper into the {@code metrics}, i.e the
+     * time spent on the system dialog and on the rationale message, the time of the group of permission requests and
+     * the number of each result. Share a single {@link PermissionMetrics} between the helpers to get the figures of
+     * the whole app.
+     * <p>
+     * The metrics are disabled by default, nothing is measured then.
+     *
+     * @param metrics Metrics to record into, null to disable the metrics.
+     */
+    public void setMetrics(@Nullable PermissionMetrics metrics) {
+        mFlow.setMetrics(metrics);
+    }
+
+    /**
+     * Remember the requests and the results of this helper in the {@code history}, which survives the process. A
+     * permission the history knows as denied completely is then reported through {@link
+     * #permissionDeniedCompletely(int)} right away, without the system round trip, once a request confirmed the
+     * denial in this process. Each new process asks once, the user may have reset the permission meanwhile.
+     *
+     * @param history History to use, null to disable the history. Defaults to the {@link
+     *                #setDefaultHistory(PermissionHistory)}.
+     */
+    public void setHistory(@Nullable PermissionHistory history) {
+        mFlow.setHistory(history);
+    }
+
+    /**
+     * Check the permissions in the order of the {@code schedule}: by priority and after their prerequisites. A
+     * permission whose prerequisite is not granted and an optional permission the user denied are reported as denied
+     * without asking. In batch mode the dependents are requested in a second request, once their prerequisites are
+     * granted. Takes effect from the next run.
+     *
+     * @param schedule Schedule to follow, null to check the permissions in the order of the registry (default).
+     */
+    public void setSchedule(@Nullable PermissionSchedule schedule) {
+        mFlow.setSchedule(schedule);
+    }
+
+    /**
+     * Coalesce the repeated starts, e.g of a double tap: a run started within the {@code windowMillis} from the start
+     * of the run in progress joins it instead of checking and asking everything again. The callbacks receive the
+     * result of the run once, the handles returned by {@link #startRequest()} complete with it.
+     *
+     * @param windowMillis Window in milliseconds, e.g {@link #DOUBLE_TAP_COALESCING_WINDOW_MILLIS}, 0 to give every
+     *                     start its own run (default).
+     */
+    public void setCoalescingWindow(long windowMillis) {
+        mFlow.setCoalescingWindow(windowMillis);
+    }
+
     /**
      * This method initialize the queue and start the checking process.
      * <p>
+     * This method can be called from any thread, the checking process always runs on the main thread. When called
+     * while a previous run is still in progress the new run starts once the previous run is finished, so every call
+     * gets its own result. Only when opted in through {@link #setCoalescingWindow(long)}, a call within the window of
+     * the run in progress is absorbed by the run instead.
+     * <p>
      * Note * Please make sure to call {@link PermissionHelper#onRequestPermissionsResult(int, String[], int[])} method
      * from the activity {@link android.support.v7.app.AppCompatActivity#onRequestPermissionsResult(int, String[],
      * int[])} method, no callbacks relating to permission request status will be called if {@link
      * PermissionHelper#onRequestPermissionsResult(int, String[], int[])} method not get called.
      */
+    @AnyThread
     public final void startCheckingPermission() {
-        isGroupOfPermissionRequested = permissionMap.keySet().size() > 1;
-        queue.addAll(permissionMap.keySet());
-        if (!queue.isEmpty())
-            checkPermission(queue.peek());
+        submit(NO_REQUEST);
     }
 
     /**
-     * This method checks whether this permission is granted or denied, if not granted it will ask request the
-     * permission.
+     * Same as {@link #startCheckingPermission()}, returning the handle of the run.
+     * <p>
+     * The handle completes with the results of this run, in addition to the callbacks set on this helper. Use it to
+     * attach continuations, compose runs or wait for the results from a worker thread. When opted in through {@link
+     * #setCoalescingWindow(long)}, a handle started within the window of the run in progress completes with the
+     * results of that run. The handle is cancelled if this helper is released before the run is done.
      *
-     * @param permissionID Unique permission id pointing some permission model object in permissionMap.
-     * @see PermissionModel
+     * @return The handle of the run.
+     * @see PermissionRequest
      */
-    private void checkPermission(final int permissionID) {
-
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-            notifyPermissionGranted(permissionID);
-            return;
-        }
-
-        String permission = permissionMap.get(permissionID).permission;
-
-        if (isPermitted(permission)) {
-            notifyPermissionGranted(permissionID);
-            return;
-        }
-
-        if (doIHaveToExplain(permission)) {
-            // show msg, attach callback
-            explainAboutPermission(activity, permissionID, new DialogInterface.OnClickListener() {
-                @Override
-                public void onClick(DialogInterface dialog, int which) {
-                    if (which == AlertDialog.BUTTON_POSITIVE)
-                        requestPermission(permissionID);
-                    else
-                        notifyPermissionDenied(permissionID);
-
-                    dialog.dismiss();
-                }
-            });
-        } else {
-            requestPermission(permissionID);
+    @AnyThread
+    @NonNull
+    public final PermissionRequest startRequest() {
+        PermissionRequest request = new PermissionRequest();
+        synchronized (mOutstandingRequests) {
+            for (Iterator<PermissionRequest> iterator = mOutstandingRequests.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().isDone())
+                    iterator.remove();
+            }
+            mOutstandingRequests.add(request);
         }
+        submit(request);
+        return request;
+    }
 
+    /**
+     * Submit a run to the flow, it is not queued when submitted on the main thread while attached and no run is
+     * waiting, see {@link PermissionFlow#submitConfined(Object)}.
+     */
+    private void submit(PermissionRequest token) {
+        // The host is detached and attached on the main thread only, so the check holds on the main thread.
+        if (!isDetached && Looper.myLooper() == mMainThreadHandler.getLooper())
+            mFlow.submitConfined(token);
+        else
+            mFlow.submit(token);
     }
 
     /**
-     * This method check whether the requested permission has been granted or not.
+     * This method check whether the requested permission has been granted or not, the {@link PermissionStateCache} is
+     * consulted first.
      *
      * @param permission Permission to check.
      * @return true if the access is granted for the requested permission.
      */
     private boolean isPermitted(String permission) {
-        return ContextCompat.checkSelfPermission(activity, permission) == PackageManager.PERMISSION_GRANTED;
+        return PermissionStateCache.checkPermission(null != activity ? activity : App.getInstance(), permission);
     }
 
     /**
-     * This method request for the permission.
+     * Show the system permission dialog.
      * <p>
-     * Note * As of now only one permission can be requested for each request, even though android support sending array
-     * of permission to single request.i am not using that feature. however you can send more that one permission by
-     * putting that in map {@link PermissionHelper#PermissionHelper(Activity, Map)}, this will give you the option to
-     * show the rationale message to the user if permission denied previously.
-     *
-     * @param permissionID Corresponding permissionID for the permission to request.
-     */
-    private void requestPermission(int permissionID) {
-        String permission = permissionMap.get(permissionID).permission;
-        if (null != permission) {
-            if (null != fragment)
-                fragment.requestPermissions(new String[]{permission}, permissionID);
-            else
-                ActivityCompat.requestPermissions(activity, new String[]{permission}, permissionID);
-        }
+     * Note * Outside of the batch mode only one permission is requested for each request, even though android
+     * support sending array of permission to single request. This gives the option to show the rationale message to
+     * the user for each permission denied previously. Enable {@link #setBatchRequestEnabled(boolean)} to request all
+     * the pending permissions together.
+     *
+     * @param permissions Permissions to request.
+     * @param requestCode Request code of the request.
+     */
+    private void requestSystemPermissions(@NonNull String[] permissions, int requestCode) {
+        if (null != fragment)
+            fragment.requestPermissions(permissions, requestCode);
+        else
+            ActivityCompat.requestPermissions(activity, permissions, requestCode);
     }
 
     /**
-     * This method must be called from the activity {@link android.support.v7.app
-     * .AppCompatActivity#onRequestPermissionsResult(int, String[], int[])} method.
+     * Save the run in progress, so it survives the death of the process. Call it from the {@code
+     * onSaveInstanceState} of the host.
      * <p>
-     * Failing to call this method give no callback like {@link #permissionGranted(int)}, {@link #permissionDenied(int)}
-     * {@link #permissionDeniedCompletely(int)} {@link #onGroupOfPermissionRequestResult(PermissionResult...)} .
+     * Only the run in progress is saved, as a compact int array: the results known so far, the permissions left and
+     * the system request in flight. The queued runs and the handles returned by {@link #startRequest()} do not
+     * survive the process.
      *
-     * @param requestCode  RequestCode is nothing but the corresponding permission id.
-     * @param permissions  String array of permission (not using this right now).
-     * @param grantResults GrantResults.
+     * @param outState Bundle of the host.
      */
-    public final void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
-                                                 @NonNull int[] grantResults) {
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        int[] runState = mFlow.saveRunState();
+        if (null != runState)
+            outState.putIntArray(mStateKey, runState);
+    }
 
-        if (!permissionMap.containsKey(requestCode))
+    /**
+     * Resume the run saved by {@link #onSaveInstanceState(Bundle)} in the previous process. Call it from the {@code
+     * onCreate} of the host, once the callbacks are set.
+     * <p>
+     * The result of the system request in flight when the process died is awaited, it is delivered by the system to
+     * the new host, the other permissions are checked again. The results are delivered to the callbacks of this
+     * helper. Nothing happens when the helper already has a run in progress, i.e a retained helper kept across a
+     * configuration change.
+     *
+     * @param savedInstanceState Bundle of the host, null when the host is created for the first time.
+     */
+    public void onRestoreInstanceState(@Nullable Bundle savedInstanceState) {
+        if (null == savedInstanceState)
             return;
+        int[] runState = savedInstanceState.getIntArray(mStateKey);
+        if (null != runState)
+            mFlow.restoreRunState(runState, NO_REQUEST);
+    }
 
-        String permission = permissionMap.get(requestCode).permission;
-        if (null == permission)
-            permission = "";
-
-        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED
-                && (permissions.length > 0 && permission.equals(permissions[0]))
-                ) {
-            notifyPermissionGranted(requestCode);
-        } else handleDeny(requestCode);
-
+    /**
+     * Release this helper, the pending requests are dropped and the handles not done yet are cancelled, see {@link
+     * PermissionRequest#isCancelled()}. This should be called when the host activity or fragment is destroyed.
+     */
+    public void release() {
+        mFlow.release();
+        PermissionRequest[] outstandingRequests;
+        synchronized (mOutstandingRequests) {
+            outstandingRequests = mOutstandingRequests.toArray(new PermissionRequest[mOutstandingRequests.size()]);
+            mOutstandingRequests.clear();
+        }
+        for (PermissionRequest request : outstandingRequests)
+            request.cancel();
+        mJoinedRequests.clear();
     }
 
     /**
-     * Removes the top element in the queue and proceed checking the next permission if available.
-     * <p>
-     * If group of permission is requested then {@link #onGroupOfPermissionRequestResult(PermissionResult...)} is
-     * called with
-     * the grant results.
+     * Detach this helper from its host destroyed by a configuration change. The flow in progress is kept, the system
+     * requests and the results wait for {@link #attach(Fragment, Activity)}.
      */
-    private void checkNextPermission() {
+    void detach() {
+        synchronized (mDetachedTasks) {
+            if (isDetached)
+                return;
+            isDetached = true;
+        }
+        activity = null;
+        fragment = null;
+        mMainThreadHandler.hold();
+    }
 
-        queue.poll();
+    /**
+     * Attach this helper to the new host and resume the flow where it stopped.
+     *
+     * @param fragment Fragment reference, null if the helper requests from the activity.
+     * @param activity Activity reference.
+     */
+    void attach(@Nullable Fragment fragment, @NonNull Activity activity) {
+        this.fragment = fragment;
+        this.activity = activity;
+        synchronized (mDetachedTasks) {
+            if (!isDetached)
+                return;
+            isDetached = false;
+            // Posted, the tasks run once the host is attached completely.
+            for (Runnable task : mDetachedTasks)
+                mMainThreadHandler.post(task);
+            mDetachedTasks.clear();
+        }
 
-        if (!queue.isEmpty()) {
-            checkPermission(queue.peek());
-        } else {
-            if (isGroupOfPermissionRequested) {
-                dispatchGroupResult();
-            }
+        if (null != mRationaleCallback)
+            showPendingRationale();
+        if (null != mDetachedRequestPermissions) {
+            String[] permissions = mDetachedRequestPermissions;
+            mDetachedRequestPermissions = null;
+            requestSystemPermissions(permissions, mDetachedRequestCode);
         }
+        mMainThreadHandler.resume();
     }
 
     /**
-     * This method will get invoked when the user denied the permission. This method will determine whether the
-     * permission is completely denied or currently denied.
+     * This method must be called from the activity {@link android.support.v7.app
+     * .AppCompatActivity#onRequestPermissionsResult(int, String[], int[])} method.
+     * <p>
+     * Failing to call this method give no callback like {@link #permissionGranted(int)}, {@link #permissionDenied(int)}
+     * {@link #permissionDeniedCompletely(int)} {@link #onGroupOfPermissionRequestResult(PermissionResult...)} .
      *
-     * @param permissionID id of the permission to check.
+     * @param requestCode  RequestCode is nothing but the corresponding permission id.
+     * @param permissions  String array of permission (not using this right now).
+     * @param grantResults GrantResults.
      */
-    private void handleDeny(int permissionID) {
-        if (doIHaveToExplain(permissionMap.get(permissionID).permission)) {
-            notifyPermissionDenied(permissionID);
-        } else {
-            notifyPermissionDeniedCompletely(permissionID);
-        }
+    public final void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                                 @NonNull int[] grantResults) {
+
+        PermissionStateCache.update(permissions, grantResults);
+
+        mFlow.onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
     /**
@@ -478,12 +1284,13 @@ public class PermissionHelper {
      * @return true if we need to explain about the permission false otherwise.
      */
     private boolean doIHaveToExplain(String permission) {
-        return ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+        // Without a host assume the rationale is needed, it is shown once the new host is attached.
+        return null == activity || ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
     }
 
     /**
      * This method show the dialog which contains the information about why we need this permission and what happens if
-     * we don't get this access etc.
+     * we don't get this access etc. The dialog is taken from the {@link RationaleDialogCache}.
      *
      * @param activity        Activity reference.
      * @param permissionID    Permission id mapped to the corresponding permission.
@@ -492,91 +1299,128 @@ public class PermissionHelper {
     private void explainAboutPermission(Activity activity, int permissionID,
                                         DialogInterface.OnClickListener onClickListener) {
 
-        PermissionModel permissionModel = permissionMap.get(permissionID);
+        PermissionModel permissionModel = permissionRegistry.get(permissionID);
 
-        AlertDialog dialog = new AlertDialog.Builder(activity).create();
-        dialog.setTitle(permissionModel.rationaleTitle);
-        dialog.setMessage(permissionModel.rationaleMessage);
-        dialog.setButton(AlertDialog.BUTTON_POSITIVE, permissionModel.posBtnText, onClickListener);
-        dialog.setButton(AlertDialog.BUTTON_NEGATIVE, permissionModel.negBtnText, onClickListener);
-
-        dialog.setCancelable(false);
-
-        dialog.show();
+        RationaleDialogCache.obtain(activity, permissionModel, onClickListener).show();
     }
 
     /**
-     * This method called at the end of requesting group of permission, passing the grant results back to the caller.
+     * Show the rationale message waiting for an answer on the current host, the answer is reported once.
      */
-    private void dispatchGroupResult() {
-        int size = grantedPermission.size() +
-                deniedPermission.size() + completelyDeniedPermission.size();
-
-        List<PermissionResult> permissionResults = new ArrayList<>(size);
-
-        for (int permissionId : grantedPermission) {
-            permissionResults.add(new PermissionResult(permissionId,
-                    PermissionResult.PermissionResultState.GRANTED));
-        }
-        grantedPermission.clear();
+    private void showPendingRationale() {
+        explainAboutPermission(activity, mRationalePermissionId, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+                PermissionPlatform.RationaleCallback callback = mRationaleCallback;
+                mRationaleCallback = null;
+                if (null != callback)
+                    callback.onRationaleResult(which == AlertDialog.BUTTON_POSITIVE);
+            }
+        });
+    }
 
-        for (int permissionId : deniedPermission) {
-            permissionResults.add(new PermissionResult(permissionId,
-                    PermissionResult.PermissionResultState.DENIED));
-        }
-        deniedPermission.clear();
+    /**
+     * Build the rationale dialogs of the permissions the user denied previously while the main thread is idle, so
+     * showing them later does not cost the inflation and the first layout. Call this method from the main thread, e.g
+     * right after creating this helper.
+     * <p>
+     * The dialogs are cached per Activity and {@link PermissionModel} even without calling this method, this only
+     * moves the cost of building them ahead of time.
+     */
+    public void prebuildRationaleDialogs() {
+        RationaleDialogCache.prebuild(activity, permissionRegistry);
+    }
 
-        for (int permissionId : completelyDeniedPermission) {
-            permissionResults.add(new PermissionResult(permissionId,
-                    PermissionResult.PermissionResultState.DENIED_COMPLETELY));
+    /**
+     * Called at the end of requesting a single permission, dispatch the callback of the result and complete the
+     * handle of the run.
+     *
+     * @param request               Handle of the run, {@link #NO_REQUEST} if the run is started without a handle.
+     * @param permissionId          Permission id uniquely identifying the permission that is requested.
+     * @param permissionResultState The Result of the permission.
+     */
+    private void dispatchSingleResult(@NonNull PermissionRequest request, int permissionId,
+                                      @PermissionResult.PermissionResultState int permissionResultState) {
+        switch (permissionResultState) {
+            case PermissionResult.PermissionResultState.GRANTED:
+                permissionGranted(permissionId);
+                break;
+            case PermissionResult.PermissionResultState.DENIED:
+                permissionDenied(permissionId);
+                break;
+            default:
+                permissionDeniedCompletely(permissionId);
         }
-        completelyDeniedPermission.clear();
 
-
-        onGroupOfPermissionRequestResult(permissionResults.toArray(new PermissionResult[size]));
+        if (request != NO_REQUEST)
+            request.complete(new PermissionResult(permissionId, permissionResultState));
+        for (PermissionRequest joinedRequest : mJoinedRequests)
+            joinedRequest.complete(new PermissionResult(permissionId, permissionResultState));
+        mJoinedRequests.clear();
     }
 
     /**
-     * Check whether a single permission requested or a group of permission requested, if single permission is requested
-     * {@link #permissionGranted(int)} method is dispatched, otherwise check next permission {@link
-     * #checkNextPermission()}.
+     * This method called at the end of requesting group of permission, passing the grant results back to the caller.
      *
-     * @param permissionId Permission id uniquely identifying the permission that is requested.
+     * @param request Handle of the run, {@link #NO_REQUEST} if the run is started without a handle.
+     * @param result  Result of every permission of the run.
      */
-    private void notifyPermissionGranted(int permissionId) {
-        if (isGroupOfPermissionRequested) {
-            grantedPermission.add(permissionId);
-            checkNextPermission();
-        } else
-            permissionGranted(permissionId);
+    private void dispatchGroupResult(@NonNull PermissionRequest request, @NonNull PermissionGroupResult result) {
+        boolean hasGroupResultCallback = mMainThreadHandler.hasGroupResultCallback();
+        if (hasGroupResultCallback)
+            mMainThreadHandler.dispatchGroupResult(result);
+
+        PermissionResult[] permissionResults = null;
+        if (request != NO_REQUEST) {
+            permissionResults = toPermissionResults(result);
+            request.complete(permissionResults);
+        }
+        if (!mJoinedRequests.isEmpty()) {
+            if (null == permissionResults)
+                permissionResults = toPermissionResults(result);
+            for (PermissionRequest joinedRequest : mJoinedRequests)
+                joinedRequest.complete(permissionResults);
+            mJoinedRequests.clear();
+        }
+
+        if (!hasGroupResultCallback || mMainThreadHandler.hasResultCallback())
+            onGroupOfPermissionRequestResult(null != permissionResults ? permissionResults.clone()
+                    : toPermissionResults(result));
     }
 
     /**
-     * Check whether a single permission requested or a group of permission requested, if single permission is requested
-     * {@link #permissionDenied(int)} method is dispatched, otherwise check next permission {@link
-     * #checkNextPermission()}.
+     * Convert the group to the array of {@link PermissionResult}, the results are ordered as granted, denied and
+     * completely denied.
      *
-     * @param permissionId Permission id uniquely identifying the permission that is requested.
+     * @param groupResult Result of every permission of the run.
+     * @return The array of {@link PermissionResult}.
      */
-    private void notifyPermissionDenied(int permissionId) {
-        if (isGroupOfPermissionRequested) {
-            deniedPermission.add(permissionId);
-            checkNextPermission();
-        } else permissionDenied(permissionId);
+    @NonNull
+    private static PermissionResult[] toPermissionResults(@NonNull PermissionGroupResult groupResult) {
+        int size = groupResult.size();
+        PermissionResult[] permissionResults = new PermissionResult[size];
+        int position = 0;
+        for (int state = PermissionResult.PermissionResultState.GRANTED;
+             state <= PermissionResult.PermissionResultState.DENIED_COMPLETELY; state++) {
+            for (int i = 0; i < size; i++) {
+                if (groupResult.getResult(i) == state)
+                    permissionResults[position++] = new PermissionResult(groupResult.getRequestId(i), state);
+            }
+        }
+        return permissionResults;
     }
 
     /**
-     * Check whether a single permission requested or a group of permission requested, if single permission is requested
-     * {@link #permissionDeniedCompletely(int)} method is dispatched, otherwise check next permission {@link
-     * #checkNextPermission()}.
+     * Publish the result of the permission to the subscribers of {@link PermissionStatePublisher}.
      *
      * @param permissionId Permission id uniquely identifying the permission that is requested.
+     * @param transition   The result of the permission.
      */
-    private void notifyPermissionDeniedCompletely(int permissionId) {
-        if (isGroupOfPermissionRequested) {
-            completelyDeniedPermission.add(permissionId);
-            checkNextPermission();
-        } else permissionDeniedCompletely(permissionId);
+    private void publishTransition(int permissionId, @PermissionStatePublisher.Transition int transition) {
+        PermissionModel permissionModel = permissionRegistry.get(permissionId);
+        if (null != permissionModel && null != permissionModel.permission)
+            PermissionStatePublisher.publish(permissionModel.permission, transition);
     }
 
     /**
@@ -620,12 +1464,11 @@ public class PermissionHelper {
      * This method will be called only when permission requested is more than one.
      * <p>
      * This function will get called in the sub-class (if it's overridden there), when this class done requesting and
-     * processing all the permission {@link #permissionMap} sent to this class.
+     * processing all the permission {@link #permissionRegistry} sent to this class.
      *
      * @param permissionResults The array of {@link PermissionResult}. contains permission result for all the
      *                          requested permission.
-     * @see #permissionMap
-     * @see #queue
+     * @see #permissionRegistry
      */
     protected void onGroupOfPermissionRequestResult(@NonNull PermissionResult... permissionResults) {
         // Override this method in the sub-class to get the result of permission request result.
@@ -0,0 +1,101 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import java.util.HashMap;
+
+/**
+ * Headless retained fragment keeping the {@link PermissionHelper}s of an activity across the configuration changes.
+ * <p>
+ * The helpers are kept by key, {@link PermissionHelper#retainedFromActivity(FragmentActivity, String,
+ * PermissionRegistry)} and {@link PermissionHelper#retainedFromFragment(Fragment, String, PermissionRegistry)} return
+ * the helper of the key when the host is recreated and attach it to the new host. The helpers are detached when the
+ * activity is destroyed by a configuration change and released when the activity finishes.
+ * <p>
+ * Note * This fragment is an implementation detail, it is public only so the framework can instantiate it.
+ *
+ * @author Half-Blood-Prince
+ */
+@MainThread
+public final class PermissionHelperHolder extends Fragment {
+
+    private static final String TAG = "PermissionHelperHolder";
+
+    /**
+     * Holders added but not committed yet, so a second lookup in the same frame finds the same holder.
+     */
+    private static final HashMap<FragmentManager, PermissionHelperHolder> sPendingHolders = new HashMap<>();
+
+    private static final Handler sMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private final HashMap<String, PermissionHelper> mHelpers = new HashMap<>();
+
+    public PermissionHelperHolder() {
+        setRetainInstance(true);
+    }
+
+    /**
+     * Return the holder of the activity, adding it if not available.
+     *
+     * @param activity Activity reference.
+     * @return The holder of the {@code activity}.
+     */
+    @NonNull
+    static PermissionHelperHolder of(@NonNull FragmentActivity activity) {
+        final FragmentManager fragmentManager = activity.getSupportFragmentManager();
+        PermissionHelperHolder holder = (PermissionHelperHolder) fragmentManager.findFragmentByTag(TAG);
+        if (null == holder)
+            holder = sPendingHolders.get(fragmentManager);
+        if (null == holder) {
+            holder = new PermissionHelperHolder();
+            sPendingHolders.put(fragmentManager, holder);
+            // A fragment host may be created while the fragment manager executes its transactions, commit later.
+            fragmentManager.beginTransaction().add(holder, TAG).commitAllowingStateLoss();
+            sMainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sPendingHolders.remove(fragmentManager);
+                }
+            });
+        }
+        return holder;
+    }
+
+    /**
+     * @param key Key of the helper.
+     * @return The helper kept for the key, null if none.
+     */
+    PermissionHelper get(@NonNull String key) {
+        return mHelpers.get(key);
+    }
+
+    /**
+     * Keep the helper for the key, until the activity finishes.
+     */
+    void put(@NonNull String key, @NonNull PermissionHelper permissionHelper) {
+        mHelpers.put(key, permissionHelper);
+    }
+
+    @Override
+    public void onDetach() {
+        // Either a configuration change, the helpers wait for the new host, or the end of the activity.
+        for (PermissionHelper permissionHelper : mHelpers.values())
+            permissionHelper.detach();
+        super.onDetach();
+    }
+
+    @Override
+    public void onDestroy() {
+        // A retained fragment is destroyed only when its activity finishes.
+        for (PermissionHelper permissionHelper : mHelpers.values())
+            permissionHelper.release();
+        mHelpers.clear();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,235 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionSet;
+
+/**
+ * Immutable registry of the permissions to check and request, keyed by their unique permission id.
+ * <p>
+ * The permissions keep the order they are added in, and the lookup by id is an unboxed open addressing probe on a
+ * primitive int table. The registry is the {@link PermissionSet} checked by the permission core.
+ *
+ * @author Half-Blood-Prince
+ * @see Builder
+ * @see #fromMap(Map)
+ */
+public final class PermissionRegistry implements PermissionSet {
+
+    /**
+     * Permission id's in the insertion order.
+     */
+    private final int[] mIds;
+
+    /**
+     * Permission model for the permission id at the same index in {@link #mIds}.
+     */
+    private final PermissionHelper.PermissionModel[] mModels;
+
+    /**
+     * Open addressing table holding index + 1 of the permission id in {@link #mIds}, 0 marks an empty slot.
+     */
+    private final int[] mSlots;
+
+    private PermissionRegistry(int[] ids, PermissionHelper.PermissionModel[] models) {
+        mIds = ids;
+        mModels = models;
+
+        int capacity = 2;
+        while (capacity < ids.length * 2)
+            capacity <<= 1;
+        mSlots = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int index = 0; index < ids.length; index++) {
+            int slot = hash(ids[index]) & mask;
+            while (mSlots[slot] != 0)
+                slot = (slot + 1) & mask;
+            mSlots[slot] = index + 1;
+        }
+    }
+
+    /**
+     * Adapt the map of permission id and {@link PermissionHelper.PermissionModel} to the registry, the iteration order
+     * of the map is kept. The map of all the permissions returned by {@link Permission#getAllPermission()} is adapted
+     * to the shared {@link PermissionCatalog#all()} registry without copying.
+     *
+     * @param permissionMap Map contains permission to check and request with their corresponding id.
+     * @return The registry holding the same permissions.
+     */
+    @NonNull
+    public static PermissionRegistry fromMap(@NonNull Map<Integer, PermissionHelper.PermissionModel> permissionMap) {
+        if (permissionMap == PermissionCatalog.allAsMap())
+            return PermissionCatalog.all();
+
+        Builder builder = new Builder();
+        for (Map.Entry<Integer, PermissionHelper.PermissionModel> entry : permissionMap.entrySet())
+            builder.put(entry.getKey(), entry.getValue());
+        return builder.build();
+    }
+
+    /**
+     * @return The number of permissions in this registry.
+     */
+    @Override
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @param index Index of the permission in the insertion order.
+     * @return The permission id at the {@code index}.
+     */
+    @Override
+    public int idAt(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * @param index Index of the permission in the insertion order.
+     * @return The permission model at the {@code index}.
+     */
+    @NonNull
+    public PermissionHelper.PermissionModel modelAt(int index) {
+        return mModels[index];
+    }
+
+    /**
+     * @param index Index of the permission in the insertion order.
+     * @return The permission string of the model at the {@code index}.
+     */
+    @Override
+    @NonNull
+    public String permissionAt(int index) {
+        return mModels[index].permission;
+    }
+
+    /**
+     * @param permissionId Unique permission id.
+     * @return The index of the {@code permissionId} in the insertion order, -1 if not registered.
+     */
+    @Override
+    public int indexOf(int permissionId) {
+        int mask = mSlots.length - 1;
+        int slot = hash(permissionId) & mask;
+        int index;
+        while ((index = mSlots[slot]) != 0) {
+            if (mIds[index - 1] == permissionId)
+                return index - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param permissionId Unique permission id.
+     * @return true if the {@code permissionId} is registered.
+     */
+    public boolean contains(int permissionId) {
+        return indexOf(permissionId) >= 0;
+    }
+
+    /**
+     * @param permissionId Unique permission id.
+     * @return The permission model of the {@code permissionId}, null if not registered.
+     */
+    @Nullable
+    public PermissionHelper.PermissionModel get(int permissionId) {
+        int index = indexOf(permissionId);
+        return index < 0 ? null : mModels[index];
+    }
+
+    private static int hash(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Builder used to construct the {@link PermissionRegistry}.
+     */
+    public static final class Builder {
+
+        private final ArrayList<PermissionHelper.PermissionModel> mModels = new ArrayList<>();
+
+        private int[] mIds = new int[4];
+
+        /**
+         * Add the permission with its unique id, adding the same id again replaces the model and keeps the position.
+         *
+         * @param permissionId    Unique permission id.
+         * @param permissionModel Permission to check and request.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder put(int permissionId, @NonNull PermissionHelper.PermissionModel permissionModel) {
+            int size = mModels.size();
+            if (size == mIds.length) {
+                int[] ids = new int[size * 2];
+                System.arraycopy(mIds, 0, ids, 0, size);
+                mIds = ids;
+            }
+            mIds[size] = permissionId;
+            mModels.add(permissionModel);
+            return this;
+        }
+
+        /**
+         * Add the permission using the request code of the {@code permission} as the id.
+         *
+         * @param permission      Permission enum constant.
+         * @param permissionModel Permission to check and request.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder put(@NonNull Permission.Permissions permission,
+                           @NonNull PermissionHelper.PermissionModel permissionModel) {
+            return put(permission.getReqCode(), permissionModel);
+        }
+
+        /**
+         * The id's added again are resolved here with a single sort rather than a scan on every put.
+         *
+         * @return The immutable registry holding the permissions added so far.
+         */
+        @NonNull
+        public PermissionRegistry build() {
+            int size = mModels.size();
+            // Id in the high half and position in the low half, the puts of an id end up adjacent in position order.
+            long[] sortedIds = new long[size];
+            for (int i = 0; i < size; i++)
+                sortedIds[i] = ((long) mIds[i] << 32) | i;
+            Arrays.sort(sortedIds);
+
+            PermissionHelper.PermissionModel[] models = mModels.toArray(new PermissionHelper.PermissionModel[size]);
+            boolean[] isReplaced = new boolean[size];
+            int count = size;
+            int first = 0;
+            for (int i = 0; i < size; i++) {
+                int position = (int) sortedIds[i];
+                if (i == 0 || (int) (sortedIds[i] >> 32) != (int) (sortedIds[i - 1] >> 32)) {
+                    first = position;
+                } else {
+                    // The latest model of the id takes the position of its first put.
+                    models[first] = models[position];
+                    isReplaced[position] = true;
+                    count--;
+                }
+            }
+
+            int[] ids = new int[count];
+            PermissionHelper.PermissionModel[] keptModels = new PermissionHelper.PermissionModel[count];
+            for (int i = 0, kept = 0; i < size; i++) {
+                if (!isReplaced[i]) {
+                    ids[kept] = mIds[i];
+                    keptModels[kept++] = models[i];
+                }
+            }
+            return new PermissionRegistry(ids, keptModels);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle of a single permission checking run started with {@link PermissionHelper#startRequest()}.
+ * <p>
+ * The handle completes once with the results of the run. Callers can attach callbacks, compose handles with {@link
+ * #allOf(PermissionRequest...)} and {@link #anyOf(PermissionRequest...)} or block a worker thread until the results
+ * are available.
+ * <p>
+ * A handle whose helper is released before the run is done is cancelled: it is done without results, see {@link
+ * #isCancelled()}.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionRequest {
+
+    /**
+     * Callback attached to the handle along with the executor to run it on, null to run it on the completing thread.
+     */
+    private static final class Continuation {
+
+        final Executor executor;
+
+        final PermissionHelper.PermissionResultCallback callback;
+
+        Continuation(Executor executor, PermissionHelper.PermissionResultCallback callback) {
+            this.executor = executor;
+            this.callback = callback;
+        }
+
+        void run(final PermissionHelper.PermissionResult[] results) {
+            if (null == executor) {
+                callback.onResult(results);
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(results);
+                }
+            });
+        }
+    }
+
+    private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+
+    private volatile PermissionHelper.PermissionResult[] mResults;
+
+    /**
+     * Written before the {@link #mResults}, so it is visible once the handle is done.
+     */
+    private volatile boolean isCancelled;
+
+    /**
+     * Callbacks waiting for the completion, guarded by this, null once completed.
+     */
+    private ArrayList<Continuation> mContinuations = new ArrayList<>(1);
+
+    PermissionRequest() {
+    }
+
+    /**
+     * @return true if the results are available, or the handle is cancelled.
+     */
+    public boolean isDone() {
+        return null != mResults;
+    }
+
+    /**
+     * @return true if the helper of the run is released before the run is done, the handle has no result then.
+     */
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * @return The results of the run, empty if cancelled, null if not done yet.
+     */
+    @Nullable
+    public PermissionHelper.PermissionResult[] getResults() {
+        PermissionHelper.PermissionResult[] results = mResults;
+        return null == results ? null : results.clone();
+    }
+
+    /**
+     * @return true if done and every permission of the run is granted.
+     */
+    public boolean isAllGranted() {
+        PermissionHelper.PermissionResult[] results = mResults;
+        if (null == results)
+            return false;
+        for (PermissionHelper.PermissionResult result : results) {
+            if (!result.isPermissionGranted())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Block until the results are available.
+     * <p>
+     * Note * Never call this method from the main thread, the run completes on the main thread.
+     *
+     * @return The results of the run.
+     * @throws InterruptedException  If the waiting thread is interrupted.
+     * @throws CancellationException If the handle is cancelled, i.e its helper is released.
+     */
+    @WorkerThread
+    @NonNull
+    public PermissionHelper.PermissionResult[] await() throws InterruptedException {
+        mDoneLatch.await();
+        return getResultsOrThrow();
+    }
+
+    /**
+     * Block until the results are available or the {@code timeout} elapses.
+     * <p>
+     * Note * Never call this method from the main thread, the run completes on the main thread.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of the {@code timeout}.
+     * @return The results of the run.
+     * @throws InterruptedException  If the waiting thread is interrupted.
+     * @throws TimeoutException      If the results are not available within the {@code timeout}.
+     * @throws CancellationException If the handle is cancelled, i.e its helper is released.
+     */
+    @WorkerThread
+    @NonNull
+    public PermissionHelper.PermissionResult[] await(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!mDoneLatch.await(timeout, unit))
+            throw new TimeoutException("Permission request not completed in " + timeout + " " + unit);
+        return getResultsOrThrow();
+    }
+
+    private PermissionHelper.PermissionResult[] getResultsOrThrow() {
+        if (isCancelled)
+            throw new CancellationException("Permission request cancelled, its helper is released");
+        return getResults();
+    }
+
+    /**
+     * Attach the callback to run on the completing thread (the main thread), or right away on the calling thread if
+     * already done. A cancelled handle calls it with no result.
+     *
+     * @param callback Callback to receive the results.
+     * @return This handle.
+     */
+    @NonNull
+    public PermissionRequest addCallback(@NonNull PermissionHelper.PermissionResultCallback callback) {
+        return addContinuation(new Continuation(null, callback));
+    }
+
+    /**
+     * Attach the callback to run on the {@code executor} once done.
+     *
+     * @param executor Executor to run the callback on.
+     * @param callback Callback to receive the results.
+     * @return This handle.
+     */
+    @NonNull
+    public PermissionRequest addCallback(@NonNull Executor executor,
+                                         @NonNull PermissionHelper.PermissionResultCallback callback) {
+        return addContinuation(new Continuation(executor, callback));
+    }
+
+    private PermissionRequest addContinuation(Continuation continuation) {
+        synchronized (this) {
+            if (null != mContinuations) {
+                mContinuations.add(continuation);
+                return this;
+            }
+        }
+        continuation.run(getResults());
+        return this;
+    }
+
+    /**
+     * Complete the handle, only the first call has an effect.
+     *
+     * @param results The results of the run.
+     * @return true if this call completed the handle.
+     */
+    boolean complete(@NonNull PermissionHelper.PermissionResult... results) {
+        return finish(results, false);
+    }
+
+    /**
+     * Cancel the handle, e.g its helper is released before the run is done. Only has an effect if not done yet.
+     *
+     * @return true if this call cancelled the handle.
+     */
+    boolean cancel() {
+        return finish(new PermissionHelper.PermissionResult[0], true);
+    }
+
+    private boolean finish(PermissionHelper.PermissionResult[] results, boolean cancelled) {
+        ArrayList<Continuation> continuations;
+        synchronized (this) {
+            if (null == mContinuations)
+                return false;
+            continuations = mContinuations;
+            mContinuations = null;
+            isCancelled = cancelled;
+            mResults = results;
+        }
+        mDoneLatch.countDown();
+        for (Continuation continuation : continuations)
+            continuation.run(results.clone());
+        return true;
+    }
+
+    /**
+     * Compose the handles into one which completes when all of them are done, with their results concatenated in the
+     * order of the {@code requests}. It is cancelled if any of them is cancelled, and completes right away without
+     * results if no handle is given.
+     *
+     * @param requests Handles to wait for.
+     * @return The composed handle.
+     */
+    @NonNull
+    public static PermissionRequest allOf(@NonNull final PermissionRequest... requests) {
+        final PermissionRequest all = new PermissionRequest();
+        if (requests.length == 0) {
+            all.complete();
+            return all;
+        }
+
+        final int[] remaining = {requests.length};
+        PermissionHelper.PermissionResultCallback countDown = new PermissionHelper.PermissionResultCallback() {
+            @Override
+            public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                synchronized (remaining) {
+                    if (--remaining[0] > 0)
+                        return;
+                }
+                ArrayList<PermissionHelper.PermissionResult> results = new ArrayList<>();
+                for (PermissionRequest request : requests) {
+                    if (request.isCancelled) {
+                        all.cancel();
+                        return;
+                    }
+                    Collections.addAll(results, request.mResults);
+                }
+                all.complete(results.toArray(new PermissionHelper.PermissionResult[results.size()]));
+            }
+        };
+        for (PermissionRequest request : requests)
+            request.addCallback(countDown);
+        return all;
+    }
+
+    /**
+     * Compose the handles into one which completes with the results of the first of them to be done. It is cancelled
+     * only if all of them are cancelled.
+     *
+     * @param requests Handles to wait for, at least one.
+     * @return The composed handle.
+     * @throws IllegalArgumentException If no handle is given, the composed handle would never complete.
+     */
+    @NonNull
+    public static PermissionRequest anyOf(@NonNull PermissionRequest... requests) {
+        if (requests.length == 0)
+            throw new IllegalArgumentException("anyOf() needs at least one request");
+
+        final PermissionRequest any = new PermissionRequest();
+        final int[] remaining = {requests.length};
+        for (final PermissionRequest request : requests) {
+            request.addCallback(new PermissionHelper.PermissionResultCallback() {
+                @Override
+                public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                    if (!request.isCancelled) {
+                        any.complete(permissionResults);
+                        return;
+                    }
+                    synchronized (remaining) {
+                        if (--remaining[0] > 0)
+                            return;
+                    }
+                    any.cancel();
+                }
+            });
+        }
+        return any;
+    }
+}
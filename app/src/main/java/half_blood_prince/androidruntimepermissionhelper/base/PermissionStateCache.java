@@ -0,0 +1,241 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+
+/**
+ * Process wide cache of the permission state.
+ * <p>
+ * The cache is filled lazily from {@link ContextCompat#checkSelfPermission(Context, String)}, updated with every
+ * result received in {@link PermissionHelper#onRequestPermissionsResult(int, String[], int[])} and invalidated
+ * whenever an activity is started (i.e the user may come back from the app settings page after changing the
+ * permission). The changes found at that point are published through {@link PermissionStatePublisher}.
+ * <p>
+ * Use {@link #isGranted(Permission.Permissions)} to guard the code which needs the permission, the granted path is a
+ * single volatile read.
+ * <p>
+ * Call {@link #prefetch(Context, Executor)} at start up to fill the cache off the main thread, so the first screen
+ * checking the permissions does not pay for the binder calls.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionStateCache {
+
+    @IntDef({State.UNKNOWN, State.GRANTED, State.DENIED})
+    public @interface State {
+        int UNKNOWN = 0x00;
+        int GRANTED = 0x01;
+        int DENIED = 0x02;
+    }
+
+    /**
+     * Holder of the cached state for a single permission, the instances are never removed so the reference can be
+     * kept by the caller.
+     */
+    static final class Entry {
+
+        @State
+        volatile int state = State.UNKNOWN;
+    }
+
+    /**
+     * Map holds the cache entry for each permission checked so far.
+     */
+    private static final ConcurrentHashMap<String, Entry> sEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Publishes the prefetched states only into the entries still unknown, a result received meanwhile is fresher.
+     */
+    private static final AtomicIntegerFieldUpdater<Entry> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    /**
+     * Set by {@link #prefetch(Context, Executor)}, the first activity start keeps the prefetched states since nothing
+     * could have changed them in between.
+     */
+    private static final AtomicBoolean sKeepPrefetchedStates = new AtomicBoolean();
+
+    private PermissionStateCache() {
+        //To forbid object creation from outside world.
+    }
+
+    /**
+     * Install the cache invalidation on the application, this should be called from {@link Application#onCreate()}.
+     *
+     * @param application Application instance.
+     */
+    public static void install(@NonNull Application application) {
+        application.registerActivityLifecycleCallbacks(new InvalidateOnStartCallbacks());
+    }
+
+    /**
+     * Check every permission of the {@link PermissionCatalog} on the {@code executor} and publish the states into the
+     * cache, this should be called from {@link Application#onCreate()}. Opt-in, without it the permissions are
+     * checked on the main thread the first time they are needed.
+     * <p>
+     * Each state is published through its volatile entry, the main thread sees either the unknown state (and checks
+     * the permission itself) or the complete prefetched state. Whether the rationale message is needed is not
+     * prefetched, it can only be asked from an activity.
+     *
+     * @param context  Context reference, the application context is kept.
+     * @param executor Executor running the checks off the main thread.
+     */
+    public static void prefetch(@NonNull Context context, @NonNull Executor executor) {
+        final Context applicationContext = context.getApplicationContext();
+        final PermissionRegistry registry = PermissionCatalog.all();
+        sKeepPrefetchedStates.set(true);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int index = 0; index < registry.size(); index++) {
+                    String permission = registry.permissionAt(index);
+                    int state = ContextCompat.checkSelfPermission(applicationContext, permission)
+                            == PackageManager.PERMISSION_GRANTED ? State.GRANTED : State.DENIED;
+                    STATE_UPDATER.compareAndSet(entryFor(permission), State.UNKNOWN, state);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the cache entry for the {@code permission}, creating it if not available.
+     *
+     * @param permission Permission string.
+     * @return The cache entry for the {@code permission}.
+     */
+    @NonNull
+    static Entry entryFor(@NonNull String permission) {
+        Entry entry = sEntries.get(permission);
+        if (null == entry) {
+            Entry newEntry = new Entry();
+            entry = sEntries.putIfAbsent(permission, newEntry);
+            if (null == entry)
+                entry = newEntry;
+        }
+        return entry;
+    }
+
+    /**
+     * Fast path guard to check whether the permission is granted.
+     *
+     * @param permission Permission to check.
+     * @return true if the permission is granted.
+     */
+    public static boolean isGranted(@NonNull Permission.Permissions permission) {
+        return permission.cacheEntry.state == State.GRANTED
+                || checkPermission(App.getInstance(), permission.permission);
+    }
+
+    /**
+     * Guard to check whether the permission is granted.
+     *
+     * @param permission Permission to check. Constants defined in the {@link android.Manifest.permission}.
+     * @return true if the permission is granted.
+     */
+    public static boolean isGranted(@NonNull String permission) {
+        return entryFor(permission).state == State.GRANTED || checkPermission(App.getInstance(), permission);
+    }
+
+    /**
+     * Return the cached state of the permission without touching the system.
+     *
+     * @param permission Permission to look up.
+     * @return The cached state, {@link State#UNKNOWN} if the permission is not checked yet or the cache is invalidated.
+     */
+    @State
+    public static int getState(@NonNull String permission) {
+        return entryFor(permission).state;
+    }
+
+    /**
+     * Check whether the permission is granted, consulting the cache first and falling back to {@link
+     * ContextCompat#checkSelfPermission(Context, String)} when the state is not known.
+     *
+     * @param context    Context reference.
+     * @param permission Permission to check.
+     * @return true if the permission is granted.
+     */
+    static boolean checkPermission(@NonNull Context context, @NonNull String permission) {
+        Entry entry = entryFor(permission);
+        int state = entry.state;
+        if (state == State.UNKNOWN) {
+            state = ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED
+                    ? State.GRANTED : State.DENIED;
+            entry.state = state;
+        }
+        return state == State.GRANTED;
+    }
+
+    /**
+     * Update the cache with the result received from the system.
+     *
+     * @param permissions  The requested permissions.
+     * @param grantResults The grant results for the corresponding permissions.
+     */
+    static void update(@NonNull String[] permissions, @NonNull int[] grantResults) {
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            entryFor(permissions[i]).state = grantResults[i] == PackageManager.PERMISSION_GRANTED
+                    ? State.GRANTED : State.DENIED;
+        }
+    }
+
+    /**
+     * Forget every cached state, the next check goes to the system again.
+     */
+    public static void invalidate() {
+        for (Entry entry : sEntries.values())
+            entry.state = State.UNKNOWN;
+    }
+
+    /**
+     * Invalidate the cache when an activity comes to the foreground, the user could have changed the permission in
+     * the app settings meanwhile. The permission dialog only pauses the activity so the results kept in the cache
+     * survive it.
+     */
+    private static final class InvalidateOnStartCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (!sKeepPrefetchedStates.getAndSet(false))
+                invalidate();
+            PermissionStatePublisher.refresh(activity);
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
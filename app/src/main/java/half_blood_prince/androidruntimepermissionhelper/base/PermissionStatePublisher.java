@@ -0,0 +1,213 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+import android.support.annotation.IntDef;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process wide publisher of the permission state transitions.
+ * <p>
+ * Every result handled by any {@link PermissionHelper} is published here, and the permissions revoked or granted in
+ * the app settings are published when the user comes back to the app. Components enabling or disabling features
+ * according to the permission subscribe once and get the transitions pushed to them instead of checking the
+ * permissions again and again.
+ * <p>
+ * The same state published twice in a row for a permission is dropped. Each subscriber has its own mailbox keeping
+ * only the latest state of each permission, so a slow subscriber skips the intermediate states rather than blocking
+ * the publisher or queueing without limit.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionStatePublisher {
+
+    @IntDef({Transition.GRANTED, Transition.DENIED, Transition.DENIED_COMPLETELY, Transition.REVOKED})
+    public @interface Transition {
+        int GRANTED = 0x01;
+        int DENIED = 0x02;
+        int DENIED_COMPLETELY = 0x03;
+
+        /**
+         * The permission granted earlier is no longer granted, i.e revoked in the app settings.
+         */
+        int REVOKED = 0x04;
+    }
+
+    public interface Subscriber {
+
+        /**
+         * Called on the executor of the subscription when the state of the permission changes.
+         *
+         * @param permission Permission whose state changed.
+         * @param transition The new state of the permission.
+         */
+        void onPermissionStateChanged(@NonNull String permission, @Transition int transition);
+    }
+
+    /**
+     * Subscription returned by {@link #subscribe(Subscriber)}, used to stop receiving the transitions.
+     */
+    public static final class Subscription {
+
+        private final Subscriber mSubscriber;
+
+        private final Executor mExecutor;
+
+        /**
+         * Latest state of each permission not yet delivered.
+         */
+        private final ConcurrentHashMap<String, Integer> mPending = new ConcurrentHashMap<>();
+
+        /**
+         * Last state delivered for each permission, touched only by the drain task which never runs concurrently.
+         */
+        private final HashMap<String, Integer> mDelivered = new HashMap<>();
+
+        private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+
+        private volatile boolean isCancelled;
+
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        private Subscription(Subscriber subscriber, Executor executor) {
+            mSubscriber = subscriber;
+            mExecutor = executor;
+        }
+
+        /**
+         * Stop receiving the transitions, the pending transitions are dropped.
+         */
+        @AnyThread
+        public void unsubscribe() {
+            isCancelled = true;
+            sSubscriptions.remove(this);
+            mPending.clear();
+        }
+
+        private void offer(String permission, int transition) {
+            if (isCancelled)
+                return;
+            mPending.put(permission, transition);
+            if (isDrainScheduled.compareAndSet(false, true))
+                mExecutor.execute(mDrainTask);
+        }
+
+        private void drain() {
+            do {
+                for (String permission : mPending.keySet()) {
+                    Integer transition = mPending.remove(permission);
+                    if (null == transition || isCancelled)
+                        continue;
+                    if (!transition.equals(mDelivered.put(permission, transition)))
+                        mSubscriber.onPermissionStateChanged(permission, transition);
+                }
+                isDrainScheduled.set(false);
+            } while (!mPending.isEmpty() && isDrainScheduled.compareAndSet(false, true));
+        }
+    }
+
+    private static final CopyOnWriteArrayList<Subscription> sSubscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Last state published for each permission.
+     */
+    private static final ConcurrentHashMap<String, Integer> sLastTransitions = new ConcurrentHashMap<>();
+
+    private static final Handler sMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private static final Executor sMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            sMainThreadHandler.post(command);
+        }
+    };
+
+    private PermissionStatePublisher() {
+        //To forbid object creation from outside world.
+    }
+
+    /**
+     * Subscribe to the transitions on the main thread. The last known state of each permission is delivered right
+     * after subscribing.
+     *
+     * @param subscriber Subscriber receiving the transitions.
+     * @return The subscription, used to unsubscribe.
+     */
+    @AnyThread
+    @NonNull
+    public static Subscription subscribe(@NonNull Subscriber subscriber) {
+        return subscribe(sMainThreadExecutor, subscriber);
+    }
+
+    /**
+     * Subscribe to the transitions on the {@code executor}. The last known state of each permission is delivered
+     * right after subscribing.
+     *
+     * @param executor   Executor the subscriber is called on, one task at a time is submitted per subscription.
+     * @param subscriber Subscriber receiving the transitions.
+     * @return The subscription, used to unsubscribe.
+     */
+    @AnyThread
+    @NonNull
+    public static Subscription subscribe(@NonNull Executor executor, @NonNull Subscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber, executor);
+        sSubscriptions.add(subscription);
+        for (Map.Entry<String, Integer> entry : sLastTransitions.entrySet())
+            subscription.offer(entry.getKey(), entry.getValue());
+        return subscription;
+    }
+
+    /**
+     * Publish the state of the permission, dropped if it is the same as the last state published.
+     *
+     * @param permission Permission whose state is known.
+     * @param transition The state of the permission.
+     */
+    @AnyThread
+    static void publish(@NonNull String permission, @Transition int transition) {
+        Integer last = sLastTransitions.put(permission, transition);
+        if (null != last && last == transition)
+            return;
+        for (Subscription subscription : sSubscriptions)
+            subscription.offer(permission, transition);
+    }
+
+    /**
+     * Check again every permission published so far, called when the user may come back from the app settings. The
+     * permissions granted meanwhile are published as {@link Transition#GRANTED} and the permissions no longer granted
+     * as {@link Transition#REVOKED}.
+     *
+     * @param context Context reference.
+     */
+    @MainThread
+    static void refresh(@NonNull Context context) {
+        if (sSubscriptions.isEmpty())
+            return;
+        for (Map.Entry<String, Integer> entry : sLastTransitions.entrySet()) {
+            String permission = entry.getKey();
+            boolean isGranted = ContextCompat.checkSelfPermission(context, permission)
+                    == PackageManager.PERMISSION_GRANTED;
+            if (isGranted)
+                publish(permission, Transition.GRANTED);
+            else if (entry.getValue() == Transition.GRANTED)
+                publish(permission, Transition.REVOKED);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package half_blood_prince.androidruntimepermissionhelper.base;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+import android.support.v7.app.AlertDialog;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Cache of the rationale dialogs, one dialog per {@link PermissionHelper.PermissionModel} and Activity.
+ * <p>
+ * The dialog is built the first time it is needed, or ahead of time while the main thread is idle through {@link
+ * #prebuild(Activity, PermissionRegistry)}, and shown again as is the next time. The click listener is swapped on
+ * every show. The dialogs of an activity are dropped when the activity is destroyed, a dialog is built again when
+ * the locale of its activity changes.
+ * <p>
+ * Note * This class is not thread safe, it must be used from the main thread only.
+ *
+ * @author Half-Blood-Prince
+ */
+@MainThread
+final class RationaleDialogCache {
+
+    /**
+     * Built dialog along with the listener currently receiving its click events.
+     */
+    private static final class CachedDialog implements DialogInterface.OnClickListener {
+
+        final AlertDialog dialog;
+
+        /**
+         * Locale the texts of the {@link #dialog} are resolved for.
+         */
+        final Locale locale;
+
+        DialogInterface.OnClickListener delegate;
+
+        CachedDialog(Activity activity, PermissionHelper.PermissionModel permissionModel) {
+            locale = currentLocale(activity);
+            dialog = new AlertDialog.Builder(activity).create();
+            dialog.setTitle(permissionModel.getRationaleTitle(activity));
+            dialog.setMessage(permissionModel.getRationaleMessage(activity));
+            dialog.setButton(AlertDialog.BUTTON_POSITIVE, permissionModel.getPosBtnText(activity), this);
+            dialog.setButton(AlertDialog.BUTTON_NEGATIVE, permissionModel.getNegBtnText(activity), this);
+            dialog.setCancelable(false);
+            // Inflate the content now so the first show only attaches the window.
+            dialog.create();
+        }
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+            DialogInterface.OnClickListener listener = delegate;
+            delegate = null;
+            if (null != listener)
+                listener.onClick(dialog, which);
+        }
+    }
+
+    private static final HashMap<Activity, HashMap<PermissionHelper.PermissionModel, CachedDialog>> sDialogs =
+            new HashMap<>();
+
+    /**
+     * Application the eviction callbacks are registered on, null until the first dialog is cached.
+     */
+    private static Application sApplication;
+
+    private RationaleDialogCache() {
+        //To forbid object creation from outside world.
+    }
+
+    /**
+     * Return the rationale dialog for the {@code permissionModel}, ready to be shown.
+     *
+     * @param activity        Activity showing the dialog.
+     * @param permissionModel Permission to explain.
+     * @param onClickListener Listener receiving the next click event of the dialog.
+     * @return The dialog.
+     */
+    @NonNull
+    static AlertDialog obtain(@NonNull Activity activity, @NonNull PermissionHelper.PermissionModel permissionModel,
+                              @NonNull DialogInterface.OnClickListener onClickListener) {
+        CachedDialog cachedDialog = getOrBuild(activity, permissionModel);
+        cachedDialog.delegate = onClickListener;
+        return cachedDialog.dialog;
+    }
+
+    /**
+     * Build the rationale dialogs of the permissions the user denied previously, one dialog each time the main
+     * thread becomes idle.
+     *
+     * @param activity           Activity showing the dialogs.
+     * @param permissionRegistry Permissions which may need to be explained.
+     */
+    static void prebuild(@NonNull final Activity activity, @NonNull final PermissionRegistry permissionRegistry) {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+
+            private int mIndex;
+
+            @Override
+            public boolean queueIdle() {
+                if (activity.isFinishing() || activity.isDestroyed())
+                    return false;
+
+                while (mIndex < permissionRegistry.size()) {
+                    PermissionHelper.PermissionModel permissionModel = permissionRegistry.modelAt(mIndex++);
+                    if (ActivityCompat.shouldShowRequestPermissionRationale(activity, permissionModel.permission)) {
+                        getOrBuild(activity, permissionModel);
+                        break;
+                    }
+                }
+                return mIndex < permissionRegistry.size();
+            }
+        });
+    }
+
+    private static CachedDialog getOrBuild(Activity activity, PermissionHelper.PermissionModel permissionModel) {
+        HashMap<PermissionHelper.PermissionModel, CachedDialog> dialogs = sDialogs.get(activity);
+        if (null == dialogs) {
+            registerEviction(activity.getApplication());
+            dialogs = new HashMap<>();
+            sDialogs.put(activity, dialogs);
+        }
+
+        CachedDialog cachedDialog = dialogs.get(permissionModel);
+        if (null == cachedDialog || !cachedDialog.locale.equals(currentLocale(activity))) {
+            cachedDialog = new CachedDialog(activity, permissionModel);
+            dialogs.put(permissionModel, cachedDialog);
+        }
+        return cachedDialog;
+    }
+
+    private static Locale currentLocale(Activity activity) {
+        return activity.getResources().getConfiguration().locale;
+    }
+
+    private static void registerEviction(Application application) {
+        if (null != sApplication)
+            return;
+        sApplication = application;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                HashMap<PermissionHelper.PermissionModel, CachedDialog> dialogs = sDialogs.remove(activity);
+                if (null != dialogs) {
+                    for (CachedDialog cachedDialog : dialogs.values())
+                        cachedDialog.dialog.dismiss();
+                }
+            }
+        });
+    }
+}
@@ -1,16 +1,63 @@
 package half_blood_prince.androidruntimepermissionhelper.base;
 
+import android.content.res.Configuration;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
+import android.util.SparseArray;
 import android.widget.Toast;
 
 import half_blood_prince.androidruntimepermissionhelper.App;
 
 /**
+ * Helper to access the application resources.
+ * <p>
+ * The strings are cached by their resource id, the cache holds at most {@link #MAX_CACHED_STRINGS} strings, evicts
+ * the least recently used one when full and is flushed when the configuration changes (i.e the locale or the night
+ * mode) through {@link #onConfigurationChanged(Configuration)}.
+ *
  * @author Half-Blood-Prince
  */
 public final class ResourceHelper {
 
+    /**
+     * Maximum number of strings kept in the cache.
+     */
+    private static final int MAX_CACHED_STRINGS = 64;
+
+    /**
+     * A cached string along with the time it was last used.
+     */
+    private static final class CachedString {
+
+        final String string;
+
+        long lastUse;
+
+        CachedString(String string, long lastUse) {
+            this.string = string;
+            this.lastUse = lastUse;
+        }
+    }
+
+    /**
+     * Cached strings keyed by the resource id, guarded by itself.
+     */
+    private static final SparseArray<CachedString> sStrings = new SparseArray<>();
+
+    /**
+     * Incremented on every use of the cache, orders the cached strings by their last use.
+     */
+    private static long sUseClock;
+
+    /**
+     * Incremented on every flush, a string loaded before the flush is not cached after it.
+     */
+    private static int sGeneration;
+
+    private static long sHitCount;
+
+    private static long sMissCount;
+
     private ResourceHelper() {
         //To forbid object creation from outside world.
     }
@@ -24,12 +71,74 @@ public final class ResourceHelper {
     }
 
     /**
-     * Return the string associated with the {@code id}.
+     * Return the string associated with the {@code id}, from the cache if available.
      *
      * @param id Id referring the string to access.
      * @return The string associated with the {@code id}.
      */
     public static String getString(@StringRes int id) {
-        return App.getInstance().getResources().getString(id);
+        int generation;
+        synchronized (sStrings) {
+            CachedString cached = sStrings.get(id);
+            if (null != cached) {
+                cached.lastUse = ++sUseClock;
+                sHitCount++;
+                return cached.string;
+            }
+            sMissCount++;
+            generation = sGeneration;
+        }
+
+        String string = App.getInstance().getResources().getString(id);
+        synchronized (sStrings) {
+            if (generation != sGeneration)
+                return string;
+            if (sStrings.size() >= MAX_CACHED_STRINGS)
+                sStrings.removeAt(leastRecentlyUsedIndex());
+            sStrings.put(id, new CachedString(string, ++sUseClock));
+        }
+        return string;
+    }
+
+    /**
+     * Linear scan of the last uses, the cache is small and the scan runs only on a miss with a full cache.
+     */
+    private static int leastRecentlyUsedIndex() {
+        int leastRecentlyUsed = 0;
+        for (int index = 1; index < sStrings.size(); index++) {
+            if (sStrings.valueAt(index).lastUse < sStrings.valueAt(leastRecentlyUsed).lastUse)
+                leastRecentlyUsed = index;
+        }
+        return leastRecentlyUsed;
+    }
+
+    /**
+     * Flush the cached strings, call this method from {@link App#onConfigurationChanged(Configuration)}.
+     *
+     * @param newConfig The new configuration.
+     */
+    public static void onConfigurationChanged(@NonNull Configuration newConfig) {
+        synchronized (sStrings) {
+            sStrings.clear();
+            sGeneration++;
+        }
+    }
+
+    /**
+     * @return Number of {@link #getString(int)} calls served from the cache.
+     */
+    public static long getCacheHitCount() {
+        synchronized (sStrings) {
+            return sHitCount;
+        }
+    }
+
+    /**
+     * @return Number of {@link #getString(int)} calls which had to load the string from the resources.
+     */
+    public static long getCacheMissCount() {
+        synchronized (sStrings) {
+            return sMissCount;
+        }
     }
 }
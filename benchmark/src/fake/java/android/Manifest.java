@@ -0,0 +1,13 @@
+package android;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public final class Manifest {
+
+    public static final class permission {
+        public static final String ACCESS_FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+        public static final String CAMERA = "android.permission.CAMERA";
+        public static final String WRITE_EXTERNAL_STORAGE = "android.permission.WRITE_EXTERNAL_STORAGE";
+    }
+}
@@ -0,0 +1,86 @@
+package android.app;
+
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ * <p>
+ * {@link #requestPermissions(String[], int)} answers like a user accepting every permission dialog (see {@link
+ * #setGrantOnRequest(boolean)}): the result is posted on the main looper and delivered to {@link
+ * #onRequestPermissionsResult(int, String[], int[])}.
+ */
+public class Activity extends ContextWrapper {
+
+    private final Application mApplication;
+
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private boolean isGrantOnRequest = true;
+
+    private boolean isDestroyed;
+
+    public Activity(Application application) {
+        mApplication = application;
+    }
+
+    public final Application getApplication() {
+        return mApplication;
+    }
+
+    public boolean isFinishing() {
+        return isDestroyed;
+    }
+
+    public boolean isDestroyed() {
+        return isDestroyed;
+    }
+
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        return false;
+    }
+
+    public final void requestPermissions(final String[] permissions, final int requestCode) {
+        final int[] grantResults = new int[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            if (isGrantOnRequest)
+                setPermissionGranted(permissions[i], true);
+            grantResults[i] = isGrantOnRequest ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+        }
+        mMainThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // A destroyed activity never receives the result, like the dialog of a finished activity.
+                if (!isDestroyed)
+                    onRequestPermissionsResult(requestCode, permissions, grantResults);
+            }
+        });
+    }
+
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+    }
+
+    /**
+     * Fake only, whether the user accepts the permission dialogs.
+     */
+    public void setGrantOnRequest(boolean isGrantOnRequest) {
+        this.isGrantOnRequest = isGrantOnRequest;
+    }
+
+    /**
+     * Fake only, notify the lifecycle callbacks of the application that the activity is started.
+     */
+    public void start() {
+        mApplication.dispatchActivityStarted(this);
+    }
+
+    /**
+     * Fake only, mark the activity destroyed and notify the lifecycle callbacks of the application.
+     */
+    public void destroy() {
+        isDestroyed = true;
+        mApplication.dispatchActivityDestroyed(this);
+    }
+}
@@ -0,0 +1,61 @@
+package android.app;
+
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.os.Bundle;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class Application extends ContextWrapper {
+
+    public interface ActivityLifecycleCallbacks {
+        void onActivityCreated(Activity activity, Bundle savedInstanceState);
+
+        void onActivityStarted(Activity activity);
+
+        void onActivityResumed(Activity activity);
+
+        void onActivityPaused(Activity activity);
+
+        void onActivityStopped(Activity activity);
+
+        void onActivitySaveInstanceState(Activity activity, Bundle outState);
+
+        void onActivityDestroyed(Activity activity);
+    }
+
+    private final CopyOnWriteArrayList<ActivityLifecycleCallbacks> mCallbacks = new CopyOnWriteArrayList<>();
+
+    public void onCreate() {
+    }
+
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public void registerActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        mCallbacks.add(callback);
+    }
+
+    public void unregisterActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * Fake only, called by {@link Activity#start()}.
+     */
+    void dispatchActivityStarted(Activity activity) {
+        for (ActivityLifecycleCallbacks callback : mCallbacks)
+            callback.onActivityStarted(activity);
+    }
+
+    /**
+     * Fake only, called by {@link Activity#destroy()}.
+     */
+    void dispatchActivityDestroyed(Activity activity) {
+        for (ActivityLifecycleCallbacks callback : mCallbacks)
+            callback.onActivityDestroyed(activity);
+    }
+}
@@ -0,0 +1,51 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ * <p>
+ * The permission state is process wide, like on a device, and controlled through {@link #setPermissionGranted(String,
+ * boolean)}.
+ */
+public abstract class Context {
+
+    private static final ConcurrentHashMap<String, Boolean> sGrantedPermissions = new ConcurrentHashMap<>();
+
+    private static final Resources sResources = new Resources();
+
+    public Resources getResources() {
+        return sResources;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public int checkSelfPermission(String permission) {
+        return Boolean.TRUE.equals(sGrantedPermissions.get(permission))
+                ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    /**
+     * Fake only, grant or revoke the {@code permission}.
+     */
+    public static void setPermissionGranted(String permission, boolean isGranted) {
+        sGrantedPermissions.put(permission, isGranted);
+    }
+
+    /**
+     * Fake only, revoke every permission.
+     */
+    public static void resetPermissions() {
+        sGrantedPermissions.clear();
+    }
+}
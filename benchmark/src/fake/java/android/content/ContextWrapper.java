@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class ContextWrapper extends Context {
+}
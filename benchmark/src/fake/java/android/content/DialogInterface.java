@@ -0,0 +1,17 @@
+package android.content;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public interface DialogInterface {
+
+    int BUTTON_POSITIVE = -1;
+
+    int BUTTON_NEGATIVE = -2;
+
+    void dismiss();
+
+    interface OnClickListener {
+        void onClick(DialogInterface dialog, int which);
+    }
+}
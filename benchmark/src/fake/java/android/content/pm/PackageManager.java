@@ -0,0 +1,11 @@
+package android.content.pm;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class PackageManager {
+
+    public static final int PERMISSION_GRANTED = 0;
+
+    public static final int PERMISSION_DENIED = -1;
+}
@@ -0,0 +1,11 @@
+package android.content.res;
+
+import java.util.Locale;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class Configuration {
+
+    public Locale locale = Locale.ENGLISH;
+}
@@ -0,0 +1,17 @@
+package android.content.res;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM, the strings are made of their id.
+ */
+public class Resources {
+
+    private final Configuration mConfiguration = new Configuration();
+
+    public String getString(int id) {
+        return "string/" + id;
+    }
+
+    public Configuration getConfiguration() {
+        return mConfiguration;
+    }
+}
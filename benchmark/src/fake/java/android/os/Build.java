@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 27;
+    }
+
+    public static class VERSION_CODES {
+        public static final int M = 23;
+    }
+}
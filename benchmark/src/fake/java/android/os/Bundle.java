@@ -0,0 +1,19 @@
+package android.os;
+
+import java.util.HashMap;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public final class Bundle {
+
+    private final HashMap<String, Object> mValues = new HashMap<>();
+
+    public void putIntArray(String key, int[] value) {
+        mValues.put(key, value);
+    }
+
+    public int[] getIntArray(String key) {
+        return (int[]) mValues.get(key);
+    }
+}
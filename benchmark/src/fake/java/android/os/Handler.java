@@ -0,0 +1,49 @@
+package android.os;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable runnable) {
+        Message message = Message.obtain();
+        message.callback = runnable;
+        return sendMessage(message);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        Message message = Message.obtain();
+        message.what = what;
+        message.arg1 = arg1;
+        message.arg2 = arg2;
+        message.obj = obj;
+        message.target = this;
+        return message;
+    }
+
+    public final boolean sendMessage(Message message) {
+        message.target = this;
+        mLooper.mQueue.enqueue(message);
+        return true;
+    }
+
+    void dispatchMessage(Message message) {
+        if (null != message.callback)
+            message.callback.run();
+        else
+            handleMessage(message);
+    }
+}
@@ -0,0 +1,54 @@
+package android.os;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ * <p>
+ * There is no loop thread, the thread calling {@link #prepareMainLooper()} is the main thread and runs the queued
+ * messages with {@link #runUntilIdle()}.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+
+    private static volatile Looper sMainLooper;
+
+    final MessageQueue mQueue = new MessageQueue();
+
+    final Thread mThread;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    /**
+     * Make the calling thread the main thread, replacing the previous main looper if any.
+     */
+    public static void prepareMainLooper() {
+        Looper looper = new Looper();
+        sThreadLocal.set(looper);
+        sMainLooper = looper;
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static MessageQueue myQueue() {
+        return myLooper().mQueue;
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    /**
+     * Fake only, run the messages of the calling thread's looper until the queue is empty, then the idle handlers.
+     */
+    public static void runUntilIdle() {
+        myQueue().runUntilIdle();
+    }
+}
@@ -0,0 +1,60 @@
+package android.os;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM, pooled like the platform one.
+ */
+public final class Message {
+
+    private static final int MAX_POOL_SIZE = 50;
+
+    private static final Object sPoolLock = new Object();
+
+    private static Message sPool;
+
+    private static int sPoolSize;
+
+    public int what;
+
+    public int arg1;
+
+    public int arg2;
+
+    public Object obj;
+
+    Handler target;
+
+    Runnable callback;
+
+    private Message next;
+
+    public static Message obtain() {
+        synchronized (sPoolLock) {
+            if (null != sPool) {
+                Message message = sPool;
+                sPool = message.next;
+                message.next = null;
+                sPoolSize--;
+                return message;
+            }
+        }
+        return new Message();
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+    void recycle() {
+        what = arg1 = arg2 = 0;
+        obj = null;
+        target = null;
+        callback = null;
+        synchronized (sPoolLock) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+}
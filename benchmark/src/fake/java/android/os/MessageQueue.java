@@ -0,0 +1,57 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public final class MessageQueue {
+
+    public interface IdleHandler {
+        boolean queueIdle();
+    }
+
+    private final ConcurrentLinkedQueue<Message> mMessages = new ConcurrentLinkedQueue<>();
+
+    private final ArrayList<IdleHandler> mIdleHandlers = new ArrayList<>();
+
+    MessageQueue() {
+    }
+
+    public void addIdleHandler(IdleHandler handler) {
+        synchronized (mIdleHandlers) {
+            mIdleHandlers.add(handler);
+        }
+    }
+
+    public void removeIdleHandler(IdleHandler handler) {
+        synchronized (mIdleHandlers) {
+            mIdleHandlers.remove(handler);
+        }
+    }
+
+    void enqueue(Message message) {
+        mMessages.add(message);
+    }
+
+    void runUntilIdle() {
+        Message message;
+        while (null != (message = mMessages.poll())) {
+            message.target.dispatchMessage(message);
+            message.recycle();
+        }
+
+        IdleHandler[] idleHandlers;
+        synchronized (mIdleHandlers) {
+            // Nothing is allocated when idle, so the allocation tests measure the permission code only.
+            if (mIdleHandlers.isEmpty())
+                return;
+            idleHandlers = mIdleHandlers.toArray(new IdleHandler[mIdleHandlers.size()]);
+        }
+        for (IdleHandler idleHandler : idleHandlers) {
+            if (!idleHandler.queueIdle())
+                removeIdleHandler(idleHandler);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM.
+ */
+public class ActivityCompat {
+
+    public static boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return activity.shouldShowRequestPermissionRationale(permission);
+    }
+
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        activity.requestPermissions(permissions, requestCode);
+    }
+}
@@ -0,0 +1,33 @@
+package android.support.v4.app;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM.
+ */
+public class Fragment {
+
+    private FragmentActivity mActivity;
+
+    public final FragmentActivity getActivity() {
+        return mActivity;
+    }
+
+    /**
+     * Fake only, attach the fragment to the {@code activity}.
+     */
+    public void attach(FragmentActivity activity) {
+        mActivity = activity;
+    }
+
+    public final void requestPermissions(String[] permissions, int requestCode) {
+        mActivity.requestPermissions(permissions, requestCode);
+    }
+
+    public void setRetainInstance(boolean retain) {
+    }
+
+    public void onDetach() {
+    }
+
+    public void onDestroy() {
+    }
+}
@@ -0,0 +1,20 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+import android.app.Application;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM.
+ */
+public class FragmentActivity extends Activity {
+
+    private final FragmentManager mFragmentManager = new FragmentManager();
+
+    public FragmentActivity(Application application) {
+        super(application);
+    }
+
+    public FragmentManager getSupportFragmentManager() {
+        return mFragmentManager;
+    }
+}
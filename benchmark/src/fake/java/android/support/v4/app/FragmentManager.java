@@ -0,0 +1,20 @@
+package android.support.v4.app;
+
+import java.util.HashMap;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM, the transactions are committed
+ * right away.
+ */
+public class FragmentManager {
+
+    private final HashMap<String, Fragment> mFragments = new HashMap<>();
+
+    public Fragment findFragmentByTag(String tag) {
+        return mFragments.get(tag);
+    }
+
+    public FragmentTransaction beginTransaction() {
+        return new FragmentTransaction(mFragments);
+    }
+}
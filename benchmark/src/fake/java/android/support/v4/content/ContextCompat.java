@@ -0,0 +1,13 @@
+package android.support.v4.content;
+
+import android.content.Context;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM.
+ */
+public class ContextCompat {
+
+    public static int checkSelfPermission(Context context, String permission) {
+        return context.checkSelfPermission(permission);
+    }
+}
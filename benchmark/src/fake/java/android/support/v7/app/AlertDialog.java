@@ -0,0 +1,50 @@
+package android.support.v7.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+/**
+ * Fake of the support library class for running the permission core on the JVM, the dialog is never displayed.
+ */
+public class AlertDialog implements DialogInterface {
+
+    public static class Builder {
+
+        public Builder(Context context) {
+        }
+
+        public AlertDialog create() {
+            return new AlertDialog();
+        }
+    }
+
+    private boolean isShowing;
+
+    public void setTitle(CharSequence title) {
+    }
+
+    public void setMessage(CharSequence message) {
+    }
+
+    public void setButton(int whichButton, CharSequence text, OnClickListener listener) {
+    }
+
+    public void setCancelable(boolean flag) {
+    }
+
+    public void create() {
+    }
+
+    public void show() {
+        isShowing = true;
+    }
+
+    public boolean isShowing() {
+        return isShowing;
+    }
+
+    @Override
+    public void dismiss() {
+        isShowing = false;
+    }
+}
@@ -0,0 +1,60 @@
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM, sorted keys with a binary search like the
+ * platform one.
+ */
+public class SparseArray<E> {
+
+    private int[] mKeys = new int[10];
+
+    private Object[] mValues = new Object[10];
+
+    private int mSize;
+
+    @SuppressWarnings("unchecked")
+    public E get(int key) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return index < 0 ? null : (E) mValues[index];
+    }
+
+    public void put(int key, E value) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index >= 0) {
+            mValues[index] = value;
+            return;
+        }
+        index = ~index;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mValues[--mSize] = null;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+}
@@ -0,0 +1,18 @@
+package android.widget;
+
+import android.content.Context;
+
+/**
+ * Fake of the platform class for running the permission core on the JVM.
+ */
+public class Toast {
+
+    public static final int LENGTH_SHORT = 0;
+
+    public static Toast makeText(Context context, CharSequence text, int duration) {
+        return new Toast();
+    }
+
+    public void show() {
+    }
+}
@@ -0,0 +1,14 @@
+package half_blood_prince.androidruntimepermissionhelper;
+
+/**
+ * Fake of the generated resource class, holds the ids used by the permission core.
+ */
+public final class R {
+
+    public static final class string {
+        public static final int text_permission_required = 0x7f0b0001;
+        public static final int msg_write_external_storage_permission_rationale = 0x7f0b0002;
+        public static final int msg_access_location_rationale = 0x7f0b0003;
+        public static final int msg_permission_rationale = 0x7f0b0004;
+    }
+}
@@ -0,0 +1,93 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionGroupResult;
+
+/**
+ * Cost of delivering the result of a run of 10 granted permissions, per delivery mode and callback type.
+ *
+ * @author Half-Blood-Prince
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackDispatchBenchmark {
+
+    private static final int SIZE = 10;
+
+    @Param({"POST", "IMMEDIATE"})
+    String deliveryMode;
+
+    /**
+     * GROUP_VIEW: {@link PermissionHelper.GroupResultCallback}, RESULT_ARRAY: {@link
+     * PermissionHelper.PermissionResultCallback}.
+     */
+    @Param({"GROUP_VIEW", "RESULT_ARRAY"})
+    String callback;
+
+    private PermissionHelper mPermissionHelper;
+
+    private int mDelivered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(FakeHost.prepareMainThread());
+        FakeHost.grantAll(SIZE, true);
+        PermissionStateCache.invalidate();
+
+        mPermissionHelper = PermissionHelper.fromActivity(activity, FakeHost.newRegistry(SIZE));
+        activity.permissionHelper = mPermissionHelper;
+        mPermissionHelper.setDeliveryMode("POST".equals(deliveryMode)
+                ? PermissionHelper.DeliveryMode.POST : PermissionHelper.DeliveryMode.IMMEDIATE);
+        if ("GROUP_VIEW".equals(callback)) {
+            mPermissionHelper.setGroupResultCallback(new PermissionHelper.GroupResultCallback() {
+                @Override
+                public void onGroupResult(@NonNull PermissionGroupResult groupResult) {
+                    mDelivered += groupResult.size();
+                }
+            });
+        } else {
+            mPermissionHelper.setResultCallback(new PermissionHelper.PermissionResultCallback() {
+                @Override
+                public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                    mDelivered += permissionResults.length;
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPermissionHelper.release();
+    }
+
+    @Benchmark
+    public int dispatch() {
+        mPermissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+        return mDelivered;
+    }
+}
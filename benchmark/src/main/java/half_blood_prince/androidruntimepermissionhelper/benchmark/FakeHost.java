@@ -0,0 +1,81 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Looper;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRegistry;
+
+/**
+ * Host of the benchmarked helpers on top of the fake platform layer. The benchmark thread acts as the main thread.
+ *
+ * @author Half-Blood-Prince
+ */
+final class FakeHost {
+
+    /**
+     * Activity forwarding the permission results to its helper, like the app screens do.
+     */
+    static final class HostActivity extends Activity {
+
+        PermissionHelper permissionHelper;
+
+        HostActivity(App application) {
+            super(application);
+        }
+
+        @Override
+        public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+            permissionHelper.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        }
+    }
+
+    /**
+     * Id of the first fake permission, past the small integers the JVM caches boxed like real registries are.
+     */
+    static final int FIRST_ID = 0xA0;
+
+    private static App sApp;
+
+    private FakeHost() {
+        //To forbid object creation from outside world.
+    }
+
+    /**
+     * Make the calling thread the main thread and create the application once.
+     */
+    static App prepareMainThread() {
+        Looper.prepareMainLooper();
+        if (null == sApp) {
+            sApp = new App();
+            sApp.onCreate();
+            // Measure the flows themselves, the history would resolve the denied completely permissions up front.
+            PermissionHelper.setDefaultHistory(null);
+        }
+        return sApp;
+    }
+
+    static String permissionAt(int index) {
+        return "fake.permission.P" + index;
+    }
+
+    /**
+     * @param size Number of permissions, the ids are {@link #FIRST_ID} to {@link #FIRST_ID} + {@code size} - 1.
+     * @return Registry of fake permissions.
+     */
+    static PermissionRegistry newRegistry(int size) {
+        PermissionRegistry.Builder builder = new PermissionRegistry.Builder();
+        for (int i = 1; i <= size; i++)
+            builder.put(FIRST_ID + i - 1,
+                    new PermissionHelper.PermissionModel(permissionAt(i), "Title " + i, "Message " + i));
+        return builder.build();
+    }
+
+    static void grantAll(int size, boolean isGranted) {
+        Context.resetPermissions();
+        for (int i = 1; i <= size; i++)
+            Context.setPermissionGranted(permissionAt(i), isGranted);
+    }
+}
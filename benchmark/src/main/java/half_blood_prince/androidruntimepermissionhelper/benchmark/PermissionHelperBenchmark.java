@@ -0,0 +1,107 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionGroupResult;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionMetrics;
+
+/**
+ * Throughput of a whole permission checking run, startCheckingPermission through checkNextPermission to
+ * dispatchGroupResult, for registries of 1 to 1000 permissions. Run with the gc profiler for the allocation rate.
+ * <ul>
+ * <li>GRANTED: every permission is granted, the run never goes to the system.</li>
+ * <li>DENIED: the user denies every request, each permission (or the batch) is a system round trip.</li>
+ * </ul>
+ * The metrics param records the run into a {@link PermissionMetrics}, compare it with the default to get the cost of
+ * the instrumentation.
+ *
+ * @author Half-Blood-Prince
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionHelperBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int size;
+
+    @Param({"GRANTED", "DENIED"})
+    String scenario;
+
+    @Param({"false", "true"})
+    boolean batch;
+
+    @Param({"false", "true"})
+    boolean metrics;
+
+    private FakeHost.HostActivity mActivity;
+
+    private PermissionHelper mPermissionHelper;
+
+    private int mCompletedRuns;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mActivity = new FakeHost.HostActivity(FakeHost.prepareMainThread());
+        mActivity.setGrantOnRequest(false);
+        FakeHost.grantAll(size, "GRANTED".equals(scenario));
+        PermissionStateCache.invalidate();
+
+        mPermissionHelper = PermissionHelper.fromActivity(mActivity, FakeHost.newRegistry(size));
+        mActivity.permissionHelper = mPermissionHelper;
+        mPermissionHelper.setBatchRequestEnabled(batch);
+        if (metrics)
+            mPermissionHelper.setMetrics(new PermissionMetrics());
+        mPermissionHelper.setDeliveryMode(PermissionHelper.DeliveryMode.IMMEDIATE);
+        // A single permission is reported through the result callback, a group through the allocation free view.
+        if (size == 1) {
+            mPermissionHelper.setResultCallback(new PermissionHelper.PermissionResultCallback() {
+                @Override
+                public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                    mCompletedRuns++;
+                }
+            });
+        } else {
+            mPermissionHelper.setGroupResultCallback(new PermissionHelper.GroupResultCallback() {
+                @Override
+                public void onGroupResult(@NonNull PermissionGroupResult groupResult) {
+                    mCompletedRuns += groupResult.size();
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPermissionHelper.release();
+    }
+
+    @Benchmark
+    public int checkingRun() {
+        mPermissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+        return mCompletedRuns;
+    }
+}
@@ -0,0 +1,68 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRegistry;
+
+/**
+ * Cost of looking up every permission of the registry by id, against the boxed map the helper used to take.
+ *
+ * @author Half-Blood-Prince
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionRegistryBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int size;
+
+    private PermissionRegistry mRegistry;
+
+    private Map<Integer, PermissionHelper.PermissionModel> mMap;
+
+    @Setup
+    public void setUp() {
+        mRegistry = FakeHost.newRegistry(size);
+        mMap = new LinkedHashMap<>();
+        for (int index = 0; index < mRegistry.size(); index++)
+            mMap.put(mRegistry.idAt(index), mRegistry.modelAt(index));
+    }
+
+    @Benchmark
+    public void registryHit(Blackhole blackhole) {
+        for (int id = FakeHost.FIRST_ID; id < FakeHost.FIRST_ID + size; id++)
+            blackhole.consume(mRegistry.get(id));
+    }
+
+    @Benchmark
+    public void registryMiss(Blackhole blackhole) {
+        for (int id = -1; id >= -size; id--)
+            blackhole.consume(mRegistry.get(id));
+    }
+
+    @Benchmark
+    public void mapHit(Blackhole blackhole) {
+        for (int id = FakeHost.FIRST_ID; id < FakeHost.FIRST_ID + size; id++)
+            blackhole.consume(mMap.get(id));
+    }
+}
@@ -0,0 +1,103 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+import half_blood_prince.androidruntimepermissionhelper.core.PermissionGroupResult;
+import half_blood_prince.androidruntimepermissionhelper.core.ResultState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the result delivery of {@link PermissionHelper}, on top of the fake platform layer.
+ *
+ * @author Half-Blood-Prince
+ */
+public class CallbackDispatchTest {
+
+    private static final int SIZE = 3;
+
+    private static final int WARM_UP_RUNS = 20_000;
+
+    private static final int RUNS = 10_000;
+
+    @Test
+    public void postedGroupResults_surviveTheNextRun() {
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(FakeHost.prepareMainThread());
+        FakeHost.grantAll(SIZE, true);
+        PermissionStateCache.invalidate();
+
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, FakeHost.newRegistry(SIZE));
+        activity.permissionHelper = permissionHelper;
+        permissionHelper.setDeliveryMode(PermissionHelper.DeliveryMode.POST);
+        final ArrayList<String> deliveries = new ArrayList<>();
+        permissionHelper.setGroupResultCallback(new PermissionHelper.GroupResultCallback() {
+            @Override
+            public void onGroupResult(@NonNull PermissionGroupResult groupResult) {
+                int[] results = new int[groupResult.size()];
+                for (int index = 0; index < results.length; index++)
+                    results[index] = groupResult.getRequestId(index) * 10 + groupResult.getResult(index);
+                deliveries.add(Arrays.toString(results));
+            }
+        });
+
+        // The second run reuses the buffers of the first one before the first posted delivery is handled.
+        permissionHelper.startCheckingPermission();
+        permissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+        permissionHelper.release();
+
+        int first = FakeHost.FIRST_ID * 10;
+        String expected = Arrays.toString(new int[]{
+                first + ResultState.GRANTED, first + 10 + ResultState.GRANTED, first + 20 + ResultState.GRANTED});
+        assertEquals(Arrays.asList(expected, expected), deliveries);
+    }
+
+    @Test
+    public void immediateGroupRun_allocatesNothing() {
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(FakeHost.prepareMainThread());
+        FakeHost.grantAll(SIZE, true);
+        PermissionStateCache.invalidate();
+
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, FakeHost.newRegistry(SIZE));
+        activity.permissionHelper = permissionHelper;
+        permissionHelper.setDeliveryMode(PermissionHelper.DeliveryMode.IMMEDIATE);
+        final int[] delivered = new int[1];
+        permissionHelper.setGroupResultCallback(new PermissionHelper.GroupResultCallback() {
+            @Override
+            public void onGroupResult(@NonNull PermissionGroupResult groupResult) {
+                delivered[0] += groupResult.size();
+            }
+        });
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // The warm up grows the buffers and lets the JIT compile the whole run, from the submission to the callback.
+        for (int run = 0; run < WARM_UP_RUNS; run++)
+            runGroup(permissionHelper);
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int run = 0; run < RUNS; run++)
+            runGroup(permissionHelper);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        permissionHelper.release();
+
+        assertEquals((WARM_UP_RUNS + RUNS) * SIZE, delivered[0]);
+        // Allow the few bytes the measurement itself may cost, one allocation per run would be a hundred kilobytes.
+        assertTrue("Allocated " + allocated + " bytes in " + RUNS + " runs", allocated < 1024);
+    }
+
+    private static void runGroup(PermissionHelper permissionHelper) {
+        permissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+    }
+}
@@ -0,0 +1,42 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import org.junit.Test;
+
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRegistry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link PermissionRegistry}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionRegistryTest {
+
+    @Test
+    public void putAgain_replacesTheModelAndKeepsThePosition() {
+        PermissionRegistry registry = new PermissionRegistry.Builder()
+                .put(3, model("c"))
+                .put(-1, model("a"))
+                .put(3, model("c2"))
+                .put(2, model("b"))
+                .put(-1, model("a2"))
+                .put(3, model("c3"))
+                .build();
+
+        assertEquals(3, registry.size());
+        assertEquals(3, registry.idAt(0));
+        assertEquals(-1, registry.idAt(1));
+        assertEquals(2, registry.idAt(2));
+        assertEquals("c3", registry.permissionAt(0));
+        assertEquals("a2", registry.permissionAt(1));
+        assertEquals("b", registry.permissionAt(2));
+        assertEquals(1, registry.indexOf(-1));
+        assertEquals(-1, registry.indexOf(4));
+    }
+
+    private static PermissionHelper.PermissionModel model(String permission) {
+        return new PermissionHelper.PermissionModel(permission, "Title", "Message");
+    }
+}
@@ -0,0 +1,158 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRequest;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link PermissionRequest}, the handles are started from helpers on top of the fake platform
+ * layer. The test thread is the main thread, the runs asking the user complete once the main looper runs.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionRequestTest {
+
+    private static final int SIZE = 2;
+
+    private final List<PermissionHelper> mHelpers = new ArrayList<>();
+
+    @After
+    public void releaseHelpers() {
+        for (PermissionHelper permissionHelper : mHelpers)
+            permissionHelper.release();
+        Looper.runUntilIdle();
+    }
+
+    @Test
+    public void runAskingTheUser_completesWithTheResults() throws Exception {
+        PermissionRequest request = newHelper(false).startRequest();
+        assertFalse(request.isDone());
+
+        Looper.runUntilIdle();
+
+        assertTrue(request.isDone());
+        assertFalse(request.isCancelled());
+        assertTrue(request.isAllGranted());
+        assertEquals(SIZE, request.await().length);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void awaitWithTimeout_throwsIfNotDone() throws Exception {
+        newHelper(false).startRequest().await(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void release_cancelsTheRequestsNotDone() throws Exception {
+        PermissionHelper permissionHelper = newHelper(false);
+        PermissionRequest request = permissionHelper.startRequest();
+        final List<Integer> callbackResults = new ArrayList<>();
+        request.addCallback(new PermissionHelper.PermissionResultCallback() {
+            @Override
+            public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                callbackResults.add(permissionResults.length);
+            }
+        });
+
+        permissionHelper.release();
+        Looper.runUntilIdle();
+
+        assertTrue(request.isDone());
+        assertTrue(request.isCancelled());
+        assertEquals("[0]", callbackResults.toString());
+        try {
+            request.await();
+            fail("await() of a cancelled request must throw");
+        } catch (CancellationException expected) {
+            // The waiting thread is released rather than blocked forever.
+        }
+    }
+
+    @Test
+    public void allOf_completesOnceEveryRequestIsDone() throws Exception {
+        PermissionRequest done = newHelper(true).startRequest();
+        PermissionRequest asking = newHelper(false).startRequest();
+
+        PermissionRequest all = PermissionRequest.allOf(done, asking);
+        assertFalse(all.isDone());
+        Looper.runUntilIdle();
+
+        assertEquals(2 * SIZE, all.await().length);
+        assertTrue(PermissionRequest.allOf().isDone());
+    }
+
+    @Test
+    public void allOf_isCancelledIfAnyRequestIsCancelled() {
+        PermissionRequest done = newHelper(true).startRequest();
+        PermissionHelper releasedHelper = newHelper(false);
+        PermissionRequest all = PermissionRequest.allOf(done, releasedHelper.startRequest());
+
+        releasedHelper.release();
+
+        assertTrue(all.isCancelled());
+    }
+
+    @Test
+    public void anyOf_completesWithTheFirstRequestDone() throws Exception {
+        PermissionHelper releasedHelper = newHelper(false);
+        PermissionRequest cancelled = releasedHelper.startRequest();
+        PermissionRequest asking = newHelper(false).startRequest();
+        PermissionRequest any = PermissionRequest.anyOf(cancelled, asking);
+
+        // A cancelled request is skipped, the composed request waits for the other one.
+        releasedHelper.release();
+        assertFalse(any.isDone());
+        Looper.runUntilIdle();
+
+        assertFalse(any.isCancelled());
+        assertEquals(SIZE, any.await().length);
+    }
+
+    @Test
+    public void anyOf_isCancelledIfEveryRequestIsCancelled() {
+        PermissionHelper permissionHelper = newHelper(false);
+        PermissionRequest any = PermissionRequest.anyOf(permissionHelper.startRequest(),
+                permissionHelper.startRequest());
+
+        permissionHelper.release();
+
+        assertTrue(any.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anyOfNothing_isRejected() {
+        PermissionRequest.anyOf();
+    }
+
+    /**
+     * @param isGranted true if the permissions are granted already, false to ask the user who grants them.
+     * @return Helper of a new activity.
+     */
+    private PermissionHelper newHelper(boolean isGranted) {
+        App app = FakeHost.prepareMainThread();
+        FakeHost.grantAll(SIZE, isGranted);
+        PermissionStateCache.invalidate();
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(app);
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, FakeHost.newRegistry(SIZE));
+        activity.permissionHelper = permissionHelper;
+        mHelpers.add(permissionHelper);
+        return permissionHelper;
+    }
+}
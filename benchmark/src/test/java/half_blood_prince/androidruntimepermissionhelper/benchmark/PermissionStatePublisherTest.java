@@ -0,0 +1,142 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.content.Context;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRegistry;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStatePublisher;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for {@link PermissionStatePublisher}, on top of the fake platform layer.
+ * <p>
+ * The publisher is process wide, each test uses its own permissions so the states published by the other tests do
+ * not interfere.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionStatePublisherTest {
+
+    private static final int SIZE = 2;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void slowSubscriber_receivesOnlyTheLatestStateOfEachPermission() {
+        App app = FakeHost.prepareMainThread();
+        PermissionRegistry registry = newRegistry("conflated");
+        setGranted("conflated", false);
+        PermissionStateCache.invalidate();
+
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor queuing = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                tasks.add(command);
+            }
+        };
+        List<String> transitions = new ArrayList<>();
+        PermissionStatePublisher.Subscription subscription =
+                PermissionStatePublisher.subscribe(queuing, recording(transitions, "conflated"));
+
+        // A batch run denies both permissions, the user then grants them in the app settings and comes back.
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(app);
+        activity.setGrantOnRequest(false);
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, registry);
+        activity.permissionHelper = permissionHelper;
+        permissionHelper.setBatchRequestEnabled(true);
+        permissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+        setGranted("conflated", true);
+        activity.start();
+
+        // A single drain task is queued however many states are published before it runs.
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+
+        Collections.sort(transitions);
+        assertEquals("[conflated0:1, conflated1:1]", transitions.toString());
+        subscription.unsubscribe();
+        permissionHelper.release();
+    }
+
+    @Test
+    public void activityStart_publishesThePermissionsChangedInTheAppSettings() {
+        App app = FakeHost.prepareMainThread();
+        PermissionRegistry registry = newRegistry("refreshed");
+        setGranted("refreshed", false);
+        PermissionStateCache.invalidate();
+
+        List<String> transitions = new ArrayList<>();
+        PermissionStatePublisher.Subscription subscription =
+                PermissionStatePublisher.subscribe(DIRECT, recording(transitions, "refreshed"));
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(app);
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, registry);
+        activity.permissionHelper = permissionHelper;
+        permissionHelper.startCheckingPermission();
+        Looper.runUntilIdle();
+
+        Collections.sort(transitions);
+        assertEquals("[refreshed0:1, refreshed1:1]", transitions.toString());
+
+        // The user revokes one permission in the app settings, only that one changes when the activity starts.
+        transitions.clear();
+        Context.setPermissionGranted("refreshed1", false);
+        activity.start();
+        assertEquals("[refreshed1:" + PermissionStatePublisher.Transition.REVOKED + "]", transitions.toString());
+
+        transitions.clear();
+        activity.start();
+        assertEquals(0, transitions.size());
+        subscription.unsubscribe();
+        permissionHelper.release();
+    }
+
+    /**
+     * @return Registry of {@link #SIZE} permissions named {@code prefix} and their index.
+     */
+    private static PermissionRegistry newRegistry(String prefix) {
+        PermissionRegistry.Builder builder = new PermissionRegistry.Builder();
+        for (int i = 0; i < SIZE; i++)
+            builder.put(FakeHost.FIRST_ID + i,
+                    new PermissionHelper.PermissionModel(prefix + i, "Title " + i, "Message " + i));
+        return builder.build();
+    }
+
+    private static void setGranted(String prefix, boolean isGranted) {
+        for (int i = 0; i < SIZE; i++)
+            Context.setPermissionGranted(prefix + i, isGranted);
+    }
+
+    /**
+     * @return Subscriber recording the transitions of the permissions of the test, the last states of the others are
+     * delivered too when subscribing.
+     */
+    private static PermissionStatePublisher.Subscriber recording(final List<String> transitions,
+                                                                 final String prefix) {
+        return new PermissionStatePublisher.Subscriber() {
+            @Override
+            public void onPermissionStateChanged(@NonNull String permission, int transition) {
+                if (permission.startsWith(prefix))
+                    transitions.add(permission + ":" + transition);
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+
+import org.junit.Test;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRequest;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the helpers of several activities sharing the system permission dialog, on top of the fake
+ * platform layer.
+ *
+ * @author Half-Blood-Prince
+ */
+public class RequestArbiterTest {
+
+    private static final int SIZE = 1;
+
+    @Test
+    public void hostDestroyedWithoutRelease_doesNotBlockTheNextHelper() {
+        App app = FakeHost.prepareMainThread();
+        FakeHost.grantAll(SIZE, false);
+        PermissionStateCache.invalidate();
+
+        FakeHost.HostActivity finishedActivity = new FakeHost.HostActivity(app);
+        PermissionHelper finishedHelper = PermissionHelper.fromActivity(finishedActivity, FakeHost.newRegistry(SIZE));
+        finishedActivity.permissionHelper = finishedHelper;
+        PermissionRequest lostRequest = finishedHelper.startRequest();
+
+        // Asks for the same permission while the dialog of the first activity is up, so it waits for that dialog.
+        FakeHost.HostActivity activity = new FakeHost.HostActivity(app);
+        PermissionHelper permissionHelper = PermissionHelper.fromActivity(activity, FakeHost.newRegistry(SIZE));
+        activity.permissionHelper = permissionHelper;
+        PermissionRequest request = permissionHelper.startRequest();
+
+        // The first activity finishes before the user answers and its helper is never released.
+        finishedActivity.destroy();
+        Looper.runUntilIdle();
+
+        assertTrue(request.isDone());
+        assertEquals(SIZE, request.getResults().length);
+        assertTrue(request.isAllGranted());
+        assertFalse(lostRequest.isDone());
+        permissionHelper.release();
+    }
+}
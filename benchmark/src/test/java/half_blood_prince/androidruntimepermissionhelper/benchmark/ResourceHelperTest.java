@@ -0,0 +1,39 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.content.res.Configuration;
+
+import org.junit.Test;
+
+import half_blood_prince.androidruntimepermissionhelper.base.ResourceHelper;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for the string cache of {@link ResourceHelper}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class ResourceHelperTest {
+
+    /**
+     * Capacity of the string cache.
+     */
+    private static final int MAX_CACHED_STRINGS = 64;
+
+    @Test
+    public void fullCache_evictsTheLeastRecentlyUsedString() {
+        FakeHost.prepareMainThread();
+        ResourceHelper.onConfigurationChanged(new Configuration());
+        for (int id = 1; id <= MAX_CACHED_STRINGS; id++)
+            ResourceHelper.getString(id);
+        // The smallest id is used again, the next miss must evict the id used the longest ago instead.
+        ResourceHelper.getString(1);
+        ResourceHelper.getString(MAX_CACHED_STRINGS + 1);
+
+        long missCount = ResourceHelper.getCacheMissCount();
+        assertEquals("string/1", ResourceHelper.getString(1));
+        assertEquals(missCount, ResourceHelper.getCacheMissCount());
+        ResourceHelper.getString(2);
+        assertEquals(missCount + 1, ResourceHelper.getCacheMissCount());
+    }
+}
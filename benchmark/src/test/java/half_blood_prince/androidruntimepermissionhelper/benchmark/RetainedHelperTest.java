@@ -0,0 +1,138 @@
+package half_blood_prince.androidruntimepermissionhelper.benchmark;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import half_blood_prince.androidruntimepermissionhelper.App;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionRequest;
+import half_blood_prince.androidruntimepermissionhelper.base.PermissionStateCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the helpers kept across the recreation of their activity, on top of the fake platform layer.
+ *
+ * @author Half-Blood-Prince
+ */
+public class RetainedHelperTest {
+
+    private static final int SIZE = 2;
+
+    private static final String KEY = "helper";
+
+    /**
+     * Tag of the retained fragment keeping the helpers of an activity.
+     */
+    private static final String HOLDER_TAG = "PermissionHelperHolder";
+
+    @Test
+    public void executorResultDuringRecreation_isDeliveredOnceToTheNewHost() throws Exception {
+        App app = FakeHost.prepareMainThread();
+        FakeHost.grantAll(SIZE, true);
+        PermissionStateCache.invalidate();
+        final List<Runnable> executorTasks = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                executorTasks.add(command);
+            }
+        };
+
+        FragmentActivity oldActivity = new FragmentActivity(app);
+        PermissionHelper permissionHelper =
+                PermissionHelper.retainedFromActivity(oldActivity, KEY, FakeHost.newRegistry(SIZE));
+        permissionHelper.setDeliveryMode(PermissionHelper.DeliveryMode.EXECUTOR);
+        permissionHelper.setCallbackExecutor(executor);
+        final List<String> deliveries = new ArrayList<>();
+        permissionHelper.setResultCallback(recording(deliveries, "old"));
+        permissionHelper.startCheckingPermission();
+
+        // The result reaches the executor, which runs it off the main thread once the old host is gone.
+        Fragment holder = oldActivity.getSupportFragmentManager().findFragmentByTag(HOLDER_TAG);
+        holder.onDetach();
+        runOffMainThread(executorTasks);
+
+        FragmentActivity newActivity = recreate(app, holder);
+        PermissionHelper.retainedFromActivity(newActivity, KEY, FakeHost.newRegistry(SIZE))
+                .setResultCallback(recording(deliveries, "new"));
+        Looper.runUntilIdle();
+        runOffMainThread(executorTasks);
+        Looper.runUntilIdle();
+
+        assertEquals("[new:2]", deliveries.toString());
+        holder.onDestroy();
+    }
+
+    @Test
+    public void requestStartedOffMainThreadWhileDetached_runsOnceAttached() throws Exception {
+        App app = FakeHost.prepareMainThread();
+        FakeHost.grantAll(SIZE, true);
+        PermissionStateCache.invalidate();
+
+        FragmentActivity oldActivity = new FragmentActivity(app);
+        final PermissionHelper permissionHelper =
+                PermissionHelper.retainedFromActivity(oldActivity, KEY, FakeHost.newRegistry(SIZE));
+        Fragment holder = oldActivity.getSupportFragmentManager().findFragmentByTag(HOLDER_TAG);
+        holder.onDetach();
+
+        final AtomicReference<PermissionRequest> request = new AtomicReference<>();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                request.set(permissionHelper.startRequest());
+            }
+        });
+        worker.start();
+        worker.join();
+
+        PermissionHelper.retainedFromActivity(recreate(app, holder), KEY, FakeHost.newRegistry(SIZE));
+        Looper.runUntilIdle();
+
+        assertTrue(request.get().isDone());
+        assertEquals(SIZE, request.get().getResults().length);
+        holder.onDestroy();
+    }
+
+    private static FragmentActivity recreate(App app, Fragment holder) {
+        FragmentActivity newActivity = new FragmentActivity(app);
+        newActivity.getSupportFragmentManager().beginTransaction().add(holder, HOLDER_TAG).commitAllowingStateLoss();
+        return newActivity;
+    }
+
+    private static void runOffMainThread(final List<Runnable> tasks) throws InterruptedException {
+        final List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable task : pending)
+                    task.run();
+            }
+        });
+        thread.start();
+        thread.join();
+    }
+
+    private static PermissionHelper.PermissionResultCallback recording(final List<String> deliveries,
+                                                                        final String host) {
+        return new PermissionHelper.PermissionResultCallback() {
+            @Override
+            public void onResult(@NonNull PermissionHelper.PermissionResult... permissionResults) {
+                synchronized (deliveries) {
+                    deliveries.add(host + ":" + permissionResults.length);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package half_blood_prince.androidruntimepermissionhelper.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the method to call when the permission with the given id is denied completely.
+ * <p>
+ * The method must not be private or static, return void and take either no parameter or a single int receiving the
+ * permission id. The call is routed by the generated {@code <Host>_PermissionDispatcher}.
+ *
+ * @author Half-Blood-Prince
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface OnDeniedCompletely {
+
+    /**
+     * @return Id's of the permissions, as registered with the PermissionHelper.
+     */
+    int[] value();
+}
@@ -0,0 +1,217 @@
+package half_blood_prince.androidruntimepermissionhelper.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnDenied;
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnDeniedCompletely;
+import half_blood_prince.androidruntimepermissionhelper.annotations.OnGranted;
+
+/**
+ * Generates a {@code <Host>_PermissionDispatcher} for every class having methods annotated with {@link OnGranted},
+ * {@link OnDenied} or {@link OnDeniedCompletely}.
+ * <p>
+ * The dispatcher implements {@code PermissionHelper.PermissionResultCallback} and routes each result to the annotated
+ * methods of the host through a switch on the result state and the permission id, i.e no reflection and no object
+ * allocated per result. Plug it with {@code <Host>_PermissionDispatcher.bind(permissionHelper, host)}.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionDispatcherProcessor extends AbstractProcessor {
+
+    static final String DISPATCHER_SUFFIX = "_PermissionDispatcher";
+
+    private static final String PERMISSION_HELPER =
+            "half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper";
+
+    private static final String RESULT_STATE = "PermissionHelper.PermissionResult.PermissionResultState.";
+
+    /**
+     * Result states in the order of the switch, along with the annotation routing them.
+     */
+    private static final String[] STATES = {"GRANTED", "DENIED", "DENIED_COMPLETELY"};
+
+    /**
+     * Methods of a host to call for a result state, keyed by the permission id.
+     */
+    private static final class HostMethods {
+
+        final TypeElement host;
+
+        final List<TreeMap<Integer, List<ExecutableElement>>> byState = new ArrayList<>(STATES.length);
+
+        HostMethods(TypeElement host) {
+            this.host = host;
+            for (int i = 0; i < STATES.length; i++)
+                byState.add(new TreeMap<Integer, List<ExecutableElement>>());
+        }
+
+        void add(int state, int[] ids, ExecutableElement method) {
+            for (int id : ids) {
+                List<ExecutableElement> methods = byState.get(state).get(id);
+                if (null == methods) {
+                    methods = new ArrayList<>(1);
+                    byState.get(state).put(id, methods);
+                }
+                methods.add(method);
+            }
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<>();
+        types.add(OnGranted.class.getCanonicalName());
+        types.add(OnDenied.class.getCanonicalName());
+        types.add(OnDeniedCompletely.class.getCanonicalName());
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, HostMethods> hosts = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(OnGranted.class))
+            collect(hosts, element, 0, element.getAnnotation(OnGranted.class).value());
+        for (Element element : roundEnv.getElementsAnnotatedWith(OnDenied.class))
+            collect(hosts, element, 1, element.getAnnotation(OnDenied.class).value());
+        for (Element element : roundEnv.getElementsAnnotatedWith(OnDeniedCompletely.class))
+            collect(hosts, element, 2, element.getAnnotation(OnDeniedCompletely.class).value());
+
+        for (HostMethods hostMethods : hosts.values())
+            writeDispatcher(hostMethods);
+        return true;
+    }
+
+    private void collect(Map<TypeElement, HostMethods> hosts, Element element, int state, int[] ids) {
+        if (element.getKind() != ElementKind.METHOD || !isValid((ExecutableElement) element))
+            return;
+
+        TypeElement host = (TypeElement) element.getEnclosingElement();
+        HostMethods hostMethods = hosts.get(host);
+        if (null == hostMethods) {
+            hostMethods = new HostMethods(host);
+            hosts.put(host, hostMethods);
+        }
+        hostMethods.add(state, ids, (ExecutableElement) element);
+    }
+
+    private boolean isValid(ExecutableElement method) {
+        Set<Modifier> modifiers = method.getModifiers();
+        String error = null;
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC))
+            error = "must not be private or static";
+        else if (method.getReturnType().getKind() != TypeKind.VOID)
+            error = "must return void";
+        else if (method.getParameters().size() > 1 || (method.getParameters().size() == 1
+                && method.getParameters().get(0).asType().getKind() != TypeKind.INT))
+            error = "must take no parameter or a single int permission id";
+
+        if (null != error)
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Permission result method " + error + ".", method);
+        return null == error;
+    }
+
+    private void writeDispatcher(HostMethods hostMethods) {
+        TypeElement host = hostMethods.host;
+        String packageName = processingEnv.getElementUtils().getPackageOf(host).getQualifiedName().toString();
+        String hostName = host.getQualifiedName().toString();
+        String dispatcherName = dispatcherName(host, packageName);
+
+        StringBuilder source = new StringBuilder(1024);
+        source.append("// Generated by PermissionDispatcherProcessor, do not edit.\n");
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("import ").append(PERMISSION_HELPER).append(";\n\n")
+                .append("public final class ").append(dispatcherName)
+                .append(" implements PermissionHelper.PermissionResultCallback {\n\n")
+                .append("    private final ").append(hostName).append(" target;\n\n")
+                .append("    public ").append(dispatcherName).append("(").append(hostName).append(" target) {\n")
+                .append("        this.target = target;\n")
+                .append("    }\n\n")
+                .append("    public static ").append(dispatcherName).append(" bind(PermissionHelper permissionHelper, ")
+                .append(hostName).append(" target) {\n")
+                .append("        ").append(dispatcherName).append(" dispatcher = new ").append(dispatcherName)
+                .append("(target);\n")
+                .append("        permissionHelper.setResultCallback(dispatcher);\n")
+                .append("        return dispatcher;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public void onResult(PermissionHelper.PermissionResult... permissionResults) {\n")
+                .append("        for (int i = 0; i < permissionResults.length; i++)\n")
+                .append("            dispatch(permissionResults[i].getRequestId(), ")
+                .append("permissionResults[i].getResult());\n")
+                .append("    }\n\n")
+                .append("    public void dispatch(int requestId, int resultState) {\n")
+                .append("        switch (resultState) {\n");
+
+        for (int state = 0; state < STATES.length; state++) {
+            TreeMap<Integer, List<ExecutableElement>> methodsById = hostMethods.byState.get(state);
+            if (methodsById.isEmpty())
+                continue;
+
+            source.append("            case ").append(RESULT_STATE).append(STATES[state]).append(":\n")
+                    .append("                switch (requestId) {\n");
+            for (Map.Entry<Integer, List<ExecutableElement>> entry : methodsById.entrySet()) {
+                source.append("                    case 0x").append(Integer.toHexString(entry.getKey()))
+                        .append(":\n");
+                for (ExecutableElement method : entry.getValue()) {
+                    source.append("                        target.").append(method.getSimpleName())
+                            .append(method.getParameters().isEmpty() ? "()" : "(requestId)").append(";\n");
+                }
+                source.append("                        break;\n");
+            }
+            source.append("                }\n")
+                    .append("                break;\n");
+        }
+
+        source.append("        }\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? dispatcherName : packageName + "." + dispatcherName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, host);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write " + qualifiedName + ": " + e.getMessage(), host);
+        }
+    }
+
+    /**
+     * @return Name of the dispatcher, nested hosts are flattened (i.e Outer_Inner_PermissionDispatcher).
+     */
+    private static String dispatcherName(TypeElement host, String packageName) {
+        String name = host.getQualifiedName().toString();
+        if (!packageName.isEmpty())
+            name = name.substring(packageName.length() + 1);
+        return name.replace('.', '_') + DISPATCHER_SUFFIX;
+    }
+}
@@ -0,0 +1,138 @@
+package half_blood_prince.androidruntimepermissionhelper.compiler;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles sample hosts with the processor and checks the generated dispatcher.
+ */
+public class PermissionDispatcherProcessorTest {
+
+    /**
+     * Minimal PermissionHelper exposing what the generated code uses.
+     */
+    private static final String PERMISSION_HELPER = ""
+            + "package half_blood_prince.androidruntimepermissionhelper.base;\n"
+            + "public class PermissionHelper {\n"
+            + "    public PermissionResultCallback callback;\n"
+            + "    public void setResultCallback(PermissionResultCallback callback) { this.callback = callback; }\n"
+            + "    public interface PermissionResultCallback { void onResult(PermissionResult... results); }\n"
+            + "    public static final class PermissionResult {\n"
+            + "        public @interface PermissionResultState {\n"
+            + "            int GRANTED = 1; int DENIED = 2; int DENIED_COMPLETELY = 3;\n"
+            + "        }\n"
+            + "        private final int id, state;\n"
+            + "        public PermissionResult(int id, int state) { this.id = id; this.state = state; }\n"
+            + "        public int getRequestId() { return id; }\n"
+            + "        public int getResult() { return state; }\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String HOST = ""
+            + "package sample;\n"
+            + "import half_blood_prince.androidruntimepermissionhelper.annotations.*;\n"
+            + "public class Host {\n"
+            + "    public final StringBuilder log = new StringBuilder();\n"
+            + "    @OnGranted({0xA0, 0xA1}) void granted(int id) { log.append(\"g\").append(id).append(' '); }\n"
+            + "    @OnGranted(0xA0) void storageGranted() { log.append(\"sg \"); }\n"
+            + "    @OnDenied(0xA1) void denied(int id) { log.append(\"d\").append(id).append(' '); }\n"
+            + "    @OnDeniedCompletely(0xA0) void deniedCompletely() { log.append(\"dc \"); }\n"
+            + "}\n";
+
+    @Test
+    public void dispatchesResultsToAnnotatedMethods() throws Exception {
+        File out = compile(false, "Host", HOST);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{out.toURI().toURL()})) {
+            Class<?> helperClass =
+                    loader.loadClass("half_blood_prince.androidruntimepermissionhelper.base.PermissionHelper");
+            Class<?> hostClass = loader.loadClass("sample.Host");
+            Class<?> dispatcherClass = loader.loadClass("sample.Host_PermissionDispatcher");
+
+            Object helper = helperClass.newInstance();
+            Object host = hostClass.newInstance();
+            Object dispatcher = dispatcherClass.getMethod("bind", helperClass, hostClass).invoke(null, helper, host);
+            assertTrue(dispatcher == helperClass.getField("callback").get(helper));
+
+            java.lang.reflect.Method dispatch = dispatcherClass.getMethod("dispatch", int.class, int.class);
+            dispatch.invoke(dispatcher, 0xA0, 1);
+            dispatch.invoke(dispatcher, 0xA1, 2);
+            dispatch.invoke(dispatcher, 0xA0, 3);
+            dispatch.invoke(dispatcher, 0xA1, 3);
+            dispatch.invoke(dispatcher, 0xB0, 1);
+
+            assertEquals("g160 sg d161 dc ", hostClass.getField("log").get(host).toString());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidMethods() throws Exception {
+        String host = ""
+                + "package sample;\n"
+                + "import half_blood_prince.androidruntimepermissionhelper.annotations.*;\n"
+                + "public class Invalid {\n"
+                + "    @OnGranted(1) private void a() {}\n"
+                + "    @OnDenied(1) int b() { return 0; }\n"
+                + "    @OnDeniedCompletely(1) void c(String s) {}\n"
+                + "}\n";
+        compile(true, "Invalid", host);
+    }
+
+    private static File compile(boolean expectFailure, String hostName, String hostSource) throws IOException {
+        File dir = Files.createTempDirectory("dispatcher").toFile();
+        File src = new File(dir, "src");
+        File out = new File(dir, "out");
+        assertTrue(out.mkdirs());
+
+        List<File> sources = new ArrayList<>();
+        sources.add(write(src, "half_blood_prince/androidruntimepermissionhelper/base/PermissionHelper.java",
+                PERMISSION_HELPER));
+        sources.add(write(src, "sample/" + hostName + ".java", hostSource));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-d", out.getPath(), "-classpath", System.getProperty("java.class.path")),
+                    null, fileManager.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Collections.singletonList(new PermissionDispatcherProcessor()));
+            boolean success = task.call();
+            if (expectFailure) {
+                assertFalse(success);
+                assertEquals(3, diagnostics.getDiagnostics().size());
+            } else {
+                assertTrue(diagnostics.getDiagnostics().toString(), success);
+            }
+        }
+        return out;
+    }
+
+    private static File write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
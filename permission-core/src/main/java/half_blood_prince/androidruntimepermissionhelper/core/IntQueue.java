@@ -0,0 +1,80 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import java.util.NoSuchElementException;
+
+/**
+ * First in first out queue of permission id's on a growable int ring, so the id's are never boxed.
+ * <p>
+ * The ring grows only when the queue is bigger than any queue seen before, a flow reuses it across the runs.
+ *
+ * @author Half-Blood-Prince
+ */
+final class IntQueue {
+
+    private int[] mElements = new int[8];
+
+    /**
+     * Index of the head in {@link #mElements}.
+     */
+    private int mHead;
+
+    private int mSize;
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void add(int element) {
+        if (mSize == mElements.length) {
+            int[] elements = new int[mSize * 2];
+            for (int i = 0; i < mSize; i++)
+                elements[i] = get(i);
+            mElements = elements;
+            mHead = 0;
+        }
+        mElements[(mHead + mSize) & (mElements.length - 1)] = element;
+        mSize++;
+    }
+
+    /**
+     * @return The head of the queue.
+     * @throws NoSuchElementException if the queue is empty.
+     */
+    int peek() {
+        if (mSize == 0)
+            throw new NoSuchElementException();
+        return mElements[mHead];
+    }
+
+    /**
+     * Remove the head of the queue.
+     *
+     * @return The removed head.
+     * @throws NoSuchElementException if the queue is empty.
+     */
+    int poll() {
+        int head = peek();
+        mHead = (mHead + 1) & (mElements.length - 1);
+        mSize--;
+        return head;
+    }
+
+    /**
+     * @param index Index from the head, between 0 and {@link #size()} - 1.
+     * @return The element at the {@code index}.
+     */
+    int get(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        return mElements[(mHead + index) & (mElements.length - 1)];
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+}
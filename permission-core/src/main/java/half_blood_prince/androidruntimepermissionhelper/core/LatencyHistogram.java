@@ -0,0 +1,133 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed power of two buckets, bucket i counts the durations between 2^i and 2^(i+1)
+ * microseconds (the first bucket also counts the shorter ones, the last bucket the longer ones).
+ * <p>
+ * Recording a duration is a few atomic increments on preallocated arrays, nothing is allocated. The histogram can be
+ * read from any thread while it is recorded, the read values may then belong to different samples.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of buckets, the last bucket starts at about 18 minutes.
+     */
+    public static final int BUCKET_COUNT = 31;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSumNanos = new AtomicLong();
+
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param durationNanos Duration in nanoseconds, negative values are recorded as 0.
+     */
+    void record(long durationNanos) {
+        long nanos = Math.max(durationNanos, 0L);
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mSumNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = mMaxNanos.get()) && !mMaxNanos.compareAndSet(max, nanos)) {
+            // Another thread raised the maximum meanwhile, check again.
+        }
+    }
+
+    /**
+     * @return A copy of this histogram, no longer updated.
+     */
+    LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            copy.mBuckets.set(i, mBuckets.get(i));
+        copy.mCount.set(mCount.get());
+        copy.mSumNanos.set(mSumNanos.get());
+        copy.mMaxNanos.set(mMaxNanos.get());
+        return copy;
+    }
+
+    /**
+     * @param durationNanos Duration in nanoseconds.
+     * @return The index of the bucket counting the duration.
+     */
+    static int bucketOf(long durationNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        if (micros <= 1)
+            return 0;
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @param bucket Index of the bucket, between 0 and {@link #BUCKET_COUNT} - 1.
+     * @return The number of durations counted by the bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    /**
+     * @param bucket Index of the bucket, between 0 and {@link #BUCKET_COUNT} - 1.
+     * @return The exclusive upper bound of the bucket in nanoseconds, {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : TimeUnit.MICROSECONDS.toNanos(2L << bucket);
+    }
+
+    /**
+     * @return The mean of the recorded durations in nanoseconds, 0 if nothing is recorded.
+     */
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSumNanos.get() / count;
+    }
+
+    /**
+     * @return The longest recorded duration in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Estimate a percentile as the upper bound of the bucket holding it, capped by the longest recorded duration.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return The estimated percentile in nanoseconds, 0 if nothing is recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount.get();
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0d), 100d) / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank)
+                return Math.min(getBucketUpperBoundNanos(i), mMaxNanos.get());
+        }
+        return mMaxNanos.get();
+    }
+}
@@ -0,0 +1,1115 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State machine checking and requesting a {@link PermissionSet}, one run after the other.
+ * <p>
+ * A run checks every permission of the set. The granted permissions are resolved right away, the others are requested
+ * one by one through the {@link PermissionRequestArbiter}, showing the rationale message first when the user denied
+ * the permission previously. In batch mode the remaining permissions are requested together in a single request
+ * using {@link #BATCH_REQUEST_CODE}. The result of a run holding a single permission is reported through {@link
+ * Listener#onSingleResult(Object, int, int)}, the result of a bigger run through {@link
+ * Listener#onGroupResult(Object, PermissionGroupResult)}.
+ * <p>
+ * Runs can be submitted from any thread, the rest of this class must be used on the confined executor only. Nothing
+ * here depends on Android, the platform is reached through {@link PermissionPlatform}. Every state transition is
+ * written to the {@link PermissionJournal}.
+ * <p>
+ * With a {@link PermissionHistory} the permissions the user denied completely in an earlier run, even in an earlier
+ * process, are resolved as {@link ResultState#DENIED_COMPLETELY} without asking the system again.
+ * <p>
+ * The run in progress can be saved as an int array through {@link #saveRunState()} and resumed in a new process
+ * through {@link #restoreRunState(int[], Object)}, the permissions already decided are not asked again.
+ * <p>
+ * The permissions are checked in the order of the set, or in the order of the {@link PermissionSchedule} which also
+ * skips the permissions whose prerequisites are not granted and the optional permissions the user denied.
+ * <p>
+ * With a coalescing window the runs submitted shortly after the start of the run in progress, e.g by a double tap,
+ * join it instead of checking and asking everything again, see {@link #setCoalescingWindow(long)}.
+ *
+ * @param <T> Type of the token identifying a run.
+ * @author Half-Blood-Prince
+ */
+public final class PermissionFlow<T> {
+
+    /**
+     * Request code used when all the pending permissions are requested together in batch mode.
+     * <p>
+     * Note * Make sure none of the permission id's uses this value.
+     *
+     * @see #setBatchRequestEnabled(boolean)
+     */
+    public static final int BATCH_REQUEST_CODE = 0xFFFF;
+
+    /**
+     * Version of the layout of {@link #saveRunState()}.
+     */
+    private static final int RUN_STATE_VERSION = 1;
+
+    private static final int RUN_STATE_FLAG_GROUP = 0x01;
+
+    private static final int RUN_STATE_FLAG_BATCH = 0x02;
+
+    /**
+     * Request code of no request.
+     */
+    private static final int NO_REQUEST_CODE = -1;
+
+    /**
+     * Every prerequisite of the permission in the set is granted, or it has none.
+     */
+    private static final int PREREQUISITES_GRANTED = 0;
+
+    /**
+     * A prerequisite of the permission is not resolved yet.
+     */
+    private static final int PREREQUISITES_PENDING = 1;
+
+    /**
+     * A prerequisite of the permission is not granted.
+     */
+    private static final int PREREQUISITES_DENIED = 2;
+
+    /**
+     * Receives the results of the runs, called on the confined executor.
+     *
+     * @param <T> Type of the token identifying a run.
+     */
+    public interface Listener<T> {
+
+        /**
+         * Called for every permission resolved, in the batch mode as well, before the result of the run is reported.
+         * The results restored by {@link #restoreRunState(int[], Object)} are reported again in the new process.
+         *
+         * @param permissionId Permission id uniquely identifying the permission.
+         * @param resultState  The Result of the permission.
+         */
+        void onPermissionResolved(int permissionId, @ResultState int resultState);
+
+        /**
+         * Called at the end of a run holding a single permission.
+         *
+         * @param token        Token the run is submitted with.
+         * @param permissionId Permission id uniquely identifying the permission.
+         * @param resultState  The Result of the permission.
+         */
+        void onSingleResult(@NonNull T token, int permissionId, @ResultState int resultState);
+
+        /**
+         * Called at the end of a run holding more than one permission.
+         *
+         * @param token       Token the run is submitted with.
+         * @param groupResult Result of every permission of the run, valid until the end of the next run.
+         */
+        void onGroupResult(@NonNull T token, @NonNull PermissionGroupResult groupResult);
+
+        /**
+         * Called at the end of a run of an empty set.
+         *
+         * @param token Token the run is submitted with.
+         */
+        void onEmptyRun(@NonNull T token);
+
+        /**
+         * Called when a run joins the run in progress instead of being started, its token shares the result reported
+         * with the token of the run in progress.
+         *
+         * @param token Token the joining run is submitted with.
+         * @see #setCoalescingWindow(long)
+         */
+        void onRunJoined(@NonNull T token);
+    }
+
+    private static final AtomicInteger sNextFlowId = new AtomicInteger();
+
+    /**
+     * Id of this flow in the {@link PermissionJournal}.
+     */
+    private final int mFlowId = sNextFlowId.incrementAndGet();
+
+    private final PermissionSet mPermissions;
+
+    private final PermissionPlatform mPlatform;
+
+    private final Listener<T> mListener;
+
+    /**
+     * Serializes the runs submitted through {@link #submit(Object)}, which can be called from any thread.
+     */
+    private final PermissionRunQueue<T> mRunQueue;
+
+    /**
+     * Token of the run in progress.
+     */
+    private T mCurrentToken;
+
+    /**
+     * Queue to process the pending permission.
+     */
+    private final IntQueue mQueue = new IntQueue();
+
+    /**
+     * Holds the requested id and the result of all the permission processed in the current run, allocated by the
+     * first run so creating the flow does not depend on the size of the set.
+     */
+    private PermissionGroupResult mGroupResult;
+
+    /**
+     * Group result handed over in the previous run, swapped with {@link #mGroupResult} at the end of every run so the
+     * arrays are reused across the runs.
+     */
+    private PermissionGroupResult mSpareGroupResult;
+
+    /**
+     * Flag is used to determine whether a group of permission requested or single permission requested.
+     */
+    private boolean isGroupOfPermissionRequested;
+
+    /**
+     * Flag is used to determine whether the pending permissions are requested together in a single system request.
+     */
+    private volatile boolean isBatchRequestEnabled;
+
+    /**
+     * Runs submitted within this delay from the start of the run in progress join it, 0 to disable.
+     */
+    private volatile long mCoalescingWindowNanos;
+
+    /**
+     * Whether the run in progress requests its permissions together.
+     */
+    private boolean isBatchRun;
+
+    /**
+     * Request code of the system request in flight, {@link #NO_REQUEST_CODE} if none.
+     */
+    private int mSystemRequestCode = NO_REQUEST_CODE;
+
+    /**
+     * Schedule of the next runs, null to check the permissions in the order of the set.
+     */
+    private volatile PermissionSchedule mSchedule;
+
+    /**
+     * Schedule of the run in progress.
+     */
+    private PermissionSchedule mRunSchedule;
+
+    /**
+     * Indexes of the set in the order of {@link #mOrderSchedule}, computed once per schedule.
+     */
+    private int[] mOrder;
+
+    private PermissionSchedule mOrderSchedule;
+
+    /**
+     * {@link ResultState} of every permission of the run by index of the set, 0 while not resolved.
+     */
+    private int[] mResolvedStates;
+
+    /**
+     * Saved state of the run to resume instead of starting a new run, null if none.
+     */
+    private int[] mRestoredRunState;
+
+    /**
+     * List holds the requested id of all the permission sent together with {@link #BATCH_REQUEST_CODE} and waiting
+     * for the result.
+     */
+    private final IntQueue mBatchRequestedPermission = new IntQueue();
+
+    /**
+     * List holds the requested id of the batch permissions to send to the system, i.e the permissions which need no
+     * rationale message or for which the user accepted the rationale message.
+     */
+    private final IntQueue mBatchAcceptedPermission = new IntQueue();
+
+    /**
+     * Arbiter owning the system permission dialog.
+     */
+    private final PermissionRequestArbiter mRequestArbiter = PermissionRequestArbiter.getInstance();
+
+    /**
+     * Journal to write the state transitions to, null when disabled.
+     */
+    private volatile PermissionJournal mJournal = PermissionJournal.getInstance();
+
+    /**
+     * History to record the results into and to resolve the known outcomes from, null when disabled.
+     */
+    private volatile PermissionHistory mHistory;
+
+    /**
+     * Metrics to record the runs into, null when the metrics are disabled.
+     */
+    private volatile PermissionMetrics mMetrics;
+
+    /**
+     * Metrics of the run in progress, null when the metrics are disabled.
+     */
+    private PermissionMetrics mRunMetrics;
+
+    /**
+     * Start of the run in progress.
+     */
+    private long mRunStartNanos;
+
+    /**
+     * Start of the system request in flight, 0 if none.
+     */
+    private long mRequestStartNanos;
+
+    /**
+     * Start of the rationale message shown, 0 if none.
+     */
+    private long mRationaleStartNanos;
+
+    /**
+     * Requester used by this flow to ask the user through {@link #mRequestArbiter}.
+     */
+    private final PermissionRequestArbiter.Requester mRequester = new PermissionRequestArbiter.Requester() {
+        @Override
+        public void performRequest(int requestCode, @NonNull String[] permissions) {
+            if (requestCode == BATCH_REQUEST_CODE)
+                performBatchRequest();
+            else
+                PermissionFlow.this.performRequest(requestCode, permissions);
+        }
+
+        @Override
+        public void onArbitratedResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            PermissionFlow.this.onArbitratedResult(requestCode, permissions, grantResults);
+        }
+
+        @Override
+        public boolean isAlive() {
+            return mPlatform.isHostAlive();
+        }
+    };
+
+    /**
+     * @param confinedExecutor Executor running the tasks one after the other on the thread owning the state, i.e the
+     *                         main thread.
+     * @param permissions      Permissions to check and request with their corresponding id.
+     * @param platform         Platform checking, explaining and requesting the permissions.
+     * @param listener         Listener receiving the results.
+     */
+    public PermissionFlow(@NonNull Executor confinedExecutor, @NonNull PermissionSet permissions,
+                          @NonNull PermissionPlatform platform, @NonNull Listener<T> listener) {
+        mPermissions = permissions;
+        mPlatform = platform;
+        mListener = listener;
+        mRunQueue = new PermissionRunQueue<>(confinedExecutor, new PermissionRunQueue.Runner<T>() {
+            @Override
+            public boolean joinRun(@NonNull T token) {
+                return PermissionFlow.this.joinRun(token);
+            }
+
+            @Override
+            public void startRun(@NonNull T token) {
+                mCurrentToken = token;
+                int[] restoredRunState = mRestoredRunState;
+                mRestoredRunState = null;
+                if (null != restoredRunState)
+                    resumeRun(restoredRunState);
+                else
+                    PermissionFlow.this.startRun();
+            }
+        });
+    }
+
+    /**
+     * Enable or disable the batch mode, takes effect from the next run holding more than one permission.
+     *
+     * @param batchRequestEnabled true to request all the pending permissions together, false to request them one by
+     *                            one (default).
+     */
+    @AnyThread
+    public void setBatchRequestEnabled(boolean batchRequestEnabled) {
+        isBatchRequestEnabled = batchRequestEnabled;
+    }
+
+    /**
+     * Coalesce the repeated submissions, e.g of a double tap: a run submitted within the {@code windowMillis} from the
+     * start of the run in progress joins it, see {@link Listener#onRunJoined(Object)}. The later runs wait for their
+     * turn and check everything again.
+     *
+     * @param windowMillis Window in milliseconds, 0 to start every run submitted (default).
+     */
+    @AnyThread
+    public void setCoalescingWindow(long windowMillis) {
+        if (windowMillis < 0)
+            throw new IllegalArgumentException("Negative coalescing window " + windowMillis);
+        mCoalescingWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * Record the timings and the results of the runs into the {@code metrics}, takes effect from the next run.
+     *
+     * @param metrics Metrics to record into, null to disable the metrics (default).
+     */
+    @AnyThread
+    public void setMetrics(@Nullable PermissionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Write the state transitions to the {@code journal} instead of the process wide {@link
+     * PermissionJournal#getInstance()}.
+     *
+     * @param journal Journal to write to, null to disable the journal.
+     */
+    @AnyThread
+    public void setJournal(@Nullable PermissionJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Record the requests and the results into the {@code history}, and resolve the permissions it knows as denied
+     * completely without asking the system. Takes effect from the next check.
+     *
+     * @param history History to use, null to disable the history (default).
+     */
+    @AnyThread
+    public void setHistory(@Nullable PermissionHistory history) {
+        mHistory = history;
+    }
+
+    /**
+     * Check the permissions in the order of the {@code schedule}, skipping the dependents of the permissions not
+     * granted and the optional permissions the user denied. Takes effect from the next run.
+     *
+     * @param schedule Schedule to follow, null to check the permissions in the order of the set (default).
+     */
+    @AnyThread
+    public void setSchedule(@Nullable PermissionSchedule schedule) {
+        mSchedule = schedule;
+    }
+
+    /**
+     * Submit a run, it is started on the confined executor once the runs submitted before it are finished. Within the
+     * coalescing window of the run in progress it joins the run instead.
+     *
+     * @param token Token identifying the run, passed back to the {@link Listener}.
+     */
+    @AnyThread
+    public void submit(@NonNull T token) {
+        journal(PermissionJournal.Event.QUEUED, PermissionJournal.NO_PERMISSION_ID, 0);
+        mRunQueue.submit(token);
+    }
+
+    /**
+     * Same as {@link #submit(Object)}, called on the confined executor while it runs the tasks right away. The run is
+     * not queued when no run is waiting, see {@link PermissionRunQueue#submitConfined(Object)}.
+     *
+     * @param token Token identifying the run, passed back to the {@link Listener}.
+     */
+    public void submitConfined(@NonNull T token) {
+        journal(PermissionJournal.Event.QUEUED, PermissionJournal.NO_PERMISSION_ID, 0);
+        mRunQueue.submitConfined(token);
+    }
+
+    /**
+     * Release this flow, the pending requests are dropped.
+     */
+    public void release() {
+        journal(PermissionJournal.Event.RELEASED, PermissionJournal.NO_PERMISSION_ID, 0);
+        mRequestArbiter.cancel(mRequester);
+    }
+
+    /**
+     * Save the run in progress: whether it is a group or a batch run, the system request in flight, the results so far
+     * and the permissions left, as a compact int array to keep in the saved state of the host. The runs submitted
+     * after it are not saved.
+     *
+     * @return The state of the run in progress, null if no run is in progress.
+     */
+    @Nullable
+    public int[] saveRunState() {
+        if (null == mCurrentToken)
+            return null;
+
+        PermissionGroupResult result = mGroupResult;
+        int resultCount = null == result ? 0 : result.size();
+        IntQueue pending = isBatchRun ? mBatchRequestedPermission : mQueue;
+        int[] state = new int[5 + 2 * resultCount + pending.size()];
+        int position = 0;
+        state[position++] = RUN_STATE_VERSION;
+        state[position++] = (isGroupOfPermissionRequested ? RUN_STATE_FLAG_GROUP : 0)
+                | (isBatchRun ? RUN_STATE_FLAG_BATCH : 0);
+        state[position++] = mSystemRequestCode;
+        state[position++] = resultCount;
+        for (int i = 0; i < resultCount; i++) {
+            state[position++] = result.getRequestId(i);
+            state[position++] = result.getResult(i);
+        }
+        state[position++] = pending.size();
+        for (int i = 0; i < pending.size(); i++)
+            state[position++] = pending.get(i);
+        return state;
+    }
+
+    /**
+     * Resume a run saved through {@link #saveRunState()}, e.g by the previous process. The run is submitted like
+     * {@link #submit(Object)} and goes on where it stopped: when a system request was in flight its result is
+     * awaited through {@link #onRequestPermissionsResult(int, String[], int[])}, otherwise the current permission is
+     * checked again. The results saved are kept and the permissions already decided are not asked again.
+     *
+     * @param runState State returned by {@link #saveRunState()}.
+     * @param token    Token identifying the resumed run, passed back to the {@link Listener}.
+     * @return false if the state is not valid for the set of this flow or a run is already in progress, e.g the
+     * flow itself survived, nothing is resumed then.
+     */
+    public boolean restoreRunState(@NonNull int[] runState, @NonNull T token) {
+        if (mRunQueue.isRunning() || null != mRestoredRunState || !isValidRunState(runState))
+            return false;
+
+        mRestoredRunState = runState;
+        submit(token);
+        return true;
+    }
+
+    private boolean isValidRunState(int[] state) {
+        if (state.length < 5 || state[0] != RUN_STATE_VERSION)
+            return false;
+        int resultCount = state[3];
+        if (resultCount < 0 || resultCount > mPermissions.size() || 5 + 2 * resultCount > state.length)
+            return false;
+        int position = 4;
+        for (int i = 0; i < resultCount; i++, position += 2) {
+            if (mPermissions.indexOf(state[position]) < 0 || state[position + 1] < ResultState.GRANTED
+                    || state[position + 1] > ResultState.DENIED_COMPLETELY)
+                return false;
+        }
+        int pendingCount = state[position++];
+        // Only a batch run not requested yet has nothing pending, the batch is checked again.
+        if (pendingCount < 0 || position + pendingCount != state.length
+                || (pendingCount == 0 && (state[1] & RUN_STATE_FLAG_BATCH) == 0))
+            return false;
+        for (; position < state.length; position++) {
+            if (mPermissions.indexOf(state[position]) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Handle the result of a request made through {@link PermissionPlatform#requestPermissions(String[], int)}. The
+     * result of any other request, e.g of another helper of the same activity, is ignored.
+     *
+     * @param requestCode  Request code of the request, i.e the permission id or {@link #BATCH_REQUEST_CODE}.
+     * @param permissions  The requested permissions.
+     * @param grantResults The grant results for the corresponding permissions.
+     */
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        if (mSystemRequestCode == NO_REQUEST_CODE || requestCode != mSystemRequestCode)
+            return;
+
+        if (null != mRunMetrics && 0 != mRequestStartNanos) {
+            mRunMetrics.recordTiming(PermissionMetrics.Metric.REQUEST_LATENCY, requestCode,
+                    System.nanoTime() - mRequestStartNanos);
+            mRequestStartNanos = 0;
+        }
+        journal(PermissionJournal.Event.RESULT, requestCode, countGranted(grantResults));
+        mSystemRequestCode = NO_REQUEST_CODE;
+        if (!mRequestArbiter.onRequestPermissionsResult(mRequester, requestCode, permissions, grantResults))
+            onArbitratedResult(requestCode, permissions, grantResults);
+    }
+
+    /**
+     * Start a single run checking all the permissions, called once the previous run is finished.
+     */
+    private void startRun() {
+        prepareRun();
+
+        int size = mPermissions.size();
+        isGroupOfPermissionRequested = size > 1;
+        isBatchRun = isGroupOfPermissionRequested && isBatchRequestEnabled && mPlatform.isRuntimePermissionModel();
+        if (isBatchRun) {
+            journal(PermissionJournal.Event.STARTED, PermissionJournal.NO_PERMISSION_ID, 1);
+            startBatchRequest();
+            return;
+        }
+        journal(PermissionJournal.Event.STARTED, PermissionJournal.NO_PERMISSION_ID, 0);
+        for (int position = 0; position < size; position++)
+            mQueue.add(mPermissions.idAt(indexAt(position)));
+        if (!mQueue.isEmpty()) {
+            checkPermission(mQueue.peek());
+        } else {
+            T token = mCurrentToken;
+            mCurrentToken = null;
+            journal(PermissionJournal.Event.DISPATCHED, PermissionJournal.NO_PERMISSION_ID, 0);
+            mListener.onEmptyRun(token);
+            mRunQueue.onRunFinished();
+        }
+    }
+
+    /**
+     * Join the run in progress when submitted within the coalescing window.
+     *
+     * @param token Token of the joining run.
+     * @return true if joined.
+     */
+    private boolean joinRun(T token) {
+        long window = mCoalescingWindowNanos;
+        if (0 == window || System.nanoTime() - mRunStartNanos > window)
+            return false;
+
+        journal(PermissionJournal.Event.JOINED, PermissionJournal.NO_PERMISSION_ID, 0);
+        mListener.onRunJoined(token);
+        return true;
+    }
+
+    /**
+     * Prepare the metrics, the results and the schedule of a new or a restored run.
+     */
+    private void prepareRun() {
+        mRunMetrics = mMetrics;
+        mRunStartNanos = System.nanoTime();
+
+        int size = mPermissions.size();
+        if (null == mGroupResult) {
+            mGroupResult = new PermissionGroupResult(size);
+            mSpareGroupResult = new PermissionGroupResult(size);
+            mResolvedStates = new int[size];
+        } else {
+            Arrays.fill(mResolvedStates, 0);
+        }
+
+        mRunSchedule = mSchedule;
+        if (null != mRunSchedule && mRunSchedule != mOrderSchedule) {
+            mOrder = mRunSchedule.order(mPermissions);
+            mOrderSchedule = mRunSchedule;
+        }
+    }
+
+    /**
+     * @param position Position in the order of the run.
+     * @return The index in the set of the permission checked at the {@code position}.
+     */
+    private int indexAt(int position) {
+        return null == mRunSchedule ? position : mOrder[position];
+    }
+
+    /**
+     * Resume a saved run, see {@link #restoreRunState(int[], Object)}.
+     *
+     * @param state The valid saved state of the run.
+     */
+    private void resumeRun(int[] state) {
+        prepareRun();
+
+        int position = 1;
+        int flags = state[position++];
+        int systemRequestCode = state[position++];
+        isGroupOfPermissionRequested = (flags & RUN_STATE_FLAG_GROUP) != 0;
+        isBatchRun = (flags & RUN_STATE_FLAG_BATCH) != 0;
+        journal(PermissionJournal.Event.STARTED, PermissionJournal.NO_PERMISSION_ID, (isBatchRun ? 1 : 0) | 2);
+
+        int resultCount = state[position++];
+        for (int i = 0; i < resultCount; i++, position += 2) {
+            mGroupResult.add(state[position], state[position + 1]);
+            mResolvedStates[mPermissions.indexOf(state[position])] = state[position + 1];
+            mListener.onPermissionResolved(state[position], state[position + 1]);
+        }
+        int pendingCount = state[position++];
+
+        if (isBatchRun) {
+            if (systemRequestCode == BATCH_REQUEST_CODE) {
+                // The result of the batch request is delivered to the new process.
+                for (int i = 0; i < pendingCount; i++)
+                    mBatchRequestedPermission.add(state[position + i]);
+                mSystemRequestCode = BATCH_REQUEST_CODE;
+            } else {
+                // Nothing was asked yet, checking the rest of the batch again is free of any dialog.
+                startBatchRequest();
+            }
+            return;
+        }
+
+        for (int i = 0; i < pendingCount; i++)
+            mQueue.add(state[position + i]);
+        if (mQueue.isEmpty()) {
+            // A valid state always has a pending permission, end the run rather than peeking an empty queue.
+            dispatchGroupResult();
+        } else if (systemRequestCode == mQueue.peek()) {
+            // The result of the request is delivered to the new process.
+            mSystemRequestCode = systemRequestCode;
+        } else {
+            checkPermission(mQueue.peek());
+        }
+    }
+
+    /**
+     * @return The permission string of the id, null if the id is not in the set.
+     */
+    private String permissionOf(int permissionID) {
+        int index = mPermissions.indexOf(permissionID);
+        return index < 0 ? null : mPermissions.permissionAt(index);
+    }
+
+    /**
+     * This method checks whether this permission is granted or denied, if not granted it will ask request the
+     * permission.
+     *
+     * @param permissionID Unique permission id of the set.
+     */
+    private void checkPermission(int permissionID) {
+        boolean isGranted = !mPlatform.isRuntimePermissionModel() || mPlatform.isGranted(permissionOf(permissionID));
+        journal(PermissionJournal.Event.CHECKED, permissionID, isGranted ? 1 : 0);
+        if (isGranted) {
+            notifyResult(permissionID, ResultState.GRANTED);
+            return;
+        }
+        if (isKnownDeniedCompletely(permissionOf(permissionID))) {
+            notifyResult(permissionID, ResultState.DENIED_COMPLETELY);
+            return;
+        }
+        if (checkPrerequisites(permissionID) == PREREQUISITES_DENIED) {
+            journal(PermissionJournal.Event.SKIPPED, permissionID, PermissionJournal.SKIPPED_PREREQUISITE);
+            notifyResult(permissionID, ResultState.DENIED);
+            return;
+        }
+        if (isDeclinedOptional(permissionID, permissionOf(permissionID))) {
+            journal(PermissionJournal.Event.SKIPPED, permissionID, PermissionJournal.SKIPPED_OPTIONAL);
+            notifyResult(permissionID, ResultState.DENIED);
+            return;
+        }
+
+        requestPermission(permissionID);
+    }
+
+    /**
+     * @param permissionID Permission id of the set.
+     * @return {@link #PREREQUISITES_DENIED} if a prerequisite in the set is resolved but not granted, else {@link
+     * #PREREQUISITES_PENDING} if a prerequisite is not resolved yet, else {@link #PREREQUISITES_GRANTED}.
+     */
+    private int checkPrerequisites(int permissionID) {
+        PermissionSchedule schedule = mRunSchedule;
+        if (null == schedule)
+            return PREREQUISITES_GRANTED;
+
+        int result = PREREQUISITES_GRANTED;
+        for (int prerequisiteId : schedule.getPrerequisites(permissionID)) {
+            int index = mPermissions.indexOf(prerequisiteId);
+            if (index < 0)
+                continue;
+            if (mResolvedStates[index] == 0)
+                result = PREREQUISITES_PENDING;
+            else if (mResolvedStates[index] != ResultState.GRANTED)
+                return PREREQUISITES_DENIED;
+        }
+        return result;
+    }
+
+    /**
+     * Whether the permission is optional and the user denied it previously, i.e it would need the rationale message.
+     * Such a permission is not asked again.
+     *
+     * @param permissionID Permission id of the set.
+     * @param permission   The permission string of the id, not granted.
+     */
+    private boolean isDeclinedOptional(int permissionID, String permission) {
+        PermissionSchedule schedule = mRunSchedule;
+        return null != schedule && null != permission && schedule.isOptional(permissionID)
+                && mPlatform.shouldShowRationale(permission);
+    }
+
+    /**
+     * Whether the user denied the permission completely according to the history. The system answers such a request
+     * right away with a denial, skipping it saves the round trip through the host.
+     * <p>
+     * The platform not asking for the rationale message is not enough: a permission reset outside of the app looks
+     * the same until it is asked. So the denial is trusted only once a request answered it in this process, see {@link
+     * PermissionHistory#isLastStateConfirmed(String)}, every new process lets one request through.
+     *
+     * @param permission The permission string, not granted.
+     * @return true if the permission can be resolved as {@link ResultState#DENIED_COMPLETELY} without a request.
+     */
+    private boolean isKnownDeniedCompletely(String permission) {
+        PermissionHistory history = mHistory;
+        return null != history && null != permission
+                && history.getLastState(permission) == ResultState.DENIED_COMPLETELY
+                && history.isLastStateConfirmed(permission)
+                && !mPlatform.shouldShowRationale(permission);
+    }
+
+    /**
+     * Request the permission through the {@link PermissionRequestArbiter}, the user is asked when it is the turn of
+     * this request.
+     *
+     * @param permissionID Corresponding permissionID for the permission to request.
+     */
+    private void requestPermission(int permissionID) {
+        String permission = permissionOf(permissionID);
+        if (null != permission)
+            mRequestArbiter.request(mRequester, permissionID, new String[]{permission});
+    }
+
+    /**
+     * It is the turn of this flow to ask the user for the permission, show the rationale message if the user denied
+     * the permission previously and then request it. Declining the rationale message is reported as denied.
+     *
+     * @param permissionID Corresponding permissionID for the permission to request.
+     * @param permissions  Single element array holding the permission to request.
+     */
+    private void performRequest(final int permissionID, @NonNull final String[] permissions) {
+        if (mPlatform.shouldShowRationale(permissions[0])) {
+            showRationale(permissionID, new PermissionPlatform.RationaleCallback() {
+                @Override
+                public void onRationaleResult(boolean accepted) {
+                    onRationaleAnswered(permissionID, accepted);
+                    if (accepted)
+                        requestSystemPermissions(permissions, permissionID);
+                    else
+                        onRationaleDeclined(permissionID);
+                }
+            });
+        } else {
+            requestSystemPermissions(permissions, permissionID);
+        }
+    }
+
+    /**
+     * Resolve the already granted permissions and collect the rest of the permissions ready to request together. The
+     * group result is dispatched once every permission is resolved.
+     */
+    private void startBatchRequest() {
+        // Permissions resolved without a request make their dependents ready, collect them right away.
+        while (mBatchRequestedPermission.isEmpty() && mGroupResult.size() < mPermissions.size()) {
+            if (!collectBatch())
+                break;
+        }
+
+        int size = mBatchRequestedPermission.size();
+        if (size == 0) {
+            dispatchGroupResult();
+            return;
+        }
+
+        String[] permissions = new String[size];
+        for (int i = 0; i < size; i++)
+            permissions[i] = permissionOf(mBatchRequestedPermission.get(i));
+        mRequestArbiter.request(mRequester, BATCH_REQUEST_CODE, permissions);
+    }
+
+    /**
+     * Resolve the permissions not resolved yet which need no request and collect the rest into {@link
+     * #mBatchRequestedPermission}, except the permissions waiting for a prerequisite left to the next batch.
+     *
+     * @return false if nothing is resolved or collected.
+     */
+    private boolean collectBatch() {
+        boolean isCollected = false;
+        for (int position = 0; position < mPermissions.size(); position++) {
+            int index = indexAt(position);
+            if (mResolvedStates[index] != 0)
+                continue;
+            int permissionID = mPermissions.idAt(index);
+            int prerequisites = checkPrerequisites(permissionID);
+            if (prerequisites == PREREQUISITES_PENDING)
+                continue;
+
+            isCollected = true;
+            String permission = mPermissions.permissionAt(index);
+            if (mPlatform.isGranted(permission)) {
+                addGroupResult(permissionID, ResultState.GRANTED);
+            } else if (isKnownDeniedCompletely(permission)) {
+                addGroupResult(permissionID, ResultState.DENIED_COMPLETELY);
+            } else if (prerequisites == PREREQUISITES_DENIED) {
+                journal(PermissionJournal.Event.SKIPPED, permissionID, PermissionJournal.SKIPPED_PREREQUISITE);
+                addGroupResult(permissionID, ResultState.DENIED);
+            } else if (isDeclinedOptional(permissionID, permission)) {
+                journal(PermissionJournal.Event.SKIPPED, permissionID, PermissionJournal.SKIPPED_OPTIONAL);
+                addGroupResult(permissionID, ResultState.DENIED);
+            } else {
+                mBatchRequestedPermission.add(permissionID);
+            }
+        }
+        return isCollected;
+    }
+
+    /**
+     * It is the turn of this flow to ask the user for the batch, queue the permissions which need the rationale
+     * message and explain them before requesting.
+     */
+    private void performBatchRequest() {
+        mBatchAcceptedPermission.clear();
+        for (int i = 0; i < mBatchRequestedPermission.size(); i++) {
+            int permissionID = mBatchRequestedPermission.get(i);
+            if (mPlatform.shouldShowRationale(permissionOf(permissionID)))
+                mQueue.add(permissionID);
+            else
+                mBatchAcceptedPermission.add(permissionID);
+        }
+        explainNextBatchPermission();
+    }
+
+    /**
+     * Show the rationale message for the queued permission one after the other, once the queue is empty all the
+     * accepted permissions are requested together.
+     */
+    private void explainNextBatchPermission() {
+        if (mQueue.isEmpty()) {
+            requestBatchPermission();
+            return;
+        }
+
+        final int permissionID = mQueue.peek();
+        showRationale(permissionID, new PermissionPlatform.RationaleCallback() {
+            @Override
+            public void onRationaleResult(boolean accepted) {
+                onRationaleAnswered(permissionID, accepted);
+                if (accepted)
+                    mBatchAcceptedPermission.add(permissionID);
+
+                mQueue.poll();
+                explainNextBatchPermission();
+            }
+        });
+    }
+
+    /**
+     * Request all the accepted permissions in a single system request, if nothing left to request every permission of
+     * the batch is reported as denied right away.
+     */
+    private void requestBatchPermission() {
+        int size = mBatchAcceptedPermission.size();
+        if (size == 0) {
+            onRationaleDeclined(BATCH_REQUEST_CODE);
+            return;
+        }
+
+        String[] permissions = new String[size];
+        for (int i = 0; i < size; i++)
+            permissions[i] = permissionOf(mBatchAcceptedPermission.get(i));
+        mBatchAcceptedPermission.clear();
+
+        requestSystemPermissions(permissions, BATCH_REQUEST_CODE);
+    }
+
+    /**
+     * Map the result of the batch request back to the permission id's and go on with the next batch, or dispatch the
+     * group result.
+     * <p>
+     * Permissions missing in the result (i.e the rationale message is declined or the request is interrupted) are
+     * treated as denied. The search of a permission starts after the previous match, the results in the order of the
+     * request are mapped in a single pass.
+     *
+     * @param permissions  The requested permissions.
+     * @param grantResults The grant results for the corresponding permissions.
+     */
+    private void onBatchPermissionsResult(@NonNull String[] permissions, @NonNull int[] grantResults) {
+        int count = Math.min(permissions.length, grantResults.length);
+        int cursor = 0;
+        for (int position = 0; position < mBatchRequestedPermission.size(); position++) {
+            int permissionID = mBatchRequestedPermission.get(position);
+            String permission = permissionOf(permissionID);
+            boolean isGranted = false;
+            for (int step = 0; step < count; step++) {
+                int i = (cursor + step) % count;
+                if (permissions[i].equals(permission)) {
+                    isGranted = grantResults[i] == PermissionPlatform.PERMISSION_GRANTED;
+                    cursor = i + 1;
+                    break;
+                }
+            }
+
+            if (isGranted)
+                addGroupResult(permissionID, ResultState.GRANTED);
+            else if (mPlatform.shouldShowRationale(permission))
+                addGroupResult(permissionID, ResultState.DENIED);
+            else
+                addGroupResult(permissionID, ResultState.DENIED_COMPLETELY);
+        }
+        mBatchRequestedPermission.clear();
+        startBatchRequest();
+    }
+
+    /**
+     * Ask the platform for the permissions, starting the request latency clock when the metrics are enabled.
+     */
+    private void requestSystemPermissions(String[] permissions, int requestCode) {
+        journal(PermissionJournal.Event.REQUESTED, requestCode, permissions.length);
+        PermissionHistory history = mHistory;
+        if (null != history)
+            history.recordRequest(permissions);
+        if (null != mRunMetrics)
+            mRequestStartNanos = System.nanoTime();
+        mSystemRequestCode = requestCode;
+        mPlatform.requestPermissions(permissions, requestCode);
+    }
+
+    /**
+     * Show the rationale message, starting the dwell time clock when the metrics are enabled.
+     */
+    private void showRationale(int permissionID, PermissionPlatform.RationaleCallback callback) {
+        journal(PermissionJournal.Event.RATIONALE_SHOWN, permissionID, 0);
+        if (null != mRunMetrics)
+            mRationaleStartNanos = System.nanoTime();
+        mPlatform.showRationale(permissionID, callback);
+    }
+
+    private void onRationaleAnswered(int permissionID, boolean accepted) {
+        journal(PermissionJournal.Event.RATIONALE_ANSWERED, permissionID, accepted ? 1 : 0);
+        if (null != mRunMetrics && 0 != mRationaleStartNanos) {
+            mRunMetrics.recordTiming(PermissionMetrics.Metric.RATIONALE_DWELL, permissionID,
+                    System.nanoTime() - mRationaleStartNanos);
+            mRationaleStartNanos = 0;
+        }
+    }
+
+    /**
+     * Add the result of the permission to the group result of the run.
+     */
+    private void addGroupResult(int permissionId, @ResultState int resultState) {
+        onResolved(permissionId, resultState);
+        mGroupResult.add(permissionId, resultState);
+    }
+
+    /**
+     * Journal the result of the permission, count it in the metrics, record it into the history and report it to the
+     * listener. Every permission resolved by a run goes through here.
+     */
+    private void onResolved(int permissionId, @ResultState int resultState) {
+        journal(PermissionJournal.Event.RESOLVED, permissionId, resultState);
+        int index = mPermissions.indexOf(permissionId);
+        if (index >= 0)
+            mResolvedStates[index] = resultState;
+        if (null != mRunMetrics)
+            mRunMetrics.recordOutcome(permissionId, resultState);
+        PermissionHistory history = mHistory;
+        if (null != history) {
+            String permission = permissionOf(permissionId);
+            if (null != permission)
+                history.recordResult(permission, resultState);
+        }
+        mListener.onPermissionResolved(permissionId, resultState);
+    }
+
+    private void journal(@PermissionJournal.Event int event, int permissionId, int value) {
+        PermissionJournal journal = mJournal;
+        if (null != journal)
+            journal.record(event, mFlowId, permissionId, value);
+    }
+
+    private static int countGranted(int[] grantResults) {
+        int granted = 0;
+        for (int grantResult : grantResults) {
+            if (grantResult == PermissionPlatform.PERMISSION_GRANTED)
+                granted++;
+        }
+        return granted;
+    }
+
+    /**
+     * Report the request as denied without asking the system, the user declined the rationale message.
+     *
+     * @param requestCode Request code of the request.
+     */
+    private void onRationaleDeclined(int requestCode) {
+        mRequestArbiter.onRequestPermissionsResult(mRequester, requestCode, new String[0], new int[0]);
+    }
+
+    /**
+     * Handle the result of the request made by this flow, or of the request made by another flow asking for the same
+     * permission.
+     *
+     * @param requestCode  RequestCode is nothing but the corresponding permission id.
+     * @param permissions  String array of permission.
+     * @param grantResults GrantResults.
+     */
+    private void onArbitratedResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        if (requestCode == BATCH_REQUEST_CODE && !mBatchRequestedPermission.isEmpty()) {
+            onBatchPermissionsResult(permissions, grantResults);
+            return;
+        }
+
+        String permission = permissionOf(requestCode);
+        if (null == permission)
+            return;
+
+        if (grantResults.length > 0 && grantResults[0] == PermissionPlatform.PERMISSION_GRANTED
+                && permissions.length > 0 && permission.equals(permissions[0]))
+            notifyResult(requestCode, ResultState.GRANTED);
+        else
+            handleDeny(requestCode, permission);
+    }
+
+    /**
+     * The user denied the permission, determine whether the permission is completely denied or currently denied.
+     *
+     * @param permissionID id of the permission.
+     * @param permission   The permission string of the id.
+     */
+    private void handleDeny(int permissionID, String permission) {
+        if (mPlatform.shouldShowRationale(permission))
+            notifyResult(permissionID, ResultState.DENIED);
+        else
+            notifyResult(permissionID, ResultState.DENIED_COMPLETELY);
+    }
+
+    /**
+     * Record the result of the permission, a single permission run ends right away while a group run proceeds with
+     * the next permission.
+     *
+     * @param permissionId Permission id uniquely identifying the permission that is requested.
+     * @param resultState  The Result of the permission.
+     */
+    private void notifyResult(int permissionId, @ResultState int resultState) {
+        if (isGroupOfPermissionRequested) {
+            addGroupResult(permissionId, resultState);
+            checkNextPermission();
+        } else {
+            onResolved(permissionId, resultState);
+            mQueue.poll();
+            T token = mCurrentToken;
+            mCurrentToken = null;
+            journal(PermissionJournal.Event.DISPATCHED, permissionId, 1);
+            mListener.onSingleResult(token, permissionId, resultState);
+            mRunQueue.onRunFinished();
+        }
+    }
+
+    /**
+     * Removes the top element in the queue and proceed checking the next permission if available, the group result
+     * is dispatched once the queue is empty.
+     */
+    private void checkNextPermission() {
+        mQueue.poll();
+
+        if (!mQueue.isEmpty())
+            checkPermission(mQueue.peek());
+        else
+            dispatchGroupResult();
+    }
+
+    /**
+     * This method called at the end of requesting group of permission, passing the result to the listener.
+     */
+    private void dispatchGroupResult() {
+        PermissionGroupResult result = mGroupResult;
+        mGroupResult = mSpareGroupResult;
+        mGroupResult.clear();
+        mSpareGroupResult = result;
+
+        if (null != mRunMetrics)
+            mRunMetrics.recordTiming(PermissionMetrics.Metric.GROUP_TIME, PermissionMetrics.NO_PERMISSION_ID,
+                    System.nanoTime() - mRunStartNanos);
+
+        T token = mCurrentToken;
+        mCurrentToken = null;
+        journal(PermissionJournal.Event.DISPATCHED, PermissionJournal.NO_PERMISSION_ID, result.size());
+        mListener.onGroupResult(token, result);
+        mRunQueue.onRunFinished();
+    }
+}
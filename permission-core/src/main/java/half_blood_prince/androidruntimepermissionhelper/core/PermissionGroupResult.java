@@ -0,0 +1,104 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import java.util.Arrays;
+
+/**
+ * Index based view of the result of a group of permission request.
+ * <p>
+ * The request id and the result of each permission are kept in parallel primitive arrays which are reused across the
+ * runs, so reading the result through this view does not allocate anything.
+ * <p>
+ * Note * The content is valid only until the callback receiving it returns, copy the values if you need them later.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionGroupResult {
+
+    private int[] mRequestIds;
+
+    private int[] mPermissionResultStates;
+
+    private int mSize;
+
+    PermissionGroupResult(int capacity) {
+        mRequestIds = new int[Math.max(capacity, 1)];
+        mPermissionResultStates = new int[mRequestIds.length];
+    }
+
+    /**
+     * @return The number of permission results available in this group.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param index Index of the result, between 0 and {@link #size()} - 1.
+     * @return The Request ID used when requesting the permission.
+     */
+    public int getRequestId(int index) {
+        checkIndex(index);
+        return mRequestIds[index];
+    }
+
+    /**
+     * @param index Index of the result, between 0 and {@link #size()} - 1.
+     * @return The Result of the permission.
+     */
+    @ResultState
+    public int getResult(int index) {
+        checkIndex(index);
+        return mPermissionResultStates[index];
+    }
+
+    public boolean isPermissionGranted(int index) {
+        return getResult(index) == ResultState.GRANTED;
+    }
+
+    public boolean isPermissionDenied(int index) {
+        return getResult(index) == ResultState.DENIED;
+    }
+
+    public boolean isPermissionDeniedCompletely(int index) {
+        return getResult(index) == ResultState.DENIED_COMPLETELY;
+    }
+
+    /**
+     * @return A copy of the results, never reused by the runs. Used to hand the results over to a later callback.
+     */
+    public PermissionGroupResult copy() {
+        PermissionGroupResult copy = new PermissionGroupResult(mSize);
+        System.arraycopy(mRequestIds, 0, copy.mRequestIds, 0, mSize);
+        System.arraycopy(mPermissionResultStates, 0, copy.mPermissionResultStates, 0, mSize);
+        copy.mSize = mSize;
+        return copy;
+    }
+
+    /**
+     * Append the result of a permission, the arrays grow only when the group is bigger than any group seen before.
+     *
+     * @param requestId             The Request ID used when requesting the permission.
+     * @param permissionResultState The Result of the permission.
+     */
+    void add(int requestId, @ResultState int permissionResultState) {
+        if (mSize == mRequestIds.length) {
+            mRequestIds = Arrays.copyOf(mRequestIds, mSize * 2);
+            mPermissionResultStates = Arrays.copyOf(mPermissionResultStates, mSize * 2);
+        }
+        mRequestIds[mSize] = requestId;
+        mPermissionResultStates[mSize] = permissionResultState;
+        mSize++;
+    }
+
+    /**
+     * Remove all the results, the arrays are kept for the next run.
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+    }
+}
@@ -0,0 +1,433 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Durable history of every permission: the last result, the number of system requests and when the permission was
+ * last requested and resolved.
+ * <p>
+ * The flows use it to resolve a permission the user denied completely without asking the system again, see {@link
+ * PermissionFlow#setHistory(PermissionHistory)}. The history survives the process, it is kept in an append-only
+ * binary log. A state loaded from the log may be stale, see {@link #isLastStateConfirmed(String)}:
+ * <pre>
+ * int  {@link #FILE_MAGIC}
+ * int  {@link #FILE_VERSION}
+ * then one record per change, the last record of a permission wins:
+ * UTF  permission
+ * byte last {@link ResultState}, {@link #NO_STATE} if never resolved
+ * int  number of system requests
+ * long last request time, milliseconds since the epoch, 0 if never requested
+ * long last result time, milliseconds since the epoch, 0 if never resolved
+ * </pre>
+ * The log is compacted, i.e rewritten with the last record of every permission, once it holds mostly stale records.
+ * A record torn by the death of the process is dropped at the next load.
+ * <p>
+ * The log is loaded lazily on the first access, call {@link #preload()} to load it ahead of time off the calling
+ * thread. The changes are written on the write executor, the callers never wait for the disk.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionHistory {
+
+    /**
+     * First int of the log, "PHST".
+     */
+    public static final int FILE_MAGIC = 0x50485354;
+
+    public static final int FILE_VERSION = 1;
+
+    /**
+     * State of a permission never resolved.
+     */
+    public static final int NO_STATE = 0x00;
+
+    /**
+     * The log is not compacted below this number of records.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    /**
+     * The log is compacted once it holds this many records per permission.
+     */
+    private static final int COMPACTION_RATIO = 4;
+
+    /**
+     * History of a single permission.
+     */
+    private static final class Entry {
+
+        @ResultState
+        int state = NO_STATE;
+
+        int requestCount;
+
+        long lastRequestMillis;
+
+        long lastResultMillis;
+
+        /**
+         * The system was asked since the last result, not written to the log.
+         */
+        boolean isRequested;
+
+        /**
+         * The last result is recorded by this instance rather than loaded from the log, not written to the log.
+         */
+        boolean isConfirmed;
+    }
+
+    private final File mFile;
+
+    private final Executor mWriteExecutor;
+
+    /**
+     * Entries of the permissions, null until the log is loaded.
+     */
+    private Map<String, Entry> mEntries;
+
+    /**
+     * Number of records in the log on disk, including the pending ones.
+     */
+    private int mRecordCount;
+
+    /**
+     * The log must be rewritten instead of appended, i.e it does not exist yet or its tail is torn.
+     */
+    private boolean isRewriteNeeded;
+
+    /**
+     * Records waiting to be appended to the log.
+     */
+    private final ByteArrayOutputStream mPendingBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream mPendingRecords = new DataOutputStream(mPendingBytes);
+
+    private boolean isWriteScheduled;
+
+    private final Runnable mWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    /**
+     * @param file          File of the log, created on the first change.
+     * @param writeExecutor Executor writing the log off the calling thread, must run the tasks one after the other.
+     */
+    public PermissionHistory(@NonNull File file, @NonNull Executor writeExecutor) {
+        mFile = file;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Load the log on the write executor, so the first access does not wait for the disk.
+     */
+    @AnyThread
+    public void preload() {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PermissionHistory.this) {
+                    ensureLoaded();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param permission Permission to look up.
+     * @return The last result of the permission, {@link #NO_STATE} if never resolved.
+     */
+    @AnyThread
+    public synchronized int getLastState(@NonNull String permission) {
+        Entry entry = ensureLoaded().get(permission);
+        return null == entry ? NO_STATE : entry.state;
+    }
+
+    /**
+     * Whether the last result of the permission was recorded since this history is created, i.e in this process.
+     * <p>
+     * A result loaded from the log may be stale: the user can reset the permission outside of the app, e.g through
+     * reset app preferences, the auto-reset of the unused apps or a reinstall restoring the backup, and the platform
+     * tells such a permission apart from a permission denied completely only once it is asked again. Changing a
+     * permission in the app settings kills the process, so a result confirmed in this process is current.
+     *
+     * @param permission Permission to look up.
+     * @return true if the last result was recorded in this process, false if it is loaded from the log or unknown.
+     */
+    @AnyThread
+    public synchronized boolean isLastStateConfirmed(@NonNull String permission) {
+        Entry entry = ensureLoaded().get(permission);
+        return null != entry && entry.isConfirmed;
+    }
+
+    /**
+     * @param permission Permission to look up.
+     * @return The number of times the system was asked for the permission.
+     */
+    @AnyThread
+    public synchronized int getRequestCount(@NonNull String permission) {
+        Entry entry = ensureLoaded().get(permission);
+        return null == entry ? 0 : entry.requestCount;
+    }
+
+    /**
+     * @param permission Permission to look up.
+     * @return When the system was last asked for the permission in milliseconds since the epoch, 0 if never.
+     */
+    @AnyThread
+    public synchronized long getLastRequestMillis(@NonNull String permission) {
+        Entry entry = ensureLoaded().get(permission);
+        return null == entry ? 0 : entry.lastRequestMillis;
+    }
+
+    /**
+     * @param permission Permission to look up.
+     * @return When the permission was last resolved in milliseconds since the epoch, 0 if never.
+     */
+    @AnyThread
+    public synchronized long getLastResultMillis(@NonNull String permission) {
+        Entry entry = ensureLoaded().get(permission);
+        return null == entry ? 0 : entry.lastResultMillis;
+    }
+
+    /**
+     * Forget the history of every permission.
+     */
+    @AnyThread
+    public synchronized void clear() {
+        ensureLoaded().clear();
+        mPendingBytes.reset();
+        mRecordCount = 0;
+        isRewriteNeeded = true;
+        scheduleWrite();
+    }
+
+    /**
+     * Count a system request for each of the permissions.
+     *
+     * @param permissions The requested permissions.
+     */
+    synchronized void recordRequest(@NonNull String[] permissions) {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> entries = ensureLoaded();
+        for (String permission : permissions) {
+            Entry entry = entryFor(entries, permission);
+            entry.requestCount++;
+            entry.lastRequestMillis = now;
+            entry.isRequested = true;
+            append(permission, entry);
+        }
+    }
+
+    /**
+     * Record the result of the permission, nothing is written when the result is the same as the last one.
+     *
+     * @param permission  The permission.
+     * @param resultState The Result of the permission.
+     */
+    synchronized void recordResult(@NonNull String permission, @ResultState int resultState) {
+        Entry entry = entryFor(ensureLoaded(), permission);
+        // A changed result is written, the same result only when it answers a request.
+        if (entry.state == resultState && !entry.isRequested)
+            return;
+
+        entry.state = resultState;
+        entry.lastResultMillis = System.currentTimeMillis();
+        entry.isRequested = false;
+        entry.isConfirmed = true;
+        append(permission, entry);
+    }
+
+    private static Entry entryFor(Map<String, Entry> entries, String permission) {
+        Entry entry = entries.get(permission);
+        if (null == entry) {
+            entry = new Entry();
+            entries.put(permission, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Queue the record of the entry to be appended to the log.
+     */
+    private void append(String permission, Entry entry) {
+        try {
+            writeRecord(mPendingRecords, permission, entry);
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws.
+            throw new AssertionError(e);
+        }
+        mRecordCount++;
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (!isWriteScheduled) {
+            isWriteScheduled = true;
+            mWriteExecutor.execute(mWriteTask);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String permission, Entry entry) throws IOException {
+        out.writeUTF(permission);
+        out.writeByte(entry.state);
+        out.writeInt(entry.requestCount);
+        out.writeLong(entry.lastRequestMillis);
+        out.writeLong(entry.lastResultMillis);
+    }
+
+    /**
+     * Load the log if not loaded yet, called with the lock held.
+     *
+     * @return The entries of the permissions.
+     */
+    private Map<String, Entry> ensureLoaded() {
+        if (null == mEntries) {
+            mEntries = new HashMap<>();
+            load();
+        }
+        return mEntries;
+    }
+
+    private void load() {
+        byte[] bytes;
+        try {
+            bytes = readFile();
+        } catch (IOException e) {
+            isRewriteNeeded = true;
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                isRewriteNeeded = true;
+                return;
+            }
+            while (in.available() > 0) {
+                String permission = in.readUTF();
+                Entry entry = new Entry();
+                entry.state = in.readByte();
+                entry.requestCount = in.readInt();
+                entry.lastRequestMillis = in.readLong();
+                entry.lastResultMillis = in.readLong();
+                mEntries.put(permission, entry);
+                mRecordCount++;
+            }
+        } catch (IOException e) {
+            // Torn tail, keep the records read so far and rewrite the log without the rest.
+            isRewriteNeeded = true;
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) mFile.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, count);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Append the pending records to the log, or rewrite the whole log when it needs to be compacted. Runs on the
+     * write executor.
+     */
+    private void write() {
+        byte[] bytes;
+        boolean rewrite;
+        synchronized (this) {
+            isWriteScheduled = false;
+            ensureLoaded();
+            rewrite = isRewriteNeeded || mRecordCount >= Math.max(MIN_COMPACTION_RECORDS,
+                    COMPACTION_RATIO * mEntries.size());
+            if (rewrite) {
+                bytes = snapshot();
+                mRecordCount = mEntries.size();
+                isRewriteNeeded = false;
+            } else {
+                bytes = mPendingBytes.toByteArray();
+            }
+            mPendingBytes.reset();
+        }
+
+        try {
+            if (rewrite)
+                rewrite(bytes);
+            else if (bytes.length > 0)
+                appendToFile(bytes);
+        } catch (IOException e) {
+            // The history is only an optimization, keep going from memory and start over with a fresh log.
+            synchronized (this) {
+                isRewriteNeeded = true;
+            }
+        }
+    }
+
+    /**
+     * @return The header and the last record of every permission, called with the lock held.
+     */
+    private byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet())
+                writeRecord(out, entry.getKey(), entry.getValue());
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws.
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void appendToFile(byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replace the log atomically, a crash leaves either the old or the new log.
+     */
+    private void rewrite(byte[] bytes) throws IOException {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if (null != parent && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Cannot create " + parent);
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile))
+            throw new IOException("Cannot rename " + temp + " to " + mFile);
+    }
+}
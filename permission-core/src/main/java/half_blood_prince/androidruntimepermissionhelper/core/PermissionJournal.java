@@ -0,0 +1,311 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size journal of the state transitions of the permission flows, kept for diagnostics e.g when a user reports a
+ * flow which never finished.
+ * <p>
+ * Every event is a primitive record (time, event, flow, permission id and a small value) written into a ring buffer
+ * preallocated up front. Writing an event claims a slot with a single atomic increment and stores three longs, there
+ * is no lock and nothing is allocated, so the journal stays on in release builds. Once full the oldest events are
+ * overwritten.
+ * <p>
+ * Read the journal through {@link #dumpText()} or {@link #dumpBinary(OutputStream)} at any time, the events being
+ * written meanwhile are skipped.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionJournal {
+
+    @IntDef({Event.QUEUED, Event.STARTED, Event.CHECKED, Event.RATIONALE_SHOWN, Event.RATIONALE_ANSWERED,
+            Event.REQUESTED, Event.RESULT, Event.RESOLVED, Event.DISPATCHED, Event.RELEASED,
+            Event.SKIPPED, Event.JOINED})
+    public @interface Event {
+
+        /**
+         * A run is submitted, no permission id.
+         */
+        int QUEUED = 0x01;
+
+        /**
+         * A run is started, the value is 1 in batch mode plus 2 when the run is restored.
+         */
+        int STARTED = 0x02;
+
+        /**
+         * The permission is checked, the value is 1 if granted.
+         */
+        int CHECKED = 0x03;
+
+        int RATIONALE_SHOWN = 0x04;
+
+        /**
+         * The user answered the rationale message, the value is 1 if accepted.
+         */
+        int RATIONALE_ANSWERED = 0x05;
+
+        /**
+         * The system is asked, the id is the request code and the value the number of permissions.
+         */
+        int REQUESTED = 0x06;
+
+        /**
+         * The system answered, the id is the request code and the value the number of granted permissions.
+         */
+        int RESULT = 0x07;
+
+        /**
+         * The result of the permission is known, the value is the {@link ResultState}.
+         */
+        int RESOLVED = 0x08;
+
+        /**
+         * The result of the run is dispatched, the value is the number of results.
+         */
+        int DISPATCHED = 0x09;
+
+        /**
+         * The flow is released, no permission id.
+         */
+        int RELEASED = 0x0A;
+
+        /**
+         * The permission is resolved as denied without asking, the value is {@link #SKIPPED_PREREQUISITE} or {@link
+         * #SKIPPED_OPTIONAL}.
+         */
+        int SKIPPED = 0x0B;
+
+        /**
+         * A submitted run joins the run in progress, no permission id.
+         */
+        int JOINED = 0x0C;
+    }
+
+    /**
+     * Permission id recorded along with the events which belong to no single permission.
+     */
+    public static final int NO_PERMISSION_ID = -1;
+
+    /**
+     * Value of a {@link Event#SKIPPED} permission whose prerequisite is not granted.
+     */
+    public static final int SKIPPED_PREREQUISITE = 1;
+
+    /**
+     * Value of a {@link Event#SKIPPED} optional permission the user denied previously.
+     */
+    public static final int SKIPPED_OPTIONAL = 2;
+
+    /**
+     * First int of the binary dump, "PJNL".
+     */
+    public static final int BINARY_MAGIC = 0x504A4E4C;
+
+    public static final int BINARY_VERSION = 1;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final String[] EVENT_NAMES = {"?", "QUEUED", "STARTED", "CHECKED", "RATIONALE_SHOWN",
+            "RATIONALE_ANSWERED", "REQUESTED", "RESULT", "RESOLVED", "DISPATCHED", "RELEASED", "SKIPPED",
+            "JOINED"};
+
+    /**
+     * Longs of a slot: the stamp, the time and the packed record.
+     */
+    private static final int SLOT_SIZE = 3;
+
+    /**
+     * Stamp of a slot being written.
+     */
+    private static final long WRITING = -1L;
+
+    private static final PermissionJournal sInstance = new PermissionJournal(DEFAULT_CAPACITY);
+
+    /**
+     * Slots of the ring, each slot holds the stamp (sequence + 1, 0 if never written), the time and the packed record.
+     */
+    private final AtomicLongArray mSlots;
+
+    private final int mMask;
+
+    /**
+     * Sequence of the next event.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param capacity Number of events kept, rounded up to a power of two.
+     */
+    public PermissionJournal(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mMask = size - 1;
+        mSlots = new AtomicLongArray(size * SLOT_SIZE);
+    }
+
+    /**
+     * @return The process wide journal the flows write to by default, keeping the last 1024 events.
+     */
+    @NonNull
+    public static PermissionJournal getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return The number of events the journal keeps.
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return The number of events written since the journal is created, including the overwritten ones.
+     */
+    public long getWrittenCount() {
+        return mSequence.get();
+    }
+
+    /**
+     * Write an event, from any thread.
+     *
+     * @param event        The event.
+     * @param flowId       Id of the flow writing the event, the low 16 bits are kept.
+     * @param permissionId Permission id or request code, {@link #NO_PERMISSION_ID} if none.
+     * @param value        Value of the event, kept between 0 and 255.
+     */
+    @AnyThread
+    void record(@Event int event, int flowId, int permissionId, int value) {
+        long time = System.nanoTime();
+        long sequence = mSequence.getAndIncrement();
+        int slot = (int) (sequence & mMask) * SLOT_SIZE;
+
+        mSlots.set(slot, WRITING);
+        mSlots.lazySet(slot + 1, time);
+        mSlots.lazySet(slot + 2, pack(event, flowId, permissionId, value));
+        mSlots.lazySet(slot, sequence + 1);
+    }
+
+    static long pack(int event, int flowId, int permissionId, int value) {
+        return (long) (event & 0xFF) << 56 | (long) (flowId & 0xFFFF) << 40
+                | (long) (Math.min(Math.max(value, 0), 0xFF)) << 32 | (permissionId & 0xFFFFFFFFL);
+    }
+
+    @Event
+    static int eventOf(long record) {
+        return (int) (record >>> 56);
+    }
+
+    static int flowIdOf(long record) {
+        return (int) (record >>> 40) & 0xFFFF;
+    }
+
+    static int valueOf(long record) {
+        return (int) (record >>> 32) & 0xFF;
+    }
+
+    static int permissionIdOf(long record) {
+        return (int) record;
+    }
+
+    /**
+     * Copy the consistent events, oldest first.
+     *
+     * @param times   Receives the time of the events, at least {@link #getCapacity()} long.
+     * @param records Receives the packed records, at least {@link #getCapacity()} long.
+     * @return The number of events copied.
+     */
+    private int copy(long[] times, long[] records) {
+        long end = mSequence.get();
+        long start = Math.max(0, end - getCapacity());
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask) * SLOT_SIZE;
+            long stamp = mSlots.get(slot);
+            long time = mSlots.get(slot + 1);
+            long record = mSlots.get(slot + 2);
+            // Skip the slots being written or already overwritten by a newer event.
+            if (stamp != sequence + 1 || mSlots.get(slot) != stamp)
+                continue;
+            times[count] = time;
+            records[count] = record;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Write the events in text, one line per event, oldest first. The time is relative to the oldest event.
+     *
+     * @param out Destination of the text.
+     * @throws IOException If the destination fails.
+     */
+    public void dumpText(@NonNull Appendable out) throws IOException {
+        long[] times = new long[getCapacity()];
+        long[] records = new long[getCapacity()];
+        int count = copy(times, records);
+
+        out.append(String.format(Locale.ENGLISH, "PermissionJournal %d of %d events\n", count, getWrittenCount()));
+        for (int i = 0; i < count; i++) {
+            long record = records[i];
+            int event = eventOf(record);
+            int permissionId = permissionIdOf(record);
+            out.append(String.format(Locale.ENGLISH, "%+10.3fms #%d %s id=%s value=%d\n",
+                    (times[i] - times[0]) / 1e6, flowIdOf(record),
+                    event < EVENT_NAMES.length ? EVENT_NAMES[event] : EVENT_NAMES[0],
+                    permissionId == NO_PERMISSION_ID ? "-" : "0x" + Integer.toHexString(permissionId),
+                    valueOf(record)));
+        }
+    }
+
+    /**
+     * @return The events in text.
+     * @see #dumpText(Appendable)
+     */
+    @NonNull
+    public String dumpText() {
+        StringBuilder text = new StringBuilder();
+        try {
+            dumpText(text);
+        } catch (IOException e) {
+            // StringBuilder never throws.
+            throw new AssertionError(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write the events in binary, big endian: the {@link #BINARY_MAGIC} int, the {@link #BINARY_VERSION} int and the
+     * event count int, then the time long (nanoseconds, arbitrary origin) and the packed record long of every event,
+     * oldest first. The record packs the event (8 bits), the flow id (16 bits), the value (8 bits) and the permission
+     * id (32 bits) from the high to the low bits.
+     *
+     * @param out Destination of the events, not closed.
+     * @throws IOException If the destination fails.
+     */
+    public void dumpBinary(@NonNull OutputStream out) throws IOException {
+        long[] times = new long[getCapacity()];
+        long[] records = new long[getCapacity()];
+        int count = copy(times, records);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            data.writeLong(times[i]);
+            data.writeLong(records[i]);
+        }
+        data.flush();
+    }
+}
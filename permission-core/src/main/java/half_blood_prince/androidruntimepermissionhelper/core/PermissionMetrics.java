@@ -0,0 +1,155 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and outcome metrics of the permission flows.
+ * <p>
+ * Plug an instance into one or more flows, e.g a single instance shared by every helper of the app, through {@link
+ * PermissionFlow#setMetrics(PermissionMetrics)}. The timings go into a {@link LatencyHistogram} per {@link Metric}
+ * and every result is counted per {@link ResultState}. Nothing is allocated while recording, read the values at any
+ * time through {@link #snapshot()} or follow every sample through a {@link Listener}.
+ * <p>
+ * Flows without metrics, the default, do not even read the clock.
+ *
+ * @author Half-Blood-Prince
+ */
+public final class PermissionMetrics {
+
+    /**
+     * Timings recorded by the flows.
+     */
+    @IntDef({Metric.REQUEST_LATENCY, Metric.RATIONALE_DWELL, Metric.GROUP_TIME})
+    public @interface Metric {
+
+        /**
+         * From the system request to its result, i.e the time the user spends on the system permission dialog.
+         */
+        int REQUEST_LATENCY = 0x00;
+
+        /**
+         * From showing the rationale message to the answer of the user.
+         */
+        int RATIONALE_DWELL = 0x01;
+
+        /**
+         * From the start of a run holding more than one permission to the dispatch of its group result.
+         */
+        int GROUP_TIME = 0x02;
+    }
+
+    /**
+     * Permission id reported along with the {@link Metric#GROUP_TIME}, which belongs to no single permission.
+     */
+    public static final int NO_PERMISSION_ID = -1;
+
+    private static final int METRIC_COUNT = Metric.GROUP_TIME + 1;
+
+    /**
+     * Receives every sample right after it is recorded, on the thread of the flow. Must not block.
+     */
+    public interface Listener {
+
+        /**
+         * @param metric        The timing recorded.
+         * @param permissionId  Permission id the timing belongs to, {@link PermissionFlow#BATCH_REQUEST_CODE} for a
+         *                      batch request or {@link #NO_PERMISSION_ID} for the {@link Metric#GROUP_TIME}.
+         * @param durationNanos The duration in nanoseconds.
+         */
+        void onTiming(@Metric int metric, int permissionId, long durationNanos);
+
+        /**
+         * @param permissionId Permission id uniquely identifying the permission.
+         * @param resultState  The Result of the permission.
+         */
+        void onOutcome(int permissionId, @ResultState int resultState);
+    }
+
+    /**
+     * Values of the metrics at the time {@link #snapshot()} is called.
+     */
+    public static final class Snapshot {
+
+        private final LatencyHistogram[] mHistograms;
+
+        private final long[] mOutcomes;
+
+        Snapshot(LatencyHistogram[] histograms, long[] outcomes) {
+            mHistograms = histograms;
+            mOutcomes = outcomes;
+        }
+
+        /**
+         * @param metric One of the {@link Metric}.
+         * @return The histogram of the timing.
+         */
+        @NonNull
+        public LatencyHistogram getHistogram(@Metric int metric) {
+            return mHistograms[metric];
+        }
+
+        /**
+         * @param resultState One of the {@link ResultState}.
+         * @return The number of permissions which ended with the result.
+         */
+        public long getOutcomeCount(@ResultState int resultState) {
+            return mOutcomes[resultState];
+        }
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[METRIC_COUNT];
+
+    /**
+     * Number of results indexed by the {@link ResultState}.
+     */
+    private final AtomicLongArray mOutcomes = new AtomicLongArray(ResultState.DENIED_COMPLETELY + 1);
+
+    private volatile Listener mListener;
+
+    public PermissionMetrics() {
+        for (int metric = 0; metric < METRIC_COUNT; metric++)
+            mHistograms[metric] = new LatencyHistogram();
+    }
+
+    /**
+     * @param listener Listener to receive every sample, null to remove it.
+     */
+    @AnyThread
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return A copy of the current values.
+     */
+    @AnyThread
+    @NonNull
+    public Snapshot snapshot() {
+        LatencyHistogram[] histograms = new LatencyHistogram[METRIC_COUNT];
+        for (int metric = 0; metric < METRIC_COUNT; metric++)
+            histograms[metric] = mHistograms[metric].copy();
+        long[] outcomes = new long[mOutcomes.length()];
+        for (int state = 0; state < outcomes.length; state++)
+            outcomes[state] = mOutcomes.get(state);
+        return new Snapshot(histograms, outcomes);
+    }
+
+    void recordTiming(@Metric int metric, int permissionId, long durationNanos) {
+        mHistograms[metric].record(durationNanos);
+        Listener listener = mListener;
+        if (null != listener)
+            listener.onTiming(metric, permissionId, durationNanos);
+    }
+
+    void recordOutcome(int permissionId, @ResultState int resultState) {
+        mOutcomes.incrementAndGet(resultState);
+        Listener listener = mListener;
+        if (null != listener)
+            listener.onOutcome(permissionId, resultState);
+    }
+}
@@ -0,0 +1,76 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The platform side of a {@link PermissionFlow}, i.e checking, explaining and requesting the permissions.
+ * <p>
+ * Every method is called on the confined executor of the flow, the main thread on Android.
+ *
+ * @author Half-Blood-Prince
+ */
+public interface PermissionPlatform {
+
+    /**
+     * Grant result of a granted permission.
+     */
+    int PERMISSION_GRANTED = 0;
+
+    /**
+     * Grant result of a denied permission.
+     */
+    int PERMISSION_DENIED = -1;
+
+    /**
+     * Receives the answer of the user to the rationale message.
+     */
+    interface RationaleCallback {
+
+        /**
+         * @param accepted true if the user accepted to be asked for the permission.
+         */
+        void onRationaleResult(boolean accepted);
+    }
+
+    /**
+     * @return true if the permissions are asked at run time, otherwise every permission is granted at install time.
+     */
+    boolean isRuntimePermissionModel();
+
+    /**
+     * @param permission Permission to check.
+     * @return true if the permission is granted.
+     */
+    boolean isGranted(@NonNull String permission);
+
+    /**
+     * @param permission Permission to check.
+     * @return true if the user denied the permission previously and the rationale message should be shown, false if
+     * the user asked never to be asked again.
+     */
+    boolean shouldShowRationale(@NonNull String permission);
+
+    /**
+     * Show the rationale message of the permission and report the answer of the user through the {@code callback}.
+     *
+     * @param permissionId Permission id to explain.
+     * @param callback     Callback to report the answer to, exactly once.
+     */
+    void showRationale(int permissionId, @NonNull RationaleCallback callback);
+
+    /**
+     * Ask the system for the permissions, the result must be reported back through {@link
+     * PermissionFlow#onRequestPermissionsResult(int, String[], int[])} using {@link #PERMISSION_GRANTED} and {@link
+     * #PERMISSION_DENIED}.
+     *
+     * @param permissions Permissions to request.
+     * @param requestCode Request code of the request.
+     */
+    void requestPermissions(@NonNull String[] permissions, int requestCode);
+
+    /**
+     * @return false once the host showing the dialogs is gone for good, i.e finishing or destroyed without being
+     * recreated. The requests of the flow are then dropped, even if the flow is never released.
+     */
+    boolean isHostAlive();
+}
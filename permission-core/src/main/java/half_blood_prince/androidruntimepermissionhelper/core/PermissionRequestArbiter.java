@@ -0,0 +1,320 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Process wide arbiter owning the single system permission dialog.
+ * <p>
+ * Every {@link PermissionFlow} asks the user through this class. Only one request is shown at a time, the
+ * others are queued in the order they arrive. A request asking only for permissions which are already being asked is
+ * merged with that request and the single result is fanned out to all the waiters, so the same permission is never
+ * requested twice and no two rationale dialogs stack up.
+ * <p>
+ * The requesters are held weakly and a requester whose host is gone (see {@link Requester#isAlive()}) is dropped
+ * like {@link #cancel(Requester)}, so a host destroyed without releasing its requester neither leaks nor blocks the
+ * requests of the others.
+ * <p>
+ * Note * This class is not thread safe, it must be used from the main thread only.
+ *
+ * @author Half-Blood-Prince
+ */
+@MainThread
+public final class PermissionRequestArbiter {
+
+    /**
+     * The party asking the user for the permissions.
+     */
+    public interface Requester {
+
+        /**
+         * Called when it is the turn of this requester to ask the user, the requester shows the rationale message if
+         * needed and then requests the {@code permissions}. The result must be reported back through {@link
+         * #onRequestPermissionsResult(Requester, int, String[], int[])}.
+         *
+         * @param requestCode Request code of the request.
+         * @param permissions Permissions to request.
+         */
+        void performRequest(int requestCode, @NonNull String[] permissions);
+
+        /**
+         * Called with the result of the request, for the requester which asked the user as well as for the
+         * requesters merged with it.
+         *
+         * @param requestCode  Request code used by this requester.
+         * @param permissions  Permissions requested by this requester.
+         * @param grantResults The grant results for the corresponding permissions.
+         */
+        void onArbitratedResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults);
+
+        /**
+         * @return false once the host of this requester is gone for good, i.e finishing or destroyed without being
+         * recreated, its requests are then dropped.
+         */
+        boolean isAlive();
+    }
+
+    /**
+     * A request waiting for its turn, along with the requests merged with it.
+     */
+    private static final class Ticket {
+
+        /**
+         * Held weakly, the arbiter outlives the hosts of the requesters.
+         */
+        final WeakReference<Requester> requester;
+
+        final int requestCode;
+
+        final String[] permissions;
+
+        final ArrayList<Ticket> waiters = new ArrayList<>(0);
+
+        Ticket(WeakReference<Requester> requester, int requestCode, String[] permissions) {
+            this.requester = requester;
+            this.requestCode = requestCode;
+            this.permissions = permissions;
+        }
+
+        /**
+         * @return true if the requester is collected or its host is gone.
+         */
+        boolean isGone() {
+            Requester alive = requester.get();
+            return null == alive || !alive.isAlive();
+        }
+
+        /**
+         * @return true if every permission of the {@code other} ticket is requested by this ticket.
+         */
+        boolean covers(Ticket other) {
+            for (String permission : other.permissions) {
+                if (indexOf(permission) < 0)
+                    return false;
+            }
+            return true;
+        }
+
+        int indexOf(String permission) {
+            for (int i = 0; i < permissions.length; i++) {
+                if (permissions[i].equals(permission))
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    private static final PermissionRequestArbiter sInstance = new PermissionRequestArbiter();
+
+    /**
+     * Requests waiting for their turn.
+     */
+    private final ArrayDeque<Ticket> mPending = new ArrayDeque<>();
+
+    /**
+     * Request currently shown to the user.
+     */
+    private Ticket mInFlight;
+
+    /**
+     * Reference of the last requester, reused by its next requests as a requester asks for one permission after the
+     * other.
+     */
+    private WeakReference<Requester> mLastRequester = new WeakReference<>(null);
+
+    private PermissionRequestArbiter() {
+        //To forbid object creation from outside world.
+    }
+
+    public static PermissionRequestArbiter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Queue the request, or merge it with the request already asking for the same permissions.
+     *
+     * @param requester   The party asking for the permissions.
+     * @param requestCode Request code of the request.
+     * @param permissions Permissions to request.
+     */
+    public void request(@NonNull Requester requester, int requestCode, @NonNull String[] permissions) {
+        // Never merge into the request of a host which is gone, its result would never come.
+        dropGone();
+        if (mLastRequester.get() != requester)
+            mLastRequester = new WeakReference<>(requester);
+        Ticket ticket = new Ticket(mLastRequester, requestCode, permissions);
+
+        if (null != mInFlight && mInFlight.covers(ticket)) {
+            mInFlight.waiters.add(ticket);
+            return;
+        }
+        for (Ticket pending : mPending) {
+            if (pending.covers(ticket)) {
+                pending.waiters.add(ticket);
+                return;
+            }
+        }
+
+        mPending.add(ticket);
+        if (null == mInFlight)
+            performNext();
+    }
+
+    /**
+     * Deliver the result of the request in flight to the requester and all the waiters merged with it, then move on
+     * to the next request.
+     * <p>
+     * Permissions of the request missing in the result (i.e the user declined the rationale message, or the request
+     * is interrupted) are reported as denied.
+     *
+     * @param requester    The requester which asked the user.
+     * @param requestCode  Request code of the request.
+     * @param permissions  The requested permissions.
+     * @param grantResults The grant results for the corresponding permissions.
+     * @return true if the result belongs to the request in flight, false otherwise.
+     */
+    public boolean onRequestPermissionsResult(@NonNull Requester requester, int requestCode,
+                                              @NonNull String[] permissions, @NonNull int[] grantResults) {
+        Ticket ticket = mInFlight;
+        if (null == ticket || ticket.requester.get() != requester || ticket.requestCode != requestCode)
+            return false;
+
+        mInFlight = null;
+
+        deliver(ticket, permissions, grantResults);
+        for (Ticket waiter : ticket.waiters)
+            deliver(waiter, permissions, grantResults);
+
+        if (null == mInFlight)
+            performNext();
+        return true;
+    }
+
+    /**
+     * Remove every request of the {@code requester}, this must be called when the host of the requester goes away.
+     * If the requester was asking the user, the merged waiters are queued again and the next request is performed.
+     *
+     * @param requester The requester to remove.
+     */
+    public void cancel(@NonNull Requester requester) {
+        remove(requester);
+        if (null == mInFlight)
+            performNext();
+    }
+
+    /**
+     * Drop the requests of the requesters whose host is gone, this should be called whenever a host is destroyed.
+     * If the request in flight is dropped, the merged waiters are queued again and the next request is performed.
+     */
+    public void onHostDestroyed() {
+        dropGone();
+        if (null == mInFlight)
+            performNext();
+    }
+
+    /**
+     * Remove the tickets of the {@code requester}, or of every requester gone when null. The waiters of a removed
+     * ticket are queued again.
+     */
+    private void remove(Requester requester) {
+        ArrayList<Ticket> orphans = new ArrayList<>(0);
+
+        for (Iterator<Ticket> iterator = mPending.iterator(); iterator.hasNext(); ) {
+            Ticket pending = iterator.next();
+            removeWaiters(pending, requester);
+            if (matches(pending, requester)) {
+                orphans.addAll(pending.waiters);
+                iterator.remove();
+            }
+        }
+
+        if (null != mInFlight) {
+            removeWaiters(mInFlight, requester);
+            if (matches(mInFlight, requester)) {
+                orphans.addAll(mInFlight.waiters);
+                mInFlight = null;
+            }
+        }
+
+        for (Ticket orphan : orphans)
+            requeue(orphan);
+    }
+
+    private void dropGone() {
+        remove(null);
+    }
+
+    /**
+     * Queue the {@code ticket} of a removed request again, merging it like {@link #request(Requester, int,
+     * String[])} without performing it yet.
+     */
+    private void requeue(Ticket ticket) {
+        if (ticket.isGone())
+            return;
+        if (null != mInFlight && mInFlight.covers(ticket)) {
+            mInFlight.waiters.add(ticket);
+            return;
+        }
+        for (Ticket pending : mPending) {
+            if (pending.covers(ticket)) {
+                pending.waiters.add(ticket);
+                return;
+            }
+        }
+        mPending.add(ticket);
+    }
+
+    /**
+     * @param requester The requester to match, null to match every requester gone.
+     */
+    private static boolean matches(Ticket ticket, Requester requester) {
+        return null == requester ? ticket.isGone() : ticket.requester.get() == requester;
+    }
+
+    private static void removeWaiters(Ticket ticket, Requester requester) {
+        for (Iterator<Ticket> iterator = ticket.waiters.iterator(); iterator.hasNext(); ) {
+            if (matches(iterator.next(), requester))
+                iterator.remove();
+        }
+    }
+
+    private void performNext() {
+        Ticket ticket;
+        while (null != (ticket = mPending.poll())) {
+            Requester requester = ticket.requester.get();
+            if (null == requester || !requester.isAlive()) {
+                // The host is gone before its turn, its waiters are still served.
+                for (Ticket waiter : ticket.waiters)
+                    requeue(waiter);
+                continue;
+            }
+            mInFlight = ticket;
+            requester.performRequest(ticket.requestCode, ticket.permissions);
+            return;
+        }
+    }
+
+    /**
+     * Deliver the part of the result the {@code ticket} asked for.
+     */
+    private static void deliver(Ticket ticket, String[] permissions, int[] grantResults) {
+        int[] ticketResults = new int[ticket.permissions.length];
+        for (int i = 0; i < ticket.permissions.length; i++) {
+            ticketResults[i] = PermissionPlatform.PERMISSION_DENIED;
+            for (int j = 0; j < permissions.length && j < grantResults.length; j++) {
+                if (permissions[j].equals(ticket.permissions[i])) {
+                    ticketResults[i] = grantResults[j];
+                    break;
+                }
+            }
+        }
+        Requester requester = ticket.requester.get();
+        if (null != requester)
+            requester.onArbitratedResult(ticket.requestCode, ticket.permissions, ticketResults);
+    }
+}
@@ -0,0 +1,153 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Serializes the permission checking runs of a {@link PermissionFlow}.
+ * <p>
+ * A run can be submitted from any thread along with a token identifying it, the submission is only queued
+ * (lock-free) and the runs are started one after the other on the confined executor, i.e the main thread. All the
+ * state of a run is touched only on the confined executor, so nothing else needs to be synchronized and every
+ * submitted run is performed exactly once, or joins the run in progress when the {@link Runner} accepts it.
+ *
+ * @param <T> Type of the token identifying a run.
+ * @author Half-Blood-Prince
+ */
+public final class PermissionRunQueue<T> {
+
+    /**
+     * Performs a single run, called on the confined executor.
+     */
+    public interface Runner<T> {
+
+        /**
+         * Start the run, {@link #onRunFinished()} must be called once the run is done.
+         *
+         * @param token Token the run is submitted with.
+         */
+        void startRun(@NonNull T token);
+
+        /**
+         * Offer a run submitted while a run is in progress to join it, called in the submission order.
+         *
+         * @param token Token the run is submitted with.
+         * @return true if the token shares the result of the run in progress, it is never started then.
+         */
+        boolean joinRun(@NonNull T token);
+    }
+
+    private final Executor mConfinedExecutor;
+
+    private final Runner<T> mRunner;
+
+    /**
+     * Tokens of the runs submitted and not started yet.
+     */
+    private final ConcurrentLinkedQueue<T> mPendingRuns = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a run is in progress, confined.
+     */
+    private boolean isRunning;
+
+    /**
+     * Whether the runs are being started, confined. Used to start the runs finishing synchronously in a loop rather
+     * than recursively.
+     */
+    private boolean isDraining;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param confinedExecutor Executor running the tasks one after the other on the thread owning the state.
+     * @param runner           Performs the runs.
+     */
+    public PermissionRunQueue(@NonNull Executor confinedExecutor, @NonNull Runner<T> runner) {
+        mConfinedExecutor = confinedExecutor;
+        mRunner = runner;
+    }
+
+    /**
+     * Submit a run, it is started once the runs submitted before it are finished.
+     *
+     * @param token Token identifying the run, passed back to {@link Runner#startRun(Object)}.
+     */
+    @AnyThread
+    public void submit(@NonNull T token) {
+        mPendingRuns.add(token);
+        mConfinedExecutor.execute(mDrainTask);
+    }
+
+    /**
+     * Same as {@link #submit(Object)}, called on the confined executor while it runs the tasks right away. When no run
+     * is waiting, the run is started or joins the run in progress without being queued, so nothing is allocated.
+     *
+     * @param token Token identifying the run, passed back to {@link Runner#startRun(Object)}.
+     */
+    public void submitConfined(@NonNull T token) {
+        if (isDraining || !mPendingRuns.isEmpty()) {
+            // Queued behind the runs submitted before it.
+            submit(token);
+            return;
+        }
+
+        if (isRunning) {
+            // A refused token waits for the end of the run in progress.
+            if (!mRunner.joinRun(token))
+                mPendingRuns.add(token);
+            return;
+        }
+
+        isDraining = true;
+        isRunning = true;
+        mRunner.startRun(token);
+        isDraining = false;
+        // The runs submitted while starting this one, e.g from the callbacks of a run finishing synchronously.
+        drain();
+    }
+
+    /**
+     * Mark the current run finished and start the next one if available, called on the confined executor.
+     */
+    public void onRunFinished() {
+        isRunning = false;
+        drain();
+    }
+
+    /**
+     * @return true if a run is in progress, called on the confined executor.
+     */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    private void drain() {
+        if (isDraining)
+            return;
+
+        isDraining = true;
+        T token;
+        while (null != (token = mPendingRuns.peek())) {
+            if (isRunning) {
+                // A refused token waits for its turn, the tokens after it too so the order is kept.
+                if (!mRunner.joinRun(token))
+                    break;
+                mPendingRuns.poll();
+            } else {
+                mPendingRuns.poll();
+                isRunning = true;
+                mRunner.startRun(token);
+            }
+        }
+        isDraining = false;
+    }
+}
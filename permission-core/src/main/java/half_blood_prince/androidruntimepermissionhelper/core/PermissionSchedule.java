@@ -0,0 +1,269 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable schedule of the permissions of a {@link PermissionFlow}: the priority of every permission, the optional
+ * permissions and the prerequisites of a permission, i.e the permissions it only makes sense after. For example the
+ * background location requires the fine location.
+ * <p>
+ * The flow checks the permissions with the highest priority first, a permission always after its prerequisites and
+ * the permissions of the same priority in the order of the set. A prerequisite takes the priority of its dependents
+ * when higher, so a permission is not delayed by the priority of its prerequisites. A permission whose prerequisite
+ * is not granted is resolved as {@link ResultState#DENIED} without asking, and so is an optional permission the user
+ * denied previously, i.e which would need the rationale message. In batch mode the permissions ready together are
+ * requested in a single system request, the dependents in the next request.
+ * <p>
+ * The permissions without any declaration have the {@link #DEFAULT_PRIORITY}, are mandatory and have no prerequisite.
+ * The prerequisites which are not in the set of the flow are ignored.
+ *
+ * @author Half-Blood-Prince
+ * @see PermissionFlow#setSchedule(PermissionSchedule)
+ * @see Builder
+ */
+public final class PermissionSchedule {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final int[] NO_PREREQUISITES = new int[0];
+
+    /**
+     * Declared permission id's, sorted for the binary search.
+     */
+    private final int[] mIds;
+
+    /**
+     * Priority of the permission id at the same index in {@link #mIds}.
+     */
+    private final int[] mPriorities;
+
+    private final boolean[] mOptionals;
+
+    private final int[][] mPrerequisites;
+
+    private PermissionSchedule(int[] ids, int[] priorities, boolean[] optionals, int[][] prerequisites) {
+        mIds = ids;
+        mPriorities = priorities;
+        mOptionals = optionals;
+        mPrerequisites = prerequisites;
+    }
+
+    /**
+     * @param permissionId Permission id to look up.
+     * @return The priority of the permission, the higher the earlier.
+     */
+    public int getPriority(int permissionId) {
+        int index = Arrays.binarySearch(mIds, permissionId);
+        return index < 0 ? DEFAULT_PRIORITY : mPriorities[index];
+    }
+
+    /**
+     * @param permissionId Permission id to look up.
+     * @return true if the permission is not asked again once the user denied it.
+     */
+    public boolean isOptional(int permissionId) {
+        int index = Arrays.binarySearch(mIds, permissionId);
+        return index >= 0 && mOptionals[index];
+    }
+
+    /**
+     * @param permissionId Permission id to look up.
+     * @return The id's of the prerequisites of the permission, do not modify.
+     */
+    @NonNull
+    public int[] getPrerequisites(int permissionId) {
+        int index = Arrays.binarySearch(mIds, permissionId);
+        return index < 0 ? NO_PREREQUISITES : mPrerequisites[index];
+    }
+
+    /**
+     * Order the permissions of the set: the highest priority first, a permission after its prerequisites in the set
+     * and the same priority in the order of the set. A prerequisite inherits the priority of its dependents.
+     *
+     * @param permissions Set of the flow.
+     * @return The indexes of the permissions in the set, in the order to check them.
+     */
+    @NonNull
+    int[] order(@NonNull PermissionSet permissions) {
+        int size = permissions.size();
+        // Number of prerequisites in the set not ordered yet, for each index of the set.
+        int[] waiting = new int[size];
+        int[] priorities = new int[size];
+        for (int index = 0; index < size; index++) {
+            priorities[index] = getPriority(permissions.idAt(index));
+            for (int prerequisiteId : getPrerequisites(permissions.idAt(index))) {
+                if (permissions.indexOf(prerequisiteId) >= 0)
+                    waiting[index]++;
+            }
+        }
+        // Pass the priorities down the prerequisites, a chain is at most the size of the set long.
+        boolean isChanged = true;
+        for (int pass = 0; pass < size && isChanged; pass++) {
+            isChanged = false;
+            for (int index = 0; index < size; index++) {
+                for (int prerequisiteId : getPrerequisites(permissions.idAt(index))) {
+                    int prerequisite = permissions.indexOf(prerequisiteId);
+                    if (prerequisite >= 0 && priorities[prerequisite] < priorities[index]) {
+                        priorities[prerequisite] = priorities[index];
+                        isChanged = true;
+                    }
+                }
+            }
+        }
+
+        int[] order = new int[size];
+        boolean[] isOrdered = new boolean[size];
+        for (int position = 0; position < size; position++) {
+            int next = -1;
+            for (int index = 0; index < size; index++) {
+                if (!isOrdered[index] && waiting[index] == 0 && (next < 0 || priorities[index] > priorities[next]))
+                    next = index;
+            }
+            // The builder rejects the cycles, every position finds a permission.
+            order[position] = next;
+            isOrdered[next] = true;
+            int nextId = permissions.idAt(next);
+            for (int index = 0; index < size; index++) {
+                if (!isOrdered[index] && contains(getPrerequisites(permissions.idAt(index)), nextId))
+                    waiting[index]--;
+            }
+        }
+        return order;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int value : ids) {
+            if (value == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builder used to construct the {@link PermissionSchedule}.
+     */
+    public static final class Builder {
+
+        private static final class Declaration {
+
+            final int id;
+
+            int priority = DEFAULT_PRIORITY;
+
+            boolean isOptional;
+
+            int[] prerequisites = NO_PREREQUISITES;
+
+            Declaration(int id) {
+                this.id = id;
+            }
+        }
+
+        private final ArrayList<Declaration> mDeclarations = new ArrayList<>();
+
+        /**
+         * @param permissionId Permission id.
+         * @param priority     Priority of the permission, the higher the earlier. Defaults to {@link
+         *                     #DEFAULT_PRIORITY}.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder priority(int permissionId, int priority) {
+            declarationOf(permissionId).priority = priority;
+            return this;
+        }
+
+        /**
+         * Declare the permission optional, it is not asked again once the user denied it.
+         *
+         * @param permissionId Permission id.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder optional(int permissionId) {
+            declarationOf(permissionId).isOptional = true;
+            return this;
+        }
+
+        /**
+         * Declare that the permission only makes sense once the prerequisite is granted, it is not asked otherwise.
+         *
+         * @param permissionId   Permission id.
+         * @param prerequisiteId Permission id of the prerequisite.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder requires(int permissionId, int prerequisiteId) {
+            Declaration declaration = declarationOf(permissionId);
+            if (!contains(declaration.prerequisites, prerequisiteId)) {
+                int[] prerequisites = Arrays.copyOf(declaration.prerequisites, declaration.prerequisites.length + 1);
+                prerequisites[prerequisites.length - 1] = prerequisiteId;
+                declaration.prerequisites = prerequisites;
+            }
+            declarationOf(prerequisiteId);
+            return this;
+        }
+
+        private Declaration declarationOf(int permissionId) {
+            for (Declaration declaration : mDeclarations) {
+                if (declaration.id == permissionId)
+                    return declaration;
+            }
+            Declaration declaration = new Declaration(permissionId);
+            mDeclarations.add(declaration);
+            return declaration;
+        }
+
+        /**
+         * @return The immutable schedule holding the declarations made so far.
+         * @throws IllegalStateException if a permission requires itself, directly or through its prerequisites.
+         */
+        @NonNull
+        public PermissionSchedule build() {
+            int size = mDeclarations.size();
+            Declaration[] declarations = mDeclarations.toArray(new Declaration[size]);
+            Arrays.sort(declarations, new Comparator<Declaration>() {
+                @Override
+                public int compare(Declaration first, Declaration second) {
+                    return first.id < second.id ? -1 : (first.id == second.id ? 0 : 1);
+                }
+            });
+
+            int[] ids = new int[size];
+            int[] priorities = new int[size];
+            boolean[] optionals = new boolean[size];
+            int[][] prerequisites = new int[size][];
+            for (int i = 0; i < size; i++) {
+                ids[i] = declarations[i].id;
+                priorities[i] = declarations[i].priority;
+                optionals[i] = declarations[i].isOptional;
+                prerequisites[i] = declarations[i].prerequisites.clone();
+            }
+
+            PermissionSchedule schedule = new PermissionSchedule(ids, priorities, optionals, prerequisites);
+            byte[] visits = new byte[size];
+            for (int i = 0; i < size; i++)
+                checkNoCycle(schedule, i, visits);
+            return schedule;
+        }
+
+        /**
+         * Depth first walk of the prerequisites, 1 marks a permission on the current path and 2 a permission done.
+         */
+        private static void checkNoCycle(PermissionSchedule schedule, int index, byte[] visits) {
+            if (visits[index] == 2)
+                return;
+            if (visits[index] == 1)
+                throw new IllegalStateException("Permission " + schedule.mIds[index] + " requires itself");
+
+            visits[index] = 1;
+            for (int prerequisiteId : schedule.mPrerequisites[index])
+                checkNoCycle(schedule, Arrays.binarySearch(schedule.mIds, prerequisiteId), visits);
+            visits[index] = 2;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Ordered set of the permissions checked by a {@link PermissionFlow}, each permission mapped to its unique id.
+ *
+ * @author Half-Blood-Prince
+ */
+public interface PermissionSet {
+
+    /**
+     * @return The number of permissions in this set.
+     */
+    int size();
+
+    /**
+     * @param index Index of the permission, between 0 and {@link #size()} - 1.
+     * @return The permission id at the {@code index}.
+     */
+    int idAt(int index);
+
+    /**
+     * @param index Index of the permission, between 0 and {@link #size()} - 1.
+     * @return The permission string at the {@code index}.
+     */
+    @NonNull
+    String permissionAt(int index);
+
+    /**
+     * @param permissionId Permission id to look up.
+     * @return The index of the permission, -1 if the id is not in this set.
+     */
+    int indexOf(int permissionId);
+}
@@ -0,0 +1,19 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.IntDef;
+
+/**
+ * Result of a permission at the end of a run.
+ *
+ * @author Half-Blood-Prince
+ */
+@IntDef({ResultState.GRANTED, ResultState.DENIED, ResultState.DENIED_COMPLETELY})
+public @interface ResultState {
+    int GRANTED = 0x01;
+    int DENIED = 0x02;
+
+    /**
+     * The user denied the permission and asked never to be asked again.
+     */
+    int DENIED_COMPLETELY = 0x03;
+}
@@ -0,0 +1,72 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link IntQueue}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class IntQueueTest {
+
+    @Test
+    public void elements_arePolledInInsertionOrder() {
+        IntQueue queue = new IntQueue();
+        queue.add(0xA0);
+        queue.add(0xA1);
+        queue.add(0xA2);
+
+        assertEquals(3, queue.size());
+        assertEquals(0xA1, queue.get(1));
+        assertEquals(0xA0, queue.poll());
+        assertEquals(0xA1, queue.peek());
+        assertEquals(0xA1, queue.poll());
+        assertEquals(0xA2, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void queueWrappedAroundTheRing_keepsItsOrderWhileGrowing() {
+        IntQueue queue = new IntQueue();
+        for (int i = 0; i < 6; i++)
+            queue.add(0xA0 + i);
+        for (int i = 0; i < 4; i++)
+            queue.poll();
+        // The tail wraps past the end of the ring before it grows.
+        for (int i = 6; i < 20; i++)
+            queue.add(0xA0 + i);
+
+        assertEquals(16, queue.size());
+        for (int i = 4; i < 20; i++)
+            assertEquals(0xA0 + i, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void clear_emptiesTheQueue() {
+        IntQueue queue = new IntQueue();
+        queue.add(0xA0);
+        queue.clear();
+
+        assertTrue(queue.isEmpty());
+        queue.add(0xA1);
+        assertEquals(0xA1, queue.peek());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void peekOnEmptyQueue_throws() {
+        new IntQueue().peek();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastSize_throws() {
+        IntQueue queue = new IntQueue();
+        queue.add(0xA0);
+        queue.get(1);
+    }
+}
@@ -0,0 +1,788 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionFlow}, a fake platform stands in for Android and the calling thread for the
+ * main thread.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionFlowTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * System requests waiting for the answer of the user, shared by all the platforms of a test.
+     */
+    private final ArrayDeque<PendingRequest> mPendingRequests = new ArrayDeque<>();
+
+    private final List<PermissionFlow<String>> mFlows = new ArrayList<>();
+
+    @After
+    public void releaseFlows() {
+        // The arbiter is process wide, drop whatever a failed test left behind.
+        for (PermissionFlow<String> flow : mFlows)
+            flow.release();
+    }
+
+    @Test
+    public void singleGrantedPermission_isReportedWithoutAsking() {
+        FakePlatform platform = new FakePlatform();
+        platform.granted.add("p0");
+        RecordingListener listener = new RecordingListener();
+
+        newFlow(set(1), platform, listener).submit("run");
+
+        assertEquals("run:0:1", listener.single.get(0));
+        assertEquals(0, platform.requestCount);
+    }
+
+    @Test
+    public void group_resolvesEveryPermissionInOrder() {
+        FakePlatform platform = new FakePlatform();
+        platform.granted.add("p0");
+        platform.grantOnRequest.add("p1");
+        platform.neverAskAgain.add("p2");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(4), platform, listener);
+        flow.submit("run");
+        answerAll();
+
+        assertEquals("run[0:1, 1:1, 2:3, 3:2]", listener.groups.get(0));
+        assertEquals(4, listener.resolved);
+        assertEquals(3, platform.requestCount);
+    }
+
+    @Test
+    public void declinedRationale_isReportedAsDeniedWithoutAsking() {
+        FakePlatform platform = new FakePlatform();
+        platform.deniedBefore.add("p0");
+        platform.acceptRationale = false;
+        RecordingListener listener = new RecordingListener();
+
+        newFlow(set(1), platform, listener).submit("run");
+
+        assertEquals("run:0:2", listener.single.get(0));
+        assertEquals(1, platform.rationaleCount);
+        assertEquals(0, platform.requestCount);
+    }
+
+    @Test
+    public void installTimeModel_grantsEverythingWithoutAsking() {
+        FakePlatform platform = new FakePlatform();
+        platform.runtimePermissionModel = false;
+        RecordingListener listener = new RecordingListener();
+
+        newFlow(set(3), platform, listener).submit("run");
+
+        assertEquals("run[0:1, 1:1, 2:1]", listener.groups.get(0));
+        assertEquals(0, platform.requestCount);
+    }
+
+    @Test
+    public void emptySet_finishesTheRun() {
+        RecordingListener listener = new RecordingListener();
+        PermissionFlow<String> flow = newFlow(set(0), new FakePlatform(), listener);
+
+        flow.submit("a");
+        flow.submit("b");
+
+        assertEquals("[a, b]", listener.empty.toString());
+    }
+
+    @Test
+    public void runsSubmittedDuringARun_startOnceItIsFinished() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(1), platform, listener);
+        flow.submit("a");
+        flow.submit("b");
+        assertEquals(1, mPendingRequests.size());
+        answerAll();
+
+        assertEquals("[a:0:1, b:0:1]", listener.single.toString());
+        // The second run finds the permission granted by the first one.
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void flowsAskingTheSamePermission_shareOneRequest() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        newFlow(set(1), platform, first).submit("first");
+        newFlow(set(1), platform, second).submit("second");
+        answerAll();
+
+        assertEquals(1, platform.requestCount);
+        assertEquals("first:0:1", first.single.get(0));
+        assertEquals("second:0:1", second.single.get(0));
+    }
+
+    @Test
+    public void batchMode_asksOnceForEveryPendingPermission() {
+        int size = 1000;
+        FakePlatform platform = new FakePlatform();
+        for (int i = 0; i < size; i++) {
+            String permission = "p" + i;
+            if (i % 4 == 0)
+                platform.granted.add(permission);
+            else if (i % 4 == 1)
+                platform.grantOnRequest.add(permission);
+            else if (i % 4 == 2)
+                platform.deniedBefore.add(permission);
+            else
+                platform.neverAskAgain.add(permission);
+        }
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(size), platform, listener);
+        flow.setBatchRequestEnabled(true);
+        flow.submit("run");
+        answerAll();
+
+        assertEquals(1, platform.requestCount);
+        assertEquals(size / 4, platform.rationaleCount);
+        // Every permission of the batch reaches the listener once, like in the serial mode.
+        assertEquals(size, listener.resolved);
+        int[] counts = listener.lastGroupCounts;
+        assertEquals(size / 2, counts[ResultState.GRANTED]);
+        assertEquals(size / 4, counts[ResultState.DENIED]);
+        assertEquals(size / 4, counts[ResultState.DENIED_COMPLETELY]);
+    }
+
+    @Test
+    public void manyRuns_eachGetsItsOwnResult() {
+        int runs = 1000;
+        int size = 50;
+        FakePlatform platform = new FakePlatform();
+        for (int i = 0; i < size; i += 2)
+            platform.grantOnRequest.add("p" + i);
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(size), platform, listener);
+        for (int run = 0; run < runs; run++)
+            flow.submit("run" + run);
+        answerAll();
+
+        assertEquals(runs, listener.groups.size());
+        assertTrue(listener.groups.get(runs - 1).startsWith("run" + (runs - 1) + "["));
+        assertEquals(size / 2, listener.lastGroupCounts[ResultState.GRANTED]);
+        assertEquals(size / 2, listener.lastGroupCounts[ResultState.DENIED]);
+        assertEquals(runs * size, listener.resolved);
+    }
+
+    @Test
+    public void metrics_recordTimingsAndOutcomesOfTheRun() {
+        FakePlatform platform = new FakePlatform();
+        platform.granted.add("p0");
+        platform.grantOnRequest.add("p1");
+        platform.deniedBefore.add("p2");
+        RecordingListener listener = new RecordingListener();
+        PermissionMetrics metrics = new PermissionMetrics();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        flow.setMetrics(metrics);
+        flow.submit("run");
+        answerAll();
+
+        PermissionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getHistogram(PermissionMetrics.Metric.REQUEST_LATENCY).getCount());
+        assertEquals(1, snapshot.getHistogram(PermissionMetrics.Metric.RATIONALE_DWELL).getCount());
+        assertEquals(1, snapshot.getHistogram(PermissionMetrics.Metric.GROUP_TIME).getCount());
+        assertEquals(2, snapshot.getOutcomeCount(ResultState.GRANTED));
+        assertEquals(1, snapshot.getOutcomeCount(ResultState.DENIED));
+
+        flow.setMetrics(null);
+        flow.submit("unmeasured");
+        answerAll();
+        assertEquals(1, metrics.snapshot().getHistogram(PermissionMetrics.Metric.GROUP_TIME).getCount());
+    }
+
+    @Test
+    public void resultOfAnotherRequest_leavesTheRunUntouched() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener listener = new RecordingListener();
+        PermissionMetrics metrics = new PermissionMetrics();
+        PermissionJournal journal = new PermissionJournal(64);
+
+        PermissionFlow<String> flow = newFlow(set(2), platform, listener);
+        flow.setMetrics(metrics);
+        flow.setJournal(journal);
+        flow.submit("run");
+        int[] runState = flow.saveRunState();
+        // The host forwards every result, e.g the one of another helper of the same activity.
+        flow.onRequestPermissionsResult(7, new String[]{"p7"}, new int[]{PermissionPlatform.PERMISSION_DENIED});
+
+        assertArrayEquals(runState, flow.saveRunState());
+        assertEquals(0, metrics.snapshot().getHistogram(PermissionMetrics.Metric.REQUEST_LATENCY).getCount());
+        assertFalse(journal.dumpText().contains("RESULT"));
+
+        answerAll();
+        assertEquals("run[0:1, 1:2]", listener.groups.get(0));
+        assertEquals(2, metrics.snapshot().getHistogram(PermissionMetrics.Metric.REQUEST_LATENCY).getCount());
+    }
+
+    @Test
+    public void history_resolvesKnownDeniedCompletelyWithoutAsking() throws Exception {
+        File file = File.createTempFile("history", ".bin");
+        assertTrue(file.delete());
+        FakePlatform platform = new FakePlatform();
+        platform.neverAskAgain.add("p1");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(2), platform, listener);
+        flow.setHistory(new PermissionHistory(file, DIRECT));
+        flow.submit("first");
+        answerAll();
+        assertEquals("first[0:2, 1:3]", listener.groups.get(0));
+        assertEquals(2, platform.requestCount);
+
+        // The system confirmed the denial in this process, only p0 is asked again.
+        flow.setBatchRequestEnabled(true);
+        flow.submit("second");
+        answerAll();
+
+        assertEquals("second[1:3, 0:2]", listener.groups.get(1));
+        assertEquals(3, platform.requestCount);
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void historyOfAPreviousProcess_letsOneRequestThrough() throws Exception {
+        File file = File.createTempFile("history", ".bin");
+        assertTrue(file.delete());
+        FakePlatform platform = new FakePlatform();
+        platform.neverAskAgain.add("p0");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(1), platform, listener);
+        flow.setHistory(new PermissionHistory(file, DIRECT));
+        flow.submit("first");
+        answerAll();
+        assertEquals(1, platform.requestCount);
+
+        // The user resets the app preferences, the permission looks the same to the platform until it is asked.
+        platform.neverAskAgain.clear();
+        platform.grantOnRequest.add("p0");
+        flow = newFlow(set(1), platform, listener);
+        flow.setHistory(new PermissionHistory(file, DIRECT));
+        flow.submit("afterReset");
+        answerAll();
+
+        assertEquals("[first:0:3, afterReset:0:1]", listener.single.toString());
+        assertEquals(2, platform.requestCount);
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void historyOfAPreviousProcess_isTrustedOnceConfirmed() throws Exception {
+        File file = File.createTempFile("history", ".bin");
+        assertTrue(file.delete());
+        FakePlatform platform = new FakePlatform();
+        platform.neverAskAgain.add("p0");
+        RecordingListener listener = new RecordingListener();
+        PermissionHistory previous = new PermissionHistory(file, DIRECT);
+        previous.recordRequest(new String[]{"p0"});
+        previous.recordResult("p0", ResultState.DENIED_COMPLETELY);
+
+        // A new process asks once, the system answers with the same denial which is trusted from then on.
+        PermissionFlow<String> flow = newFlow(set(1), platform, listener);
+        flow.setHistory(new PermissionHistory(file, DIRECT));
+        flow.submit("confirming");
+        answerAll();
+        flow.submit("trusted");
+        answerAll();
+
+        assertEquals("[confirming:0:3, trusted:0:3]", listener.single.toString());
+        assertEquals(1, platform.requestCount);
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void restoredGroupRun_awaitsTheRequestInFlightAndAsksNothingAgain() {
+        FakePlatform platform = new FakePlatform();
+        platform.granted.add("p0");
+        platform.grantOnRequest.add("p1");
+        platform.neverAskAgain.add("p2");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        assertNull(flow.saveRunState());
+        flow.submit("run");
+        int[] runState = flow.saveRunState();
+        assertNotNull(runState);
+
+        // The process dies while the system dialog of p1 is up, the new process receives its result.
+        flow.release();
+        PermissionFlow<String> restoredFlow = newFlow(set(3), platform, listener);
+        assertTrue(restoredFlow.restoreRunState(runState, "restored"));
+        assertFalse(restoredFlow.restoreRunState(runState, "again"));
+        answerAll(restoredFlow);
+
+        assertEquals("[restored[0:1, 1:1, 2:3]]", listener.groups.toString());
+        assertEquals(2, platform.requestCount);
+    }
+
+    @Test
+    public void restoredBatchRun_awaitsTheBatchRequestInFlight() {
+        FakePlatform platform = new FakePlatform();
+        platform.granted.add("p0");
+        platform.grantOnRequest.add("p1");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        flow.setBatchRequestEnabled(true);
+        flow.submit("run");
+        int[] runState = flow.saveRunState();
+
+        flow.release();
+        PermissionFlow<String> restoredFlow = newFlow(set(3), platform, listener);
+        assertTrue(restoredFlow.restoreRunState(runState, "restored"));
+        answerAll(restoredFlow);
+
+        assertEquals("[restored[0:1, 1:1, 2:2]]", listener.groups.toString());
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void restoredRunWithoutRequestInFlight_checksTheCurrentPermissionAgain() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p1");
+        RecordingListener listener = new RecordingListener();
+
+        // p0 is resolved, p1 was waiting for its turn when the process died.
+        int[] runState = {1, 0x01, -1, 1, 0, ResultState.DENIED, 1, 1};
+        PermissionFlow<String> flow = newFlow(set(2), platform, listener);
+        assertTrue(flow.restoreRunState(runState, "restored"));
+        answerAll();
+
+        assertEquals("[restored[0:2, 1:1]]", listener.groups.toString());
+        assertEquals(1, platform.requestCount);
+        assertEquals(2, listener.resolved);
+    }
+
+    @Test
+    public void runStateOfAnotherSet_isRejected() {
+        RecordingListener listener = new RecordingListener();
+        PermissionFlow<String> flow = newFlow(set(2), new FakePlatform(), listener);
+
+        assertFalse(flow.restoreRunState(new int[]{1, 0x01, -1, 1, 5, ResultState.DENIED, 1, 1}, "id"));
+        assertFalse(flow.restoreRunState(new int[]{1, 0x01, -1, 0, 1, 2}, "pending"));
+        assertFalse(flow.restoreRunState(new int[]{1, 0x01, -1, 1, 0, 7, 1, 1}, "state"));
+        assertFalse(flow.restoreRunState(new int[]{2, 0x01, -1, 0, 1, 1}, "version"));
+        assertFalse(flow.restoreRunState(new int[]{1, 0x01, -1, 0, 0}, "empty"));
+        assertEquals(0, listener.groups.size());
+    }
+
+    @Test
+    public void schedule_skipsTheDependentOfADeniedPrerequisite() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p1");
+        platform.grantOnRequest.add("p2");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        flow.setSchedule(new PermissionSchedule.Builder().priority(1, 10).requires(2, 0).build());
+        flow.submit("run");
+        answerAll();
+
+        assertEquals("[run[1:1, 0:2, 2:2]]", listener.groups.toString());
+        assertEquals(2, platform.requestCount);
+    }
+
+    @Test
+    public void scheduleInBatchMode_requestsTheDependentsInTheNextBatch() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        platform.grantOnRequest.add("p1");
+        platform.grantOnRequest.add("p2");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        flow.setBatchRequestEnabled(true);
+        flow.setSchedule(new PermissionSchedule.Builder().requires(2, 0).build());
+        flow.submit("run");
+        answerAll();
+
+        assertEquals("[run[0:1, 1:1, 2:1]]", listener.groups.toString());
+        assertEquals(2, platform.requestCount);
+    }
+
+    @Test
+    public void scheduleInBatchMode_skipsTheDependentsOfTheDeniedBatch() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p1");
+        platform.grantOnRequest.add("p2");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(3), platform, listener);
+        flow.setBatchRequestEnabled(true);
+        flow.setSchedule(new PermissionSchedule.Builder().requires(2, 0).build());
+        flow.submit("run");
+        answerAll();
+
+        assertEquals("[run[0:2, 1:1, 2:2]]", listener.groups.toString());
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void schedule_doesNotAskADeniedOptionalPermissionAgain() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        platform.deniedBefore.add("p1");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(2), platform, listener);
+        flow.setSchedule(new PermissionSchedule.Builder().optional(1).build());
+        flow.submit("run");
+        answerAll();
+
+        assertEquals("[run[0:1, 1:2]]", listener.groups.toString());
+        assertEquals(0, platform.rationaleCount);
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void runsSubmittedWithinTheCoalescingWindow_joinTheRunInProgress() {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        platform.grantOnRequest.add("p1");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(2), platform, listener);
+        flow.setCoalescingWindow(60_000);
+        flow.submit("tap");
+        flow.submit("doubleTap");
+        flow.submit("tripleTap");
+        answerAll();
+
+        assertEquals("[tap[0:1, 1:1]]", listener.groups.toString());
+        assertEquals("[doubleTap, tripleTap]", listener.joined.toString());
+        assertEquals(2, platform.requestCount);
+    }
+
+    @Test
+    public void runsSubmittedAfterTheCoalescingWindow_startOnceTheRunIsFinished() throws Exception {
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener listener = new RecordingListener();
+
+        PermissionFlow<String> flow = newFlow(set(1), platform, listener);
+        flow.setCoalescingWindow(1);
+        flow.submit("first");
+        Thread.sleep(5);
+        flow.submit("late");
+        answerAll();
+
+        assertEquals("[first:0:1, late:0:1]", listener.single.toString());
+        assertEquals(0, listener.joined.size());
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void hostGoneWithoutRelease_doesNotBlockTheNextRequester() {
+        FakePlatform gonePlatform = new FakePlatform();
+        RecordingListener goneListener = new RecordingListener();
+        newFlow(set(1), gonePlatform, goneListener).submit("gone");
+
+        // The activity finishes while the system dialog is up, its flow is never released nor answered.
+        gonePlatform.hostAlive = false;
+        mPendingRequests.clear();
+
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener listener = new RecordingListener();
+        newFlow(set(1), platform, listener).submit("next");
+        answerAll();
+
+        assertEquals("[next:0:1]", listener.single.toString());
+        assertEquals(1, platform.requestCount);
+        assertEquals(0, goneListener.single.size());
+    }
+
+    @Test
+    public void hostDestroyed_servesTheRequesterMergedWithIt() {
+        FakePlatform gonePlatform = new FakePlatform();
+        newFlow(set(1), gonePlatform, new RecordingListener()).submit("gone");
+        FakePlatform platform = new FakePlatform();
+        platform.grantOnRequest.add("p0");
+        RecordingListener listener = new RecordingListener();
+        newFlow(set(1), platform, listener).submit("merged");
+        assertEquals(0, platform.requestCount);
+
+        gonePlatform.hostAlive = false;
+        mPendingRequests.clear();
+        PermissionRequestArbiter.getInstance().onHostDestroyed();
+        answerAll();
+
+        assertEquals("[merged:0:1]", listener.single.toString());
+        assertEquals(1, platform.requestCount);
+    }
+
+    @Test
+    public void journal_recordsEveryTransition() {
+        FakePlatform platform = new FakePlatform();
+        platform.deniedBefore.add("p0");
+        platform.grantOnRequest.add("p0");
+        PermissionJournal journal = new PermissionJournal(64);
+
+        PermissionFlow<String> flow = newFlow(set(1), platform, new RecordingListener());
+        flow.setJournal(journal);
+        flow.submit("run");
+        answerAll();
+        flow.release();
+
+        StringBuilder events = new StringBuilder();
+        for (String line : journal.dumpText().split("\n")) {
+            if (line.contains(" id="))
+                events.append(line.substring(line.indexOf(' ', line.indexOf('#')) + 1)).append('\n');
+        }
+        assertEquals(""
+                + "QUEUED id=- value=0\n"
+                + "STARTED id=- value=0\n"
+                + "CHECKED id=0x0 value=0\n"
+                + "RATIONALE_SHOWN id=0x0 value=0\n"
+                + "RATIONALE_ANSWERED id=0x0 value=1\n"
+                + "REQUESTED id=0x0 value=1\n"
+                + "RESULT id=0x0 value=1\n"
+                + "RESOLVED id=0x0 value=1\n"
+                + "DISPATCHED id=0x0 value=1\n"
+                + "RELEASED id=- value=0\n", events.toString());
+    }
+
+    private PermissionFlow<String> newFlow(PermissionSet permissions, FakePlatform platform,
+                                           RecordingListener listener) {
+        FlowPlatform flowPlatform = new FlowPlatform(platform);
+        PermissionFlow<String> flow = new PermissionFlow<>(DIRECT, permissions, flowPlatform, listener);
+        flowPlatform.flow = flow;
+        mFlows.add(flow);
+        return flow;
+    }
+
+    /**
+     * Answer the pending system requests like the user would, until no request is left.
+     */
+    private void answerAll() {
+        answerAll(null);
+    }
+
+    /**
+     * @param target Flow receiving every answer, i.e the flow restored in a new process, null to answer the flow
+     *               which made the request.
+     */
+    private void answerAll(PermissionFlow<String> target) {
+        PendingRequest request;
+        while (null != (request = mPendingRequests.poll())) {
+            FakePlatform platform = request.platform;
+            int[] grantResults = new int[request.permissions.length];
+            for (int i = 0; i < grantResults.length; i++) {
+                String permission = request.permissions[i];
+                if (platform.grantOnRequest.contains(permission)) {
+                    platform.granted.add(permission);
+                    grantResults[i] = PermissionPlatform.PERMISSION_GRANTED;
+                } else {
+                    if (!platform.neverAskAgain.contains(permission))
+                        platform.deniedBefore.add(permission);
+                    grantResults[i] = PermissionPlatform.PERMISSION_DENIED;
+                }
+            }
+            (null != target ? target : request.flow).onRequestPermissionsResult(request.requestCode,
+                    request.permissions, grantResults);
+        }
+    }
+
+    /**
+     * @return A set of {@code size} permissions, permission "p<i>" having the id i.
+     */
+    static PermissionSet set(final int size) {
+        return new PermissionSet() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public int idAt(int index) {
+                return index;
+            }
+
+            @NonNull
+            @Override
+            public String permissionAt(int index) {
+                return "p" + index;
+            }
+
+            @Override
+            public int indexOf(int permissionId) {
+                return permissionId >= 0 && permissionId < size ? permissionId : -1;
+            }
+        };
+    }
+
+    private static final class PendingRequest {
+
+        final FakePlatform platform;
+
+        final PermissionFlow<String> flow;
+
+        final String[] permissions;
+
+        final int requestCode;
+
+        PendingRequest(FakePlatform platform, PermissionFlow<String> flow, String[] permissions, int requestCode) {
+            this.platform = platform;
+            this.flow = flow;
+            this.permissions = permissions;
+            this.requestCode = requestCode;
+        }
+    }
+
+    /**
+     * State of the permissions on the device and the answers of the user.
+     */
+    private static final class FakePlatform {
+
+        boolean runtimePermissionModel = true;
+
+        boolean acceptRationale = true;
+
+        boolean hostAlive = true;
+
+        final Set<String> granted = new HashSet<>();
+
+        final Set<String> grantOnRequest = new HashSet<>();
+
+        final Set<String> deniedBefore = new HashSet<>();
+
+        final Set<String> neverAskAgain = new HashSet<>();
+
+        int requestCount;
+
+        int rationaleCount;
+    }
+
+    /**
+     * Platform of a single flow, the system requests are queued until {@link #answerAll()}.
+     */
+    private final class FlowPlatform implements PermissionPlatform {
+
+        private final FakePlatform mDevice;
+
+        PermissionFlow<String> flow;
+
+        FlowPlatform(FakePlatform device) {
+            mDevice = device;
+        }
+
+        @Override
+        public boolean isRuntimePermissionModel() {
+            return mDevice.runtimePermissionModel;
+        }
+
+        @Override
+        public boolean isGranted(@NonNull String permission) {
+            return mDevice.granted.contains(permission);
+        }
+
+        @Override
+        public boolean shouldShowRationale(@NonNull String permission) {
+            return mDevice.deniedBefore.contains(permission);
+        }
+
+        @Override
+        public void showRationale(int permissionId, @NonNull RationaleCallback callback) {
+            mDevice.rationaleCount++;
+            callback.onRationaleResult(mDevice.acceptRationale);
+        }
+
+        @Override
+        public void requestPermissions(@NonNull String[] permissions, int requestCode) {
+            mDevice.requestCount++;
+            mPendingRequests.add(new PendingRequest(mDevice, flow, permissions, requestCode));
+        }
+
+        @Override
+        public boolean isHostAlive() {
+            return mDevice.hostAlive;
+        }
+    }
+
+    private static final class RecordingListener implements PermissionFlow.Listener<String> {
+
+        final List<String> single = new ArrayList<>();
+
+        final List<String> groups = new ArrayList<>();
+
+        final List<String> empty = new ArrayList<>();
+
+        final List<String> joined = new ArrayList<>();
+
+        int[] lastGroupCounts;
+
+        int resolved;
+
+        @Override
+        public void onPermissionResolved(int permissionId, int resultState) {
+            resolved++;
+        }
+
+        @Override
+        public void onSingleResult(@NonNull String token, int permissionId, int resultState) {
+            single.add(token + ":" + permissionId + ":" + resultState);
+        }
+
+        @Override
+        public void onGroupResult(@NonNull String token, @NonNull PermissionGroupResult groupResult) {
+            lastGroupCounts = new int[ResultState.DENIED_COMPLETELY + 1];
+            StringBuilder group = new StringBuilder(token).append('[');
+            for (int i = 0; i < groupResult.size(); i++) {
+                lastGroupCounts[groupResult.getResult(i)]++;
+                if (groupResult.size() <= 8)
+                    group.append(i == 0 ? "" : ", ").append(groupResult.getRequestId(i)).append(':')
+                            .append(groupResult.getResult(i));
+            }
+            groups.add(group.append(']').toString());
+        }
+
+        @Override
+        public void onEmptyRun(@NonNull String token) {
+            empty.add(token);
+        }
+
+        @Override
+        public void onRunJoined(@NonNull String token) {
+            joined.add(token);
+        }
+    }
+}
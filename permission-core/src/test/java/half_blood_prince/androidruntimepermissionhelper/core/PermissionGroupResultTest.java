@@ -0,0 +1,85 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionGroupResult}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionGroupResultTest {
+
+    private static final int GROUP_SIZE = 6;
+
+    private static final int RUNS = 100_000;
+
+    @Test
+    public void results_areReadBackByIndex() {
+        PermissionGroupResult groupResult = new PermissionGroupResult(1);
+        groupResult.add(0xA0, ResultState.GRANTED);
+        groupResult.add(0xA1, ResultState.DENIED_COMPLETELY);
+        groupResult.add(0xA2, ResultState.DENIED);
+
+        assertEquals(3, groupResult.size());
+        assertEquals(0xA1, groupResult.getRequestId(1));
+        assertTrue(groupResult.isPermissionDeniedCompletely(1));
+
+        groupResult.clear();
+        assertEquals(0, groupResult.size());
+    }
+
+    @Test
+    public void copy_isNotClearedWithTheGroup() {
+        PermissionGroupResult groupResult = new PermissionGroupResult(1);
+        groupResult.add(0xA0, ResultState.GRANTED);
+        groupResult.add(0xA1, ResultState.DENIED);
+
+        PermissionGroupResult copy = groupResult.copy();
+        groupResult.clear();
+        groupResult.add(0xA2, ResultState.DENIED_COMPLETELY);
+
+        assertEquals(2, copy.size());
+        assertEquals(0xA1, copy.getRequestId(1));
+        assertEquals(ResultState.DENIED, copy.getResult(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastSize_throws() {
+        new PermissionGroupResult(4).getResult(0);
+    }
+
+    @Test
+    public void steadyStateRun_allocatesNothing() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        PermissionGroupResult groupResult = new PermissionGroupResult(1);
+
+        // First run grows the arrays, every run after that must reuse them.
+        long checksum = runGroup(groupResult);
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int run = 0; run < RUNS; run++)
+            checksum += runGroup(groupResult);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertTrue(checksum > 0);
+        // Allow the few bytes the measurement itself may cost, one allocation per run would be megabytes.
+        assertTrue("Allocated " + allocated + " bytes in " + RUNS + " runs", allocated < 1024);
+    }
+
+    private static long runGroup(PermissionGroupResult groupResult) {
+        groupResult.clear();
+        for (int i = 0; i < GROUP_SIZE; i++)
+            groupResult.add(0xA0 + i, ResultState.GRANTED + i % 3);
+
+        long checksum = 0;
+        for (int i = 0; i < groupResult.size(); i++)
+            checksum += groupResult.getRequestId(i) + groupResult.getResult(i);
+        return checksum;
+    }
+}
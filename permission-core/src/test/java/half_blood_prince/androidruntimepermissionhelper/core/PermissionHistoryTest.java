@@ -0,0 +1,148 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionHistory}, the log is written on the calling thread.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionHistoryTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("history", ".bin");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void deleteFile() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Test
+    public void history_survivesTheProcess() {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordRequest(new String[]{"camera", "contacts"});
+        history.recordResult("camera", ResultState.GRANTED);
+        history.recordResult("contacts", ResultState.DENIED);
+        history.recordRequest(new String[]{"contacts"});
+        history.recordResult("contacts", ResultState.DENIED_COMPLETELY);
+
+        PermissionHistory reloaded = new PermissionHistory(mFile, DIRECT);
+        assertEquals(ResultState.GRANTED, reloaded.getLastState("camera"));
+        assertEquals(1, reloaded.getRequestCount("camera"));
+        assertEquals(ResultState.DENIED_COMPLETELY, reloaded.getLastState("contacts"));
+        assertEquals(2, reloaded.getRequestCount("contacts"));
+        assertTrue(reloaded.getLastResultMillis("contacts") >= reloaded.getLastRequestMillis("contacts"));
+        assertEquals(PermissionHistory.NO_STATE, reloaded.getLastState("location"));
+        assertEquals(0, reloaded.getRequestCount("location"));
+    }
+
+    @Test
+    public void resultOfAPreviousProcess_isNotConfirmed() {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordRequest(new String[]{"camera"});
+        history.recordResult("camera", ResultState.DENIED_COMPLETELY);
+        assertTrue(history.isLastStateConfirmed("camera"));
+
+        PermissionHistory reloaded = new PermissionHistory(mFile, DIRECT);
+        assertFalse(reloaded.isLastStateConfirmed("camera"));
+        // The same result without a request is not a confirmation, the answer of a request is.
+        reloaded.recordResult("camera", ResultState.DENIED_COMPLETELY);
+        assertFalse(reloaded.isLastStateConfirmed("camera"));
+        reloaded.recordRequest(new String[]{"camera"});
+        reloaded.recordResult("camera", ResultState.DENIED_COMPLETELY);
+        assertTrue(reloaded.isLastStateConfirmed("camera"));
+        assertFalse(reloaded.isLastStateConfirmed("location"));
+    }
+
+    @Test
+    public void unchangedResult_isNotWrittenAgain() {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordResult("camera", ResultState.GRANTED);
+        long length = mFile.length();
+
+        for (int i = 0; i < 10; i++)
+            history.recordResult("camera", ResultState.GRANTED);
+
+        assertEquals(length, mFile.length());
+    }
+
+    @Test
+    public void log_isCompactedOnceMostlyStale() {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordResult("camera", ResultState.GRANTED);
+        long compactLength = mFile.length();
+
+        long maxLength = 0;
+        for (int i = 0; i < 1000; i++) {
+            history.recordRequest(new String[]{"camera"});
+            history.recordResult("camera", i % 2 == 0 ? ResultState.DENIED : ResultState.GRANTED);
+            maxLength = Math.max(maxLength, mFile.length());
+        }
+
+        // Never more than the compaction threshold of records, i.e nowhere near the 2000 records written.
+        assertTrue("Log grew to " + maxLength + " bytes", maxLength < 64 * compactLength);
+        PermissionHistory reloaded = new PermissionHistory(mFile, DIRECT);
+        assertEquals(ResultState.GRANTED, reloaded.getLastState("camera"));
+        assertEquals(1000, reloaded.getRequestCount("camera"));
+    }
+
+    @Test
+    public void tornTail_isDroppedAndRewritten() throws IOException {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordResult("camera", ResultState.GRANTED);
+        history.recordResult("contacts", ResultState.DENIED);
+        long length = mFile.length();
+
+        // The process died in the middle of appending a record.
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 8, 'l', 'o', 'c'});
+        out.close();
+
+        PermissionHistory reloaded = new PermissionHistory(mFile, DIRECT);
+        assertEquals(ResultState.DENIED, reloaded.getLastState("contacts"));
+        reloaded.recordResult("location", ResultState.DENIED_COMPLETELY);
+        assertTrue(mFile.length() > length);
+
+        PermissionHistory again = new PermissionHistory(mFile, DIRECT);
+        assertEquals(ResultState.GRANTED, again.getLastState("camera"));
+        assertEquals(ResultState.DENIED_COMPLETELY, again.getLastState("location"));
+    }
+
+    @Test
+    public void clear_forgetsEverything() {
+        PermissionHistory history = new PermissionHistory(mFile, DIRECT);
+        history.recordRequest(new String[]{"camera"});
+        history.recordResult("camera", ResultState.DENIED_COMPLETELY);
+
+        history.clear();
+
+        assertEquals(PermissionHistory.NO_STATE, history.getLastState("camera"));
+        assertEquals(PermissionHistory.NO_STATE, new PermissionHistory(mFile, DIRECT).getLastState("camera"));
+    }
+}
@@ -0,0 +1,144 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionJournal}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionJournalTest {
+
+    private static final int WRITERS = 8;
+
+    private static final int EVENTS_PER_WRITER = 50_000;
+
+    @Test
+    public void record_isPackedIntoASingleLong() {
+        long record = PermissionJournal.pack(PermissionJournal.Event.RESOLVED, 0x1234, 0xA0, 3);
+
+        assertEquals(PermissionJournal.Event.RESOLVED, PermissionJournal.eventOf(record));
+        assertEquals(0x1234, PermissionJournal.flowIdOf(record));
+        assertEquals(0xA0, PermissionJournal.permissionIdOf(record));
+        assertEquals(3, PermissionJournal.valueOf(record));
+
+        record = PermissionJournal.pack(PermissionJournal.Event.QUEUED, 0x10000, PermissionJournal.NO_PERMISSION_ID,
+                1000);
+        assertEquals(PermissionJournal.NO_PERMISSION_ID, PermissionJournal.permissionIdOf(record));
+        assertEquals(0, PermissionJournal.flowIdOf(record));
+        assertEquals(0xFF, PermissionJournal.valueOf(record));
+    }
+
+    @Test
+    public void fullJournal_keepsTheLatestEvents() {
+        PermissionJournal journal = new PermissionJournal(6);
+        assertEquals(8, journal.getCapacity());
+        for (int i = 0; i < 20; i++)
+            journal.record(PermissionJournal.Event.CHECKED, 1, i, 1);
+
+        String[] lines = journal.dumpText().split("\n");
+        assertEquals("PermissionJournal 8 of 20 events", lines[0]);
+        assertEquals(9, lines.length);
+        assertTrue(lines[1], lines[1].endsWith("#1 CHECKED id=0xc value=1"));
+        assertTrue(lines[8], lines[8].endsWith("#1 CHECKED id=0x13 value=1"));
+    }
+
+    @Test
+    public void binaryDump_followsTheDocumentedLayout() throws Exception {
+        PermissionJournal journal = new PermissionJournal(4);
+        journal.record(PermissionJournal.Event.REQUESTED, 2, 0xA1, 1);
+        journal.record(PermissionJournal.Event.RESULT, 2, 0xA1, 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        journal.dumpBinary(out);
+        assertEquals(12 + 2 * 16, out.size());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(PermissionJournal.BINARY_MAGIC, in.readInt());
+        assertEquals(PermissionJournal.BINARY_VERSION, in.readInt());
+        assertEquals(2, in.readInt());
+        long firstTime = in.readLong();
+        assertEquals(PermissionJournal.Event.REQUESTED, PermissionJournal.eventOf(in.readLong()));
+        assertTrue(in.readLong() >= firstTime);
+        assertEquals(PermissionJournal.Event.RESULT, PermissionJournal.eventOf(in.readLong()));
+    }
+
+    @Test
+    public void concurrentWriters_neverProduceTornEvents() throws Exception {
+        final PermissionJournal journal = new PermissionJournal(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // Every field carries the writer, a torn event would mix two writers.
+                    for (int i = 0; i < EVENTS_PER_WRITER; i++)
+                        journal.record(PermissionJournal.Event.CHECKED, writer, writer, writer);
+                }
+            });
+            writers[w].start();
+        }
+
+        start.countDown();
+        int dumps = 0;
+        while (writers[WRITERS - 1].isAlive() || dumps == 0) {
+            assertConsistent(journal);
+            dumps++;
+        }
+        for (Thread writer : writers)
+            writer.join();
+
+        assertEquals((long) WRITERS * EVENTS_PER_WRITER, journal.getWrittenCount());
+        assertEquals(1024 + 1, journal.dumpText().split("\n").length);
+    }
+
+    @Test
+    public void record_allocatesNothing() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        PermissionJournal journal = new PermissionJournal(256);
+        journal.record(PermissionJournal.Event.QUEUED, 1, PermissionJournal.NO_PERMISSION_ID, 0);
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < EVENTS_PER_WRITER; i++)
+            journal.record(PermissionJournal.Event.RESOLVED, 1, i, i % 3 + 1);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(EVENTS_PER_WRITER + 1, journal.getWrittenCount());
+        // Allow the few bytes the measurement itself may cost, one allocation per event would be megabytes.
+        assertTrue("Allocated " + allocated + " bytes for " + EVENTS_PER_WRITER + " events", allocated < 1024);
+    }
+
+    private static void assertConsistent(PermissionJournal journal) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        journal.dumpBinary(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        in.readInt();
+        in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            in.readLong();
+            long record = in.readLong();
+            int writer = PermissionJournal.flowIdOf(record);
+            assertEquals(writer, PermissionJournal.permissionIdOf(record));
+            assertEquals(writer, PermissionJournal.valueOf(record));
+        }
+    }
+}
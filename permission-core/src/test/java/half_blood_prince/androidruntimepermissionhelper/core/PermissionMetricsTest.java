@@ -0,0 +1,113 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionMetrics} and {@link LatencyHistogram}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionMetricsTest {
+
+    private static final int SMALL_SAMPLES = 10_000;
+
+    private static final int LARGE_SAMPLES = 100_000;
+
+    @Test
+    public void durations_fallInPowerOfTwoMicrosecondBuckets() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(TimeUnit.MICROSECONDS.toNanos(1)));
+        assertEquals(1, LatencyHistogram.bucketOf(TimeUnit.MICROSECONDS.toNanos(3)));
+        assertEquals(9, LatencyHistogram.bucketOf(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(TimeUnit.DAYS.toNanos(1)));
+
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long upperBound = LatencyHistogram.getBucketUpperBoundNanos(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upperBound - 1));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(upperBound));
+        }
+    }
+
+    @Test
+    public void snapshot_keepsTheValuesOfItsTime() {
+        PermissionMetrics metrics = new PermissionMetrics();
+        for (int i = 1; i <= 100; i++)
+            metrics.recordTiming(PermissionMetrics.Metric.REQUEST_LATENCY, 0xA0, TimeUnit.MILLISECONDS.toNanos(i));
+        metrics.recordOutcome(0xA0, ResultState.GRANTED);
+        metrics.recordOutcome(0xA1, ResultState.DENIED_COMPLETELY);
+
+        PermissionMetrics.Snapshot snapshot = metrics.snapshot();
+        metrics.recordTiming(PermissionMetrics.Metric.REQUEST_LATENCY, 0xA0, 1);
+        metrics.recordOutcome(0xA0, ResultState.GRANTED);
+
+        LatencyHistogram latency = snapshot.getHistogram(PermissionMetrics.Metric.REQUEST_LATENCY);
+        assertEquals(100, latency.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), latency.getMaxNanos());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50_500), latency.getMeanNanos());
+        // The median, 50 ms, is in the bucket ending at 2^16 us.
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1 << 16), latency.getPercentileNanos(50));
+        assertEquals(latency.getMaxNanos(), latency.getPercentileNanos(100));
+        assertEquals(0, snapshot.getHistogram(PermissionMetrics.Metric.GROUP_TIME).getCount());
+        assertEquals(1, snapshot.getOutcomeCount(ResultState.GRANTED));
+        assertEquals(0, snapshot.getOutcomeCount(ResultState.DENIED));
+        assertEquals(1, snapshot.getOutcomeCount(ResultState.DENIED_COMPLETELY));
+    }
+
+    @Test
+    public void listener_receivesEverySample() {
+        final StringBuilder samples = new StringBuilder();
+        PermissionMetrics metrics = new PermissionMetrics();
+        metrics.setListener(new PermissionMetrics.Listener() {
+            @Override
+            public void onTiming(int metric, int permissionId, long durationNanos) {
+                samples.append("t").append(metric).append(':').append(permissionId).append(':').append(durationNanos)
+                        .append(' ');
+            }
+
+            @Override
+            public void onOutcome(int permissionId, int resultState) {
+                samples.append("o").append(permissionId).append(':').append(resultState).append(' ');
+            }
+        });
+
+        metrics.recordTiming(PermissionMetrics.Metric.RATIONALE_DWELL, 7, 42);
+        metrics.recordOutcome(7, ResultState.DENIED);
+
+        assertEquals("t1:7:42 o7:2 ", samples.toString());
+    }
+
+    @Test
+    public void recording_allocationDoesNotGrowWithTheSamples() {
+        PermissionMetrics metrics = new PermissionMetrics();
+        // Warm up the recording loop and the measurement, the first calls load classes and run interpreted.
+        for (int run = 0; run < 3; run++)
+            allocatedBytes(metrics, LARGE_SAMPLES);
+
+        long small = allocatedBytes(metrics, SMALL_SAMPLES);
+        long large = allocatedBytes(metrics, LARGE_SAMPLES);
+
+        assertEquals(4 * ((LARGE_SAMPLES + 2) / 3) + (SMALL_SAMPLES + 2) / 3,
+                metrics.snapshot().getOutcomeCount(ResultState.GRANTED));
+        // The measurement costs the same few bytes for both counts, one allocation per sample is at least 16 bytes.
+        assertTrue("Allocated " + small + " bytes for " + SMALL_SAMPLES + " samples and " + large + " bytes for "
+                + LARGE_SAMPLES + " samples", large - small < LARGE_SAMPLES - SMALL_SAMPLES);
+    }
+
+    private static long allocatedBytes(PermissionMetrics metrics, int samples) {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < samples; i++) {
+            metrics.recordTiming(i % 3, i, i * 1_000L);
+            metrics.recordOutcome(i, ResultState.GRANTED + i % 3);
+        }
+        return threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    }
+}
@@ -0,0 +1,232 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionRunQueue}, a single thread executor stands in for the main thread.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionRunQueueTest {
+
+    private static final int CALLERS = 16;
+
+    private static final int CALLS_PER_CALLER = 2_000;
+
+    private static final int PERMISSIONS_PER_RUN = 6;
+
+    @Test
+    public void concurrentSubmit_everyRunCompletesOnceWithAllResults() throws Exception {
+        final ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        final int totalRuns = CALLERS * CALLS_PER_CALLER;
+        final int[] resultsPerRun = new int[totalRuns];
+        final int[] startedRuns = new int[1];
+        final int[] overlappingRuns = new int[1];
+        final CountDownLatch finished = new CountDownLatch(totalRuns);
+        final boolean[] startedTokens = new boolean[totalRuns];
+        final int[] duplicatedTokens = new int[1];
+        final AtomicReference<PermissionRunQueue<Integer>> runQueue = new AtomicReference<>();
+
+        runQueue.set(new PermissionRunQueue<>(mainThread, new PermissionRunQueue.Runner<Integer>() {
+            @Override
+            public boolean joinRun(Integer token) {
+                return false;
+            }
+
+            @Override
+            public void startRun(Integer token) {
+                if (startedTokens[token])
+                    duplicatedTokens[0]++;
+                startedTokens[token] = true;
+                final int run = startedRuns[0]++;
+                // Deliver the results asynchronously, like the system permission dialog does.
+                for (int i = 0; i < PERMISSIONS_PER_RUN; i++) {
+                    final boolean isLast = i == PERMISSIONS_PER_RUN - 1;
+                    mainThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            resultsPerRun[run]++;
+                            if (isLast) {
+                                if (startedRuns[0] != run + 1)
+                                    overlappingRuns[0]++;
+                                runQueue.get().onRunFinished();
+                                finished.countDown();
+                            }
+                        }
+                    });
+                }
+            }
+        }));
+
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] callers = new Thread[CALLERS];
+        for (int c = 0; c < CALLERS; c++) {
+            final int caller = c;
+            callers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < CALLS_PER_CALLER; i++)
+                        runQueue.get().submit(caller * CALLS_PER_CALLER + i);
+                }
+            });
+            callers[c].start();
+        }
+        go.countDown();
+        for (Thread caller : callers)
+            caller.join();
+
+        assertTrue("Runs lost", finished.await(30, TimeUnit.SECONDS));
+        mainThread.shutdown();
+        assertTrue(mainThread.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(totalRuns, startedRuns[0]);
+        assertEquals(0, overlappingRuns[0]);
+        assertEquals(0, duplicatedTokens[0]);
+        for (int run = 0; run < totalRuns; run++)
+            assertEquals(PERMISSIONS_PER_RUN, resultsPerRun[run]);
+    }
+
+    @Test
+    public void synchronousRuns_drainWithoutRecursion() {
+        final int[] startedRuns = new int[1];
+        final AtomicReference<PermissionRunQueue<Object>> runQueue = new AtomicReference<>();
+        final ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        final Object token = new Object();
+
+        runQueue.set(new PermissionRunQueue<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThread.add(command);
+            }
+        }, new PermissionRunQueue.Runner<Object>() {
+            @Override
+            public boolean joinRun(Object token) {
+                return false;
+            }
+
+            @Override
+            public void startRun(Object token) {
+                startedRuns[0]++;
+                runQueue.get().onRunFinished();
+            }
+        }));
+
+        for (int i = 0; i < 100_000; i++)
+            runQueue.get().submit(token);
+        // The first drain starts every pending run in a loop, the rest find nothing to do.
+        mainThread.poll().run();
+        assertEquals(100_000, startedRuns[0]);
+        while (!mainThread.isEmpty())
+            mainThread.poll().run();
+        assertEquals(100_000, startedRuns[0]);
+    }
+
+    @Test
+    public void runsSubmittedDuringARun_joinItUntilOneIsRefused() {
+        final List<String> events = new ArrayList<>();
+        final ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        PermissionRunQueue<String> runQueue = new PermissionRunQueue<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThread.add(command);
+            }
+        }, new PermissionRunQueue.Runner<String>() {
+            @Override
+            public boolean joinRun(String token) {
+                if (!token.startsWith("join"))
+                    return false;
+                events.add("joined " + token);
+                return true;
+            }
+
+            @Override
+            public void startRun(String token) {
+                events.add("started " + token);
+            }
+        });
+
+        runQueue.submit("first");
+        runQueue.submit("join1");
+        runQueue.submit("late");
+        runQueue.submit("join2");
+        while (!mainThread.isEmpty())
+            mainThread.poll().run();
+        runQueue.onRunFinished();
+
+        // The run refused keeps its place, the run submitted after it joins the next run.
+        assertEquals("[started first, joined join1, started late, joined join2]", events.toString());
+    }
+
+    @Test
+    public void confinedSubmit_startsRightAwayOnlyWhenNoRunIsWaiting() {
+        final List<String> events = new ArrayList<>();
+        final ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        final AtomicReference<PermissionRunQueue<String>> runQueue = new AtomicReference<>();
+        runQueue.set(new PermissionRunQueue<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThread.add(command);
+            }
+        }, new PermissionRunQueue.Runner<String>() {
+            @Override
+            public boolean joinRun(String token) {
+                if (!token.startsWith("join"))
+                    return false;
+                events.add("joined " + token);
+                return true;
+            }
+
+            @Override
+            public void startRun(String token) {
+                events.add("started " + token);
+                if (token.startsWith("sync")) {
+                    // Submitted while starting, the run starts once this one finishes synchronously.
+                    if ("sync".equals(token))
+                        runQueue.get().submitConfined("sync nested");
+                    runQueue.get().onRunFinished();
+                }
+            }
+        }));
+
+        runQueue.get().submitConfined("first");
+        runQueue.get().submitConfined("join1");
+        runQueue.get().submitConfined("late");
+        assertEquals("[started first, joined join1]", events.toString());
+        runQueue.get().onRunFinished();
+        runQueue.get().onRunFinished();
+        assertTrue(mainThread.isEmpty());
+
+        // A run submitted from another thread is not started yet, the confined run waits behind it.
+        events.clear();
+        runQueue.get().submit("queued");
+        runQueue.get().submitConfined("confined");
+        assertEquals(0, events.size());
+        while (!mainThread.isEmpty())
+            mainThread.poll().run();
+        runQueue.get().onRunFinished();
+        runQueue.get().onRunFinished();
+        runQueue.get().submitConfined("sync");
+        assertEquals("[started queued, started confined, started sync, started sync nested]", events.toString());
+        assertFalse(runQueue.get().isRunning());
+    }
+}
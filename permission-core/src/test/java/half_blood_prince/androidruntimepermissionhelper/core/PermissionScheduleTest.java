@@ -0,0 +1,51 @@
+package half_blood_prince.androidruntimepermissionhelper.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link PermissionSchedule}.
+ *
+ * @author Half-Blood-Prince
+ */
+public class PermissionScheduleTest {
+
+    @Test
+    public void order_putsTheHighestPriorityFirstAndThePrerequisitesBeforeTheirDependents() {
+        PermissionSchedule schedule = new PermissionSchedule.Builder()
+                .priority(3, 5)
+                .requires(3, 4)
+                .priority(1, 1)
+                .build();
+
+        assertEquals("[4, 3, 1, 0, 2]", Arrays.toString(schedule.order(PermissionFlowTest.set(5))));
+    }
+
+    @Test
+    public void prerequisitesOutsideTheSet_areIgnored() {
+        PermissionSchedule schedule = new PermissionSchedule.Builder().requires(0, 7).priority(1, 1).build();
+
+        assertEquals("[1, 0]", Arrays.toString(schedule.order(PermissionFlowTest.set(2))));
+        assertEquals("[7]", Arrays.toString(schedule.getPrerequisites(0)));
+    }
+
+    @Test
+    public void undeclaredPermission_hasTheDefaults() {
+        PermissionSchedule schedule = new PermissionSchedule.Builder().optional(2).build();
+
+        assertTrue(schedule.isOptional(2));
+        assertFalse(schedule.isOptional(1));
+        assertEquals(PermissionSchedule.DEFAULT_PRIORITY, schedule.getPriority(1));
+        assertEquals(0, schedule.getPrerequisites(1).length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cyclicPrerequisites_areRejected() {
+        new PermissionSchedule.Builder().requires(0, 1).requires(1, 2).requires(2, 0).build();
+    }
+}